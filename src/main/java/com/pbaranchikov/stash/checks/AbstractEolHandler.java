@@ -0,0 +1,168 @@
+package com.pbaranchikov.stash.checks;
+
+/**
+ * Handler of a single-file diff section, looking for CR symbol. Sections are
+ * fed by {@link MultiFileEolHandler}. <br/>
+ * Result is <code>true</code> if all the changes look Ok. <br/>
+ * Diff lines are parsed by a table-driven state machine. State holds the
+ * segment type of the current line and whether the line has just started.
+ * Only the first symbol of the line affects segment type, so the rest of the
+ * line is skipped up to the next newline symbol at once. <br/>
+ * Class is statefull. It is to be used strictly for one and only one output
+ * handling.
+ * @author Pavel Baranchikov
+ */
+abstract class AbstractEolHandler {
+
+    /**
+     * Class of the symbols, not affecting the state.
+     */
+    protected static final int CLASS_OTHER = 0;
+    /**
+     * Class of the CR symbol.
+     */
+    protected static final int CLASS_CR = 3;
+    /**
+     * Class of the LF symbol.
+     */
+    protected static final int CLASS_LF = 4;
+
+    private static final int CLASS_PLUS = 1;
+    private static final int CLASS_MINUS = 2;
+    private static final int CLASS_COUNT = 5;
+    private static final int BYTE_VALUES = 256;
+
+    /**
+     * States of the machine, premultiplied by the number of classes to be
+     * used as the row offsets in the transitions table.
+     */
+    private static final int CONTEXT_START = 0;
+    private static final int CONTEXT_LINE = CLASS_COUNT;
+    private static final int ADDED_START = CLASS_COUNT * 2;
+    private static final int ADDED_LINE = CLASS_COUNT * 3;
+    private static final int REMOVED_START = CLASS_COUNT * 4;
+    private static final int REMOVED_LINE = CLASS_COUNT * 5;
+    private static final int STATE_COUNT = 6;
+
+    private static final byte[] CLASSES = new byte[BYTE_VALUES];
+    private static final int[] TRANSITIONS = new int[STATE_COUNT * CLASS_COUNT];
+    private static final boolean[] ADDED_STATES = new boolean[STATE_COUNT * CLASS_COUNT];
+    private static final NewlineScanner SCANNER = NewlineScanner.getDefault();
+
+    static {
+        CLASSES['+'] = CLASS_PLUS;
+        CLASSES['-'] = CLASS_MINUS;
+        CLASSES[Constants.CR] = CLASS_CR;
+        CLASSES[Constants.LF] = CLASS_LF;
+        final int[][] segments = {{CONTEXT_START, CONTEXT_LINE}, {ADDED_START, ADDED_LINE},
+                {REMOVED_START, REMOVED_LINE}};
+        for (int[] segment : segments) {
+            final int lineStart = segment[0];
+            final int line = segment[1];
+            // Only the first symbol of the line sets the segment type
+            TRANSITIONS[lineStart + CLASS_OTHER] = CONTEXT_LINE;
+            TRANSITIONS[lineStart + CLASS_PLUS] = ADDED_LINE;
+            TRANSITIONS[lineStart + CLASS_MINUS] = REMOVED_LINE;
+            TRANSITIONS[line + CLASS_OTHER] = line;
+            TRANSITIONS[line + CLASS_PLUS] = line;
+            TRANSITIONS[line + CLASS_MINUS] = line;
+            // Newline symbols keep the segment type of the line they finish
+            for (int state : segment) {
+                TRANSITIONS[state + CLASS_CR] = lineStart;
+                TRANSITIONS[state + CLASS_LF] = lineStart;
+            }
+        }
+        ADDED_STATES[ADDED_START] = true;
+        ADDED_STATES[ADDED_LINE] = true;
+    }
+
+    private boolean allOk = true;
+    private boolean finished;
+    private int state = CONTEXT_START;
+
+    /**
+     * Processes the next portion of the diff output. Handler keeps its
+     * line-parsing state between the calls, so the diff could be fed by
+     * arbitrary chunks.
+     * @param buffer buffer holding the data
+     * @param offset offset of the first byte to process
+     * @param length number of bytes to process
+     * @return whether the further data is required to get the result
+     */
+    final boolean processData(byte[] buffer, int offset, int length) {
+        if (finished) {
+            return false;
+        }
+        if (!scan(buffer, offset, offset + length)) {
+            finished = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Scans the next portion of the diff output. Every mode has its own
+     * scanning loop, so that JIT could inline everything within it.
+     * @param buffer buffer holding the data
+     * @param from position of the first byte to scan, inclusive
+     * @param to position of the last byte to scan, exclusive
+     * @return whether the further data is required to get the result
+     */
+    protected abstract boolean scan(byte[] buffer, int from, int to);
+
+    protected static int getCharClass(byte nextChar) {
+        return CLASSES[nextChar & (BYTE_VALUES - 1)];
+    }
+
+    protected static int getNextState(int currentState, int charClass) {
+        return TRANSITIONS[currentState + charClass];
+    }
+
+    protected static boolean isAdded(int currentState) {
+        return ADDED_STATES[currentState];
+    }
+
+    /**
+     * Returns position of the next symbol, that could change the state.
+     * @param buffer buffer holding the data
+     * @param position position of the current symbol
+     * @param charClass class of the current symbol
+     * @param to position of the last byte to scan, exclusive
+     * @return position of the next symbol to process
+     */
+    protected static int getNextPosition(byte[] buffer, int position, int charClass, int to) {
+        if (charClass >= CLASS_CR) {
+            return position + 1;
+        }
+        // The rest of the line does not affect anything
+        return SCANNER.indexOfNewline(buffer, position + 1, to);
+    }
+
+    protected int getState() {
+        return state;
+    }
+
+    protected void setState(int state) {
+        this.state = state;
+    }
+
+    protected void setResult(boolean allOk) {
+        this.allOk = allOk;
+    }
+
+    /**
+     * Returns result of the check.
+     * @return whether all the changes look Ok
+     */
+    boolean getResult() {
+        return allOk;
+    }
+
+    /**
+     * Returns number of context lines, that are required for the handler to
+     * perform analysis.
+     * @return number of context lines to load within diff
+     */
+    public abstract int getRequiredContext();
+
+}
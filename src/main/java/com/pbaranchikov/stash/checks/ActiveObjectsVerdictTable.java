@@ -0,0 +1,121 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import net.java.ao.DBParam;
+import net.java.ao.Query;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+
+/**
+ * Verdict table, backed by Active Objects. Table is stored in the database of
+ * the application, so it is shared between all the nodes of the cluster. <br/>
+ * Keys are not unique in the database: two nodes could store the same
+ * verdict simultaneously, which is harmless, as the verdicts for the same key
+ * are always equal. <br/>
+ * Maximum number of rows is set by system property
+ * {@value Constants#PROPERTY_SHARED_STORE_SIZE}. The oldest rows are removed,
+ * when the limit is exceeded.
+ * @author Pavel Baranchikov
+ */
+public class ActiveObjectsVerdictTable implements VerdictTable {
+
+    private static final int DEFAULT_SIZE = 1024 * 1024;
+    private static final int QUERY_KEYS = 256;
+    private static final int PRUNE_INTERVAL = 4096;
+    /*
+     * Identifiers are left unquoted: Active Objects quotes the column names of
+     * the where and order clauses as the database requires
+     */
+    private static final String ORDER_NEWEST = "ID DESC";
+    private static final String DELETE_OLDER = "ID <= ?";
+
+    private final ActiveObjects activeObjects;
+    private final int maxRows;
+    private final AtomicInteger insertedRows = new AtomicInteger();
+
+    public ActiveObjectsVerdictTable(@Nonnull ActiveObjects activeObjects) {
+        this.activeObjects = Objects.requireNonNull(activeObjects);
+        this.maxRows = Integer.getInteger(Constants.PROPERTY_SHARED_STORE_SIZE, DEFAULT_SIZE);
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, String> getAll(@Nonnull Collection<String> keys) {
+        if (keys.isEmpty() || maxRows <= 0) {
+            return Collections.emptyMap();
+        }
+        return activeObjects.executeInTransaction(() -> {
+            final Map<String, String> values = new HashMap<>();
+            final List<String> keysList = new ArrayList<>(keys);
+            for (int i = 0; i < keysList.size(); i += QUERY_KEYS) {
+                final List<String> chunk = keysList.subList(i,
+                        Math.min(i + QUERY_KEYS, keysList.size()));
+                for (VerdictEntity entity : activeObjects.find(VerdictEntity.class,
+                        Query.select().where(getInClause(chunk.size()), chunk.toArray()))) {
+                    values.put(entity.getVerdictKey(), entity.getVerdictValue());
+                }
+            }
+            return values;
+        });
+    }
+
+    @Override
+    public void putAll(@Nonnull Map<String, String> values) {
+        if (values.isEmpty() || maxRows <= 0) {
+            return;
+        }
+        final Map<String, String> existing = getAll(values.keySet());
+        final int inserted = activeObjects.executeInTransaction(() -> {
+            int count = 0;
+            for (Entry<String, String> entry : values.entrySet()) {
+                if (!existing.containsKey(entry.getKey())) {
+                    activeObjects.create(VerdictEntity.class, new DBParam(
+                            VerdictEntity.KEY_COLUMN, entry.getKey()), new DBParam(
+                            VerdictEntity.VALUE_COLUMN, entry.getValue()));
+                    count++;
+                }
+            }
+            return count;
+        });
+        final int total = insertedRows.addAndGet(inserted);
+        if (total / PRUNE_INTERVAL != (total - inserted) / PRUNE_INTERVAL) {
+            prune();
+        }
+    }
+
+    /**
+     * Removes the oldest rows, exceeding the maximum number of rows.
+     */
+    private void prune() {
+        activeObjects.executeInTransaction(() -> {
+            final VerdictEntity[] newest = activeObjects.find(VerdictEntity.class, Query
+                    .select().order(ORDER_NEWEST).offset(maxRows).limit(1));
+            if (newest.length > 0) {
+                activeObjects.deleteWithSQL(VerdictEntity.class, DELETE_OLDER,
+                        newest[0].getID());
+            }
+            return null;
+        });
+    }
+
+    private static String getInClause(int count) {
+        final StringBuilder sb = new StringBuilder().append(VerdictEntity.KEY_COLUMN)
+                .append(" IN (");
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.append(')').toString();
+    }
+
+}
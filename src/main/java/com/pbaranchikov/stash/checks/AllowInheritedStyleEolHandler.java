@@ -0,0 +1,41 @@
+package com.pbaranchikov.stash.checks;
+
+/**
+ * Eol-checker, allowing the EOL-style, that file have before the commit. <br/>
+ * Handler searches for CR in all the lines. If it finds CR in the removed
+ * lines, handler returns non-error result immediately. In other case, if
+ * there is no CR in ALL added lines, handler returns non-error result after
+ * all the parsing. Otherwise, error result is returned.
+ * @author Pavel Baranchikov
+ */
+class AllowInheritedStyleEolHandler extends AbstractEolHandler {
+    @Override
+    protected boolean scan(byte[] buffer, int from, int to) {
+        int state = getState();
+        int position = from;
+        while (position < to) {
+            final int charClass = getCharClass(buffer[position]);
+            if (charClass == CLASS_CR) {
+                // We get info about old EOL-style from both context and
+                // removed lines. Descriptive lines, that are generated by git
+                // itself are always in LF style
+                if (!isAdded(state)) {
+                    setResult(true);
+                    return false;
+                }
+                setResult(false);
+            }
+            state = getNextState(state, charClass);
+            position = getNextPosition(buffer, position, charClass, to);
+        }
+        setState(state);
+        return true;
+    }
+
+    @Override
+    public int getRequiredContext() {
+        // At lease one line of context is needed to determine file's
+        // initial EOL-style
+        return 1;
+    }
+}
@@ -0,0 +1,20 @@
+package com.pbaranchikov.stash.checks;
+
+/**
+ * EOL-style of a blob, as it is seen by git diff.
+ * @author Pavel Baranchikov
+ */
+public enum BlobEolStyle {
+    /**
+     * Text blob without any CR symbols.
+     */
+    LF_ONLY,
+    /**
+     * Text blob, containing at least one CR symbol.
+     */
+    HAS_CR,
+    /**
+     * Blob, which git diff treats as binary. Diff never shows its lines.
+     */
+    BINARY
+}
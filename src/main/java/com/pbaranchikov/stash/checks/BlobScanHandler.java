@@ -0,0 +1,182 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.scm.CommandOutputHandler;
+import com.atlassian.utils.process.ProcessException;
+import com.atlassian.utils.process.Watchdog;
+
+/**
+ * Output handler for <code>git cat-file --batch</code>. Detects EOL-style of
+ * every blob read. Blobs, that are missing in the repository, are not present
+ * in the output map. <br/>
+ * Binary blobs are detected by their content the same way git diff does
+ * it: blob is binary if it has NUL symbol within the first bytes, or if it
+ * is bigger than git's default <code>core.bigFileThreshold</code>.
+ * Attributes and the configuration of the repository are not taken into
+ * account here. Nothing is scanned after the blob is found to be binary.
+ * <br/>
+ * Handler, constructed with the scan limit, reads only the leading bytes of
+ * the first blob and cancels the git process then. Blob is classified by the
+ * bytes read.
+ * @author Pavel Baranchikov
+ */
+class BlobScanHandler implements CommandOutputHandler<Map<String, BlobEolStyle>> {
+
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Number of the leading bytes git looks through for NUL symbol.
+     */
+    private static final int BINARY_CHECK_SIZE = 8000;
+    private static final long BIG_FILE_THRESHOLD = 512L * 1024 * 1024;
+    private static final String BLOB_TYPE = "blob";
+    private static final int HEADER_FIELDS = 3;
+
+    private final Map<String, BlobEolStyle> styles = new HashMap<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final long scanLimit;
+    private Watchdog watchdog;
+    private boolean canceled;
+
+    /**
+     * Constructs the handler, reading all the blobs fully.
+     */
+    BlobScanHandler() {
+        this(Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs the handler, reading at most the specified number of the
+     * leading bytes of the first blob.
+     * @param scanLimit maximum number of bytes to read
+     */
+    BlobScanHandler(long scanLimit) {
+        this.scanLimit = scanLimit;
+    }
+
+    @Override
+    public void process(InputStream output) throws ProcessException {
+        try {
+            final InputStream input = new BufferedInputStream(output, BUFFER_SIZE);
+            for (String header = readLine(input); header != null && !canceled; header =
+                    readLine(input)) {
+                // "<id> <type> <size>" or "<id> missing"
+                final String[] fields = header.split(" ");
+                if (fields.length == HEADER_FIELDS) {
+                    final long size = Long.parseLong(fields[2]);
+                    final BlobEolStyle style = scanContent(input, size);
+                    if (BLOB_TYPE.equals(fields[1])) {
+                        styles.put(fields[0], style);
+                    }
+                    if (size > scanLimit) {
+                        cancel();
+                    } else {
+                        // Skip LF, terminating the blob contents
+                        input.read();
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new ProcessException("Error reading blobs from git", e);
+        }
+    }
+
+    private void cancel() {
+        canceled = true;
+        if (watchdog != null) {
+            watchdog.cancel();
+        }
+    }
+
+    private BlobEolStyle scanContent(InputStream input, long size) throws IOException {
+        final boolean big = size > BIG_FILE_THRESHOLD;
+        // Big blob is binary anyway, so it is only read through to the next one
+        final long readSize = big && size > scanLimit ? 0 : Math.min(size, scanLimit);
+        boolean hasCr = false;
+        boolean binary = false;
+        long position = 0;
+        while (position < readSize) {
+            final int readCount = input.read(buffer, 0,
+                    (int) Math.min(buffer.length, readSize - position));
+            if (readCount < 0) {
+                throw new IOException("Unexpected end of blob contents");
+            }
+            // Nothing can change the style after the blob is found to be
+            // binary or after CR is found and binary check is passed
+            if (!big && !binary && !(hasCr && position >= BINARY_CHECK_SIZE)) {
+                binary = hasNul(position, readCount);
+                hasCr |= hasCr(readCount);
+            }
+            position += readCount;
+        }
+        if (big || binary) {
+            return BlobEolStyle.BINARY;
+        }
+        return hasCr ? BlobEolStyle.HAS_CR : BlobEolStyle.LF_ONLY;
+    }
+
+    private boolean hasNul(long position, int length) {
+        final int end = (int) Math.min(length, BINARY_CHECK_SIZE - position);
+        for (int i = 0; i < end; i++) {
+            if (buffer[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasCr(int length) {
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == Constants.CR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static String readLine(InputStream input) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int nextChar = input.read();
+        while (nextChar >= 0 && nextChar != Constants.LF) {
+            line.write(nextChar);
+            nextChar = input.read();
+        }
+        if (nextChar < 0 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void complete() throws ProcessException {
+    }
+
+    @Override
+    public void setWatchdog(Watchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Returns whether the git process has been canceled by the handler, as
+     * the scan limit is reached.
+     * @return whether the process has been canceled
+     */
+    boolean isCanceled() {
+        return canceled;
+    }
+
+    @Override
+    public Map<String, BlobEolStyle> getOutput() {
+        return styles;
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.atlassian.bitbucket.scm.CommandOutputHandler;
+import com.atlassian.utils.process.ProcessException;
+import com.atlassian.utils.process.Watchdog;
+
+/**
+ * Output handler for <code>git cat-file --batch-check</code>. Collects sizes
+ * of the objects. Objects, that are missing in the repository, are not
+ * present in the output map.
+ * @author Pavel Baranchikov
+ */
+class BlobSizeHandler implements CommandOutputHandler<Map<String, Long>> {
+
+    private static final int HEADER_FIELDS = 3;
+
+    private final Map<String, Long> sizes = new HashMap<>();
+
+    @Override
+    public void process(InputStream output) throws ProcessException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(output,
+                StandardCharsets.UTF_8))) {
+            for (String header = reader.readLine(); header != null; header = reader
+                    .readLine()) {
+                // "<id> <type> <size>" or "<id> missing"
+                final String[] fields = header.split(" ");
+                if (fields.length == HEADER_FIELDS) {
+                    sizes.put(fields[0], Long.valueOf(fields[2]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new ProcessException("Error reading object sizes from git", e);
+        }
+    }
+
+    @Override
+    public void complete() throws ProcessException {
+    }
+
+    @Override
+    public void setWatchdog(Watchdog watchdog) {
+    }
+
+    @Override
+    public Map<String, Long> getOutput() {
+        return sizes;
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Policy for the blobs, which are too big to be scanned as usual, together
+ * with the statistics of the blobs, skipped by the scan. <br/>
+ * Blobs, bigger than {@value Constants#PROPERTY_BLOB_MAX_SIZE}, are handled
+ * according to {@value Constants#PROPERTY_BLOB_OVERSIZE}: skipped without
+ * reading, sampled by the leading
+ * {@value Constants#PROPERTY_BLOB_SAMPLE_SIZE} bytes or scanned fully.
+ * @author Pavel Baranchikov
+ */
+public class BlobSizePolicy {
+
+    /**
+     * Default maximum size, which equals to default
+     * <code>core.bigFileThreshold</code> of git. Git diff treats bigger files
+     * as binary ones.
+     */
+    private static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024;
+    private static final int DEFAULT_SAMPLE_SIZE = 1024 * 1024;
+    private static final char KEY_SEPARATOR = ':';
+
+    private final long maxSize;
+    private final Oversize oversize;
+    private final int sampleSize;
+
+    private final LongAdder binarySkips = new LongAdder();
+    private final LongAdder oversizeSkips = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+
+    public BlobSizePolicy() {
+        this(Long.getLong(Constants.PROPERTY_BLOB_MAX_SIZE, DEFAULT_MAX_SIZE), select(System
+                .getProperty(Constants.PROPERTY_BLOB_OVERSIZE)), Integer.getInteger(
+                Constants.PROPERTY_BLOB_SAMPLE_SIZE, DEFAULT_SAMPLE_SIZE));
+    }
+
+    /**
+     * Constructs the policy.
+     * @param maxSize maximum size of a blob, which is scanned as usual
+     * @param oversize what is done with the bigger blobs
+     * @param sampleSize number of the leading bytes, scanned in the sampled
+     *            blobs
+     */
+    public BlobSizePolicy(long maxSize, @Nonnull Oversize oversize, int sampleSize) {
+        this.maxSize = maxSize;
+        this.oversize = Objects.requireNonNull(oversize);
+        this.sampleSize = Math.max(1, sampleSize);
+    }
+
+    @Nonnull
+    private static Oversize select(String name) {
+        if (name == null) {
+            return Oversize.SKIP;
+        }
+        try {
+            return Oversize.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LoggerFactory.getLogger(BlobSizePolicy.class).warn(
+                    "Unknown oversized blob policy {}, falling back to {}", name,
+                    Oversize.SKIP);
+            return Oversize.SKIP;
+        }
+    }
+
+    /**
+     * Returns what is done with the blob of the specified size.
+     * @param size size of the blob
+     * @return {@link Oversize#SCAN} for the blobs, which are not oversized,
+     *         configured policy for the rest of them
+     */
+    @Nonnull
+    public Oversize getPolicy(long size) {
+        return size > maxSize ? oversize : Oversize.SCAN;
+    }
+
+    /**
+     * Returns whether sizes of the blobs are to be known before they are
+     * read.
+     * @return whether sizes are needed
+     */
+    public boolean isSizeRequired() {
+        return oversize != Oversize.SCAN;
+    }
+
+    /**
+     * Returns key of the policy. Only the parameters, which affect the
+     * verdicts, are included, so policies with equal keys produce the same
+     * verdicts.
+     * @return key of the policy
+     */
+    @Nonnull
+    public String getKey() {
+        switch (oversize) {
+            case SKIP:
+                return oversize.name() + KEY_SEPARATOR + maxSize;
+            case SAMPLE:
+                return oversize.name() + KEY_SEPARATOR + maxSize + KEY_SEPARATOR + sampleSize;
+            default:
+                return oversize.name();
+        }
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Records the blobs, which scan is stopped at, as they are binary.
+     * @param count number of the blobs
+     */
+    public void addBinarySkips(int count) {
+        binarySkips.add(count);
+    }
+
+    /**
+     * Records the oversized blobs, which are not read at all.
+     * @param count number of the blobs
+     */
+    public void addOversizeSkips(int count) {
+        oversizeSkips.add(count);
+    }
+
+    /**
+     * Records the oversized blobs, which are sampled.
+     * @param count number of the blobs
+     */
+    public void addSamples(int count) {
+        samples.add(count);
+    }
+
+    public long getBinarySkipCount() {
+        return binarySkips.sum();
+    }
+
+    public long getOversizeSkipCount() {
+        return oversizeSkips.sum();
+    }
+
+    public long getSampleCount() {
+        return samples.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BlobSizePolicy[maxSize=" + maxSize + ", oversize=" + oversize
+                + ", binarySkips=" + getBinarySkipCount() + ", oversizeSkips="
+                + getOversizeSkipCount() + ", samples=" + getSampleCount() + "]";
+    }
+
+    /**
+     * What is done with the blobs, bigger than the maximum size.
+     */
+    public enum Oversize {
+        /**
+         * Blob is not read at all and is treated as a binary one.
+         */
+        SKIP,
+        /**
+         * Only the leading bytes of the blob are scanned. CR symbols beyond
+         * them are not detected.
+         */
+        SAMPLE,
+        /**
+         * Blob is scanned fully, as any other one.
+         */
+        SCAN
+    }
+
+}
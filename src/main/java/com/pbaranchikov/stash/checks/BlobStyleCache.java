@@ -0,0 +1,182 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded in-memory cache of blob EOL-styles, keyed by blob object ID. Blob
+ * contents never change, so cached style is valid for every repository the
+ * blob is met in. <br/>
+ * Object IDs are packed into primitive arrays instead of strings. Cache is
+ * set-associative: every ID could reside in one of {@value #WAYS} slots of
+ * its set. Eviction within the set follows CLOCK algorithm. <br/>
+ * Size of the cache is set by system property
+ * {@value Constants#PROPERTY_BLOB_CACHE_SIZE}.
+ * @author Pavel Baranchikov
+ */
+public class BlobStyleCache {
+
+    private static final int WAYS = 8;
+    private static final int LOCKS = 64;
+    private static final int DEFAULT_SIZE = 256 * 1024;
+    private static final byte EMPTY = 0;
+    private static final int HASH_SHIFT = 32;
+    private static final BlobEolStyle[] STYLES = BlobEolStyle.values();
+
+    private final int setMask;
+    private final long[] highs;
+    private final long[] middles;
+    private final int[] lows;
+    private final byte[] styles;
+    private final boolean[] referenced;
+    private final int[] hands;
+    private final Object[] locks = new Object[LOCKS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BlobStyleCache() {
+        this(Integer.getInteger(Constants.PROPERTY_BLOB_CACHE_SIZE, DEFAULT_SIZE));
+    }
+
+    /**
+     * Constructs the cache.
+     * @param size maximum number of blobs to hold. Is rounded up to the
+     *            power of 2
+     */
+    public BlobStyleCache(int size) {
+        final int sets = Integer.highestOneBit(Math.max(size / WAYS - 1, 1)) << 1;
+        final int capacity = sets * WAYS;
+        this.setMask = sets - 1;
+        this.highs = new long[capacity];
+        this.middles = new long[capacity];
+        this.lows = new int[capacity];
+        this.styles = new byte[capacity];
+        this.referenced = new boolean[capacity];
+        this.hands = new int[sets];
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the cached style of the blob.
+     * @param blobId blob object ID
+     * @return style of the blob or <code>null</code>, if it is not cached
+     */
+    @Nullable
+    public BlobEolStyle get(@Nonnull String blobId) {
+        if (!ObjectIds.isObjectId(blobId)) {
+            misses.increment();
+            return null;
+        }
+        final long high = ObjectIds.getHigh(blobId);
+        final long middle = ObjectIds.getMiddle(blobId);
+        final int low = ObjectIds.getLow(blobId);
+        final int set = getSet(high, middle, low);
+        synchronized (locks[set & (LOCKS - 1)]) {
+            final int slot = find(set, high, middle, low);
+            if (slot >= 0) {
+                referenced[slot] = true;
+                hits.increment();
+                return STYLES[styles[slot] - 1];
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Puts the style of the blob into the cache.
+     * @param blobId blob object ID
+     * @param style style of the blob
+     */
+    public void put(@Nonnull String blobId, @Nonnull BlobEolStyle style) {
+        if (!ObjectIds.isObjectId(blobId)) {
+            return;
+        }
+        final long high = ObjectIds.getHigh(blobId);
+        final long middle = ObjectIds.getMiddle(blobId);
+        final int low = ObjectIds.getLow(blobId);
+        final int set = getSet(high, middle, low);
+        synchronized (locks[set & (LOCKS - 1)]) {
+            int slot = find(set, high, middle, low);
+            if (slot < 0) {
+                slot = evict(set);
+                highs[slot] = high;
+                middles[slot] = middle;
+                lows[slot] = low;
+            }
+            styles[slot] = (byte) (style.ordinal() + 1);
+            referenced[slot] = false;
+        }
+    }
+
+    private int find(int set, long high, long middle, int low) {
+        final int first = set * WAYS;
+        for (int slot = first; slot < first + WAYS; slot++) {
+            if (styles[slot] != EMPTY && highs[slot] == high && middles[slot] == middle
+                    && lows[slot] == low) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns free slot within the set. If there is no free slot, evicts the
+     * first slot, not referenced since the last pass of the clock hand.
+     */
+    private int evict(int set) {
+        final int first = set * WAYS;
+        for (int slot = first; slot < first + WAYS; slot++) {
+            if (styles[slot] == EMPTY) {
+                return slot;
+            }
+        }
+        int hand = hands[set];
+        while (referenced[first + hand]) {
+            referenced[first + hand] = false;
+            hand = (hand + 1) % WAYS;
+        }
+        hands[set] = (hand + 1) % WAYS;
+        evictions.increment();
+        return first + hand;
+    }
+
+    private int getSet(long high, long middle, int low) {
+        // SHA1 is uniformly distributed already, so just fold the bits
+        final long hash = high ^ middle ^ low;
+        return (int) (hash ^ (hash >>> HASH_SHIFT)) & setMask;
+    }
+
+    /**
+     * Returns maximum number of blobs, cache could hold.
+     * @return cache capacity
+     */
+    public int getCapacity() {
+        return styles.length;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BlobStyleCache[capacity=" + getCapacity() + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+
+}
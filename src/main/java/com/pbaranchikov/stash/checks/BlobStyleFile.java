@@ -0,0 +1,401 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file of blob EOL-styles for one repository. <br/>
+ * File consists of a header and fixed-width records: 20 bytes of blob ID
+ * followed by 1 byte of style. Records of the first part of the file are
+ * sorted by ID and are looked up with binary search through the memory
+ * mapping. New records are appended to the end of the file and are kept in
+ * memory until the next compaction. <br/>
+ * Compaction merges all the records into a new sorted file of the next
+ * generation. New file is written aside and then atomically moved in place,
+ * so that the crash leaves either old or new generation intact. Torn records
+ * at the end of the file are dropped on opening.
+ * @author Pavel Baranchikov
+ */
+final class BlobStyleFile implements Closeable {
+
+    private static final int RECORD_SIZE = 21;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x454f4c42;
+    private static final int VERSION = 1;
+    private static final int ID_LOW_OFFSET = 16;
+    private static final int STYLE_OFFSET = 20;
+    private static final int COMPACTION_THRESHOLD = 16 * 1024;
+    private static final String DATA_SUFFIX = ".dat";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String GENERATION_SEPARATOR = "-";
+    private static final BlobEolStyle[] STYLES = BlobEolStyle.values();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Path directory;
+    private final String name;
+    private final int maxRecords;
+    private final Map<String, BlobEolStyle> appended = new HashMap<>();
+
+    private long generation;
+    private FileChannel channel;
+    private MappedByteBuffer sorted;
+    private int sortedCount;
+
+    private BlobStyleFile(Path directory, String name, int maxRecords) {
+        this.directory = directory;
+        this.name = name;
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Opens the latest generation of the file, creating the new one if
+     * there is no file yet.
+     * @param directory directory to store files in
+     * @param name name of the file, unique within the directory
+     * @param maxRecords maximum number of records to keep after compaction.
+     *            Up to {@value #COMPACTION_THRESHOLD} records are appended
+     *            above it until the next compaction
+     * @return opened file
+     * @throws IOException on I/O errors
+     */
+    @Nonnull
+    static BlobStyleFile open(@Nonnull Path directory, @Nonnull String name, int maxRecords)
+            throws IOException {
+        final BlobStyleFile file = new BlobStyleFile(Objects.requireNonNull(directory),
+                Objects.requireNonNull(name), maxRecords);
+        Files.createDirectories(directory);
+        file.generation = file.findLatestGeneration();
+        if (file.generation == 0) {
+            file.generation = 1;
+            file.writeGeneration(file.generation, Collections.emptyList());
+        }
+        file.load();
+        return file;
+    }
+
+    /**
+     * Returns style of the blob.
+     * @param blobId blob object ID
+     * @return style of the blob or <code>null</code> if there is no such
+     *         record
+     */
+    @Nullable
+    synchronized BlobEolStyle get(@Nonnull String blobId) {
+        if (channel == null || !ObjectIds.isObjectId(blobId)) {
+            return null;
+        }
+        final BlobEolStyle style = appended.get(blobId);
+        if (style != null) {
+            return style;
+        }
+        final Record key = new Record(blobId, null);
+        int low = 0;
+        int high = sortedCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int position = middle * RECORD_SIZE;
+            final int comparison = key.compareTo(sorted, position);
+            if (comparison == 0) {
+                return getStyle(sorted.get(position + STYLE_OFFSET));
+            } else if (comparison > 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Appends records to the file. Compacts the file, if too many records
+     * are appended since the last compaction.
+     * @param styles blob styles to append
+     * @throws IOException on I/O errors
+     */
+    synchronized void append(@Nonnull Map<String, BlobEolStyle> styles) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(styles.size() * RECORD_SIZE);
+        for (Entry<String, BlobEolStyle> entry : styles.entrySet()) {
+            if (ObjectIds.isObjectId(entry.getKey()) && get(entry.getKey()) == null) {
+                new Record(entry.getKey(), entry.getValue()).write(buffer);
+                appended.put(entry.getKey(), entry.getValue());
+            }
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, channel.size());
+        }
+        if (appended.size() >= COMPACTION_THRESHOLD) {
+            compact();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            sorted = null;
+            appended.clear();
+        }
+    }
+
+    private long findLatestGeneration() throws IOException {
+        final Map<Long, Path> generations = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name
+                + GENERATION_SEPARATOR + "*")) {
+            for (Path file : files) {
+                final String fileName = file.getFileName().toString();
+                if (fileName.endsWith(DATA_SUFFIX)) {
+                    generations.put(getGeneration(fileName), file);
+                } else {
+                    // Leftover of the compaction, interrupted by crash
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        final long latest = generations.isEmpty() ? 0 : Collections.max(generations.keySet());
+        for (Entry<Long, Path> file : generations.entrySet()) {
+            if (file.getKey() != latest) {
+                Files.deleteIfExists(file.getValue());
+            }
+        }
+        return latest;
+    }
+
+    private long getGeneration(String fileName) {
+        try {
+            return Long.parseLong(fileName.substring(name.length()
+                    + GENERATION_SEPARATOR.length(), fileName.length() - DATA_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private Path getPath(long fileGeneration, String suffix) {
+        return directory.resolve(name + GENERATION_SEPARATOR + fileGeneration + suffix);
+    }
+
+    private void load() throws IOException {
+        final Path path = getPath(generation, DATA_SUFFIX);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+                || header.getInt() != VERSION) {
+            throw new IOException("File " + path + " is not a blob styles file");
+        }
+        sortedCount = header.getInt();
+        final long sortedSize = (long) sortedCount * RECORD_SIZE;
+        if (sortedCount < 0 || HEADER_SIZE + sortedSize > channel.size()) {
+            throw new IOException("File " + path + " is truncated");
+        }
+        sorted = channel.map(MapMode.READ_ONLY, HEADER_SIZE, sortedSize);
+        loadAppended(HEADER_SIZE + sortedSize);
+    }
+
+    private void loadAppended(long start) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - start));
+        channel.read(buffer, start);
+        buffer.flip();
+        long validEnd = start;
+        while (buffer.remaining() >= RECORD_SIZE) {
+            final Record record = Record.read(buffer);
+            if (record.style == null) {
+                break;
+            }
+            appended.put(record.getBlobId(), record.style);
+            validEnd += RECORD_SIZE;
+        }
+        if (validEnd < channel.size()) {
+            log.info("Dropping {} bytes of torn records from {}", channel.size() - validEnd,
+                    getPath(generation, DATA_SUFFIX));
+            channel.truncate(validEnd);
+        }
+    }
+
+    private void compact() throws IOException {
+        final List<Record> records = new ArrayList<>(appended.size());
+        for (Entry<String, BlobEolStyle> entry : appended.entrySet()) {
+            records.add(new Record(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(records, Comparator.naturalOrder());
+        final long oldGeneration = generation;
+        writeGeneration(oldGeneration + 1, records);
+        close();
+        generation = oldGeneration + 1;
+        load();
+        try {
+            Files.deleteIfExists(getPath(oldGeneration, DATA_SUFFIX));
+        } catch (IOException e) {
+            // Could still be mapped on some platforms. Removed on next open
+            log.debug("Could not remove old generation of {}", name, e);
+        }
+    }
+
+    /**
+     * Writes new generation of the file, merging sorted records of the
+     * current generation with the specified ones. Records above the maximum
+     * count are dropped from the current generation, starting from the
+     * highest IDs. Specified records are always kept.
+     */
+    private void writeGeneration(long newGeneration, List<Record> records) throws IOException {
+        final int keptSorted = Math.max(0, Math.min(sortedCount, maxRecords - records.size()));
+        final Path temp = getPath(newGeneration, TEMP_SUFFIX);
+        try (FileChannel output = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(output)));
+            final int count = writeRecords(stream, keptSorted, records);
+            stream.flush();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0).flip();
+            output.write(header, 0);
+            output.force(true);
+        }
+        Files.move(temp, getPath(newGeneration, DATA_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private int writeRecords(DataOutputStream stream, int keptSorted, List<Record> records)
+            throws IOException {
+        stream.write(new byte[HEADER_SIZE]);
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        int sortedIndex = 0;
+        int count = 0;
+        for (Record record : records) {
+            while (sortedIndex < keptSorted
+                    && record.compareTo(sorted, sortedIndex * RECORD_SIZE) > 0) {
+                writeSorted(stream, sortedIndex++);
+                count++;
+            }
+            if (sortedIndex < keptSorted
+                    && record.compareTo(sorted, sortedIndex * RECORD_SIZE) == 0) {
+                // Appended record replaces the sorted one
+                sortedIndex++;
+            }
+            buffer.clear();
+            record.write(buffer);
+            stream.write(buffer.array());
+            count++;
+        }
+        while (sortedIndex < keptSorted) {
+            writeSorted(stream, sortedIndex++);
+            count++;
+        }
+        return count;
+    }
+
+    private void writeSorted(DataOutputStream stream, int index) throws IOException {
+        final byte[] record = new byte[RECORD_SIZE];
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            record[i] = sorted.get(index * RECORD_SIZE + i);
+        }
+        stream.write(record);
+    }
+
+    @Nullable
+    private static BlobEolStyle getStyle(byte value) {
+        return value > 0 && value <= STYLES.length ? STYLES[value - 1] : null;
+    }
+
+    /**
+     * Single record of the file. Blob ID is held in packed form.
+     */
+    private static final class Record implements Comparable<Record> {
+        private final long high;
+        private final long middle;
+        private final int low;
+        private final BlobEolStyle style;
+
+        Record(String blobId, BlobEolStyle style) {
+            this(ObjectIds.getHigh(blobId), ObjectIds.getMiddle(blobId), ObjectIds
+                    .getLow(blobId), style);
+        }
+
+        private Record(long high, long middle, int low, BlobEolStyle style) {
+            this.high = high;
+            this.middle = middle;
+            this.low = low;
+            this.style = style;
+        }
+
+        static Record read(ByteBuffer buffer) {
+            return new Record(buffer.getLong(), buffer.getLong(), buffer.getInt(),
+                    getStyle(buffer.get()));
+        }
+
+        void write(ByteBuffer buffer) {
+            buffer.putLong(high).putLong(middle).putInt(low).put((byte) (style.ordinal() + 1));
+        }
+
+        String getBlobId() {
+            return String.format("%016x%016x%08x", high, middle, low);
+        }
+
+        int compareTo(ByteBuffer buffer, int position) {
+            int result = Long.compareUnsigned(high, buffer.getLong(position));
+            if (result == 0) {
+                result = Long.compareUnsigned(middle, buffer.getLong(position + Long.BYTES));
+            }
+            if (result == 0) {
+                result = Integer.compareUnsigned(low, buffer.getInt(position + ID_LOW_OFFSET));
+            }
+            return result;
+        }
+
+        @Override
+        public int compareTo(Record other) {
+            int result = Long.compareUnsigned(high, other.high);
+            if (result == 0) {
+                result = Long.compareUnsigned(middle, other.middle);
+            }
+            if (result == 0) {
+                result = Integer.compareUnsigned(low, other.low);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Record)) {
+                return false;
+            }
+            return compareTo((Record) obj) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high);
+        }
+    }
+
+}
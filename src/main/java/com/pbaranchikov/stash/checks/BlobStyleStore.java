@@ -0,0 +1,138 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.sal.api.ApplicationProperties;
+
+/**
+ * Persistent store of blob EOL-styles, surviving restarts of the node. Every
+ * repository has its own {@link BlobStyleFile} in the caches directory of
+ * the local home. Store is an optimization only: any I/O error disables the
+ * file of the repository and is never propagated to the caller. <br/>
+ * Number of records per repository, kept after compaction, is set by system
+ * property {@value Constants#PROPERTY_BLOB_STORE_SIZE}. Records, appended
+ * since the last compaction, are kept above it. Zero value disables the
+ * store.
+ * @author Pavel Baranchikov
+ */
+public class BlobStyleStore implements DisposableBean {
+
+    private static final int DEFAULT_SIZE = 1024 * 1024;
+    private static final int MAX_OPEN_FILES = 64;
+    private static final String CACHES_DIRECTORY = "caches";
+    private static final String STORE_DIRECTORY = "eol-check-blob-styles";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Path directory;
+    private final int maxRecords;
+    private final Map<Integer, BlobStyleFile> files = new LinkedHashMap<>(
+            MAX_OPEN_FILES, 1, true);
+
+    public BlobStyleStore(ApplicationProperties applicationProperties) {
+        final Optional<Path> home = applicationProperties.getLocalHomeDirectory();
+        this.maxRecords = Integer.getInteger(Constants.PROPERTY_BLOB_STORE_SIZE, DEFAULT_SIZE);
+        this.directory = home.isPresent() && maxRecords > 0 ? home.get()
+                .resolve(CACHES_DIRECTORY).resolve(STORE_DIRECTORY) : null;
+    }
+
+    /**
+     * Returns styles of the blobs, stored for the repository.
+     * @param repository repository blobs belong to
+     * @param blobIds blob IDs to look up
+     * @return found blob styles
+     */
+    @Nonnull
+    public Map<String, BlobEolStyle> getAll(@Nonnull Repository repository,
+            @Nonnull Iterable<String> blobIds) {
+        final BlobStyleFile file = getFile(repository);
+        if (file == null) {
+            return Collections.emptyMap();
+        }
+        final Map<String, BlobEolStyle> styles = new HashMap<>();
+        for (String blobId : blobIds) {
+            final BlobEolStyle style = file.get(blobId);
+            if (style != null) {
+                styles.put(blobId, style);
+            }
+        }
+        return styles;
+    }
+
+    /**
+     * Stores styles of the blobs for the repository.
+     * @param repository repository blobs belong to
+     * @param styles blob styles to store
+     */
+    public void putAll(@Nonnull Repository repository, @Nonnull Map<String, BlobEolStyle> styles) {
+        final BlobStyleFile file = getFile(repository);
+        if (file == null || styles.isEmpty()) {
+            return;
+        }
+        try {
+            file.append(styles);
+        } catch (IOException e) {
+            log.warn("Error writing blob styles of repository {}. Store is disabled for it",
+                    repository.getId(), e);
+            closeQuietly(file);
+        }
+    }
+
+    private synchronized BlobStyleFile getFile(Repository repository) {
+        if (directory == null) {
+            return null;
+        }
+        final Integer repositoryId = repository.getId();
+        BlobStyleFile file = files.get(repositoryId);
+        if (file == null) {
+            try {
+                file = BlobStyleFile.open(directory, repositoryId.toString(), maxRecords);
+            } catch (IOException e) {
+                log.warn("Error opening blob styles of repository {}", repositoryId, e);
+                return null;
+            }
+            files.put(repositoryId, file);
+            closeEldest();
+        }
+        return file;
+    }
+
+    private void closeEldest() {
+        final Iterator<Entry<Integer, BlobStyleFile>> iter = files.entrySet().iterator();
+        while (files.size() > MAX_OPEN_FILES) {
+            closeQuietly(iter.next().getValue());
+            iter.remove();
+        }
+    }
+
+    private void closeQuietly(BlobStyleFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.debug("Error closing blob styles file", e);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        for (BlobStyleFile file : files.values()) {
+            closeQuietly(file);
+        }
+        files.clear();
+    }
+
+}
@@ -0,0 +1,258 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.CommandCanceledException;
+import com.atlassian.bitbucket.scm.git.command.GitCommandBuilderFactory;
+
+/**
+ * Resolves verdicts for the changed files from the raw contents of their
+ * blobs, without computing any diff. <br/>
+ * File is accepted if its new blob has no CR symbols or any of the blobs is
+ * binary. File is rejected if the new blob has CR while the old one does
+ * not. In inherited mode file is accepted if both blobs have CR. The rest of
+ * the files are left {@link EolVerdict#UNDECIDED} and should be checked using
+ * git diff. <br/>
+ * Blob styles are looked up in the in-memory cache first, then in the
+ * persistent store of the repository and then in the store, shared between
+ * the nodes of the cluster. Only the blobs missing everywhere are read from
+ * git. <br/>
+ * Sizes of the blobs are read from their headers before the contents, so
+ * the oversized blobs are skipped or sampled according to
+ * {@link BlobSizePolicy} without being read. Styles of the skipped and
+ * sampled blobs are never cached, as they are not exact.
+ * @author Pavel Baranchikov
+ */
+public class BlobVerdictResolver {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final GitCommandBuilderFactory builderFactory;
+    private final BlobStyleCache blobStyleCache;
+    private final BlobStyleStore blobStyleStore;
+    private final SharedVerdictStore sharedVerdictStore;
+    private final GitProcessGovernor governor;
+    private final BlobSizePolicy sizePolicy;
+
+    public BlobVerdictResolver(@Nonnull GitCommandBuilderFactory builderFactory,
+            @Nonnull BlobStyleCache blobStyleCache, @Nonnull BlobStyleStore blobStyleStore,
+            @Nonnull SharedVerdictStore sharedVerdictStore, @Nonnull GitProcessGovernor governor,
+            @Nonnull BlobSizePolicy sizePolicy) {
+        this.builderFactory = Objects.requireNonNull(builderFactory);
+        this.blobStyleCache = Objects.requireNonNull(blobStyleCache);
+        this.blobStyleStore = Objects.requireNonNull(blobStyleStore);
+        this.sharedVerdictStore = Objects.requireNonNull(sharedVerdictStore);
+        this.governor = Objects.requireNonNull(governor);
+        this.sizePolicy = Objects.requireNonNull(sizePolicy);
+    }
+
+    /**
+     * Resolves verdicts for the changed files.
+     * @param repository repository files belong to
+     * @param changes changed files to resolve verdicts for
+     * @param allowInheritedEol whether inherited EOL-style is allowed
+     * @return verdicts for every changed file
+     */
+    @Nonnull
+    Map<ChangedFile, EolVerdict> resolve(@Nonnull Repository repository,
+            @Nonnull Collection<ChangedFile> changes, boolean allowInheritedEol) {
+        final Map<ChangedFile, EolVerdict> verdicts = new HashMap<>();
+        final Collection<ChangedFile> modified = new ArrayList<>();
+        for (ChangedFile change : changes) {
+            if (change.getNewId() == null) {
+                verdicts.put(change, EolVerdict.UNDECIDED);
+            } else if (change.getNewId().equals(Constants.NON_ID)
+                    || change.getNewId().equals(change.getOldId())) {
+                // Deleted file or the file with only mode changed
+                verdicts.put(change, EolVerdict.ACCEPTED);
+            } else {
+                modified.add(change);
+            }
+        }
+        final Map<String, BlobEolStyle> newStyles = scan(repository, modified, true);
+        final Collection<ChangedFile> withCr = new ArrayList<>();
+        for (ChangedFile change : modified) {
+            final BlobEolStyle newStyle = newStyles.get(change.getNewId());
+            if (newStyle == BlobEolStyle.HAS_CR && change.getOldId() != null
+                    && !change.getOldId().equals(Constants.NON_ID)) {
+                withCr.add(change);
+            } else {
+                verdicts.put(change, getVerdict(newStyle, change.getOldId()));
+            }
+        }
+        final Map<String, BlobEolStyle> oldStyles = scan(repository, withCr, false);
+        for (ChangedFile change : withCr) {
+            verdicts.put(change, getVerdict(oldStyles.get(change.getOldId()), allowInheritedEol));
+        }
+        return verdicts;
+    }
+
+    @Nonnull
+    private static EolVerdict getVerdict(@Nullable BlobEolStyle newStyle, @Nullable String oldId) {
+        if (newStyle == null) {
+            return EolVerdict.UNDECIDED;
+        }
+        if (newStyle != BlobEolStyle.HAS_CR) {
+            return EolVerdict.ACCEPTED;
+        }
+        // All the lines of the new file are added ones
+        return oldId == null ? EolVerdict.UNDECIDED : EolVerdict.REJECTED;
+    }
+
+    @Nonnull
+    private static EolVerdict getVerdict(@Nullable BlobEolStyle oldStyle,
+            boolean allowInheritedEol) {
+        if (oldStyle == null) {
+            return EolVerdict.UNDECIDED;
+        }
+        switch (oldStyle) {
+            case BINARY:
+                return EolVerdict.ACCEPTED;
+            case LF_ONLY:
+                // CR could only come within the added lines
+                return EolVerdict.REJECTED;
+            default:
+                // Only diff can tell whether lines with CR are the added ones
+                return allowInheritedEol ? EolVerdict.ACCEPTED : EolVerdict.UNDECIDED;
+        }
+    }
+
+    @Nonnull
+    private Map<String, BlobEolStyle> scan(@Nonnull Repository repository,
+            @Nonnull Collection<ChangedFile> changes, boolean newBlobs) {
+        final Map<String, BlobEolStyle> styles = new HashMap<>();
+        final Collection<String> blobIds = new HashSet<>();
+        for (ChangedFile change : changes) {
+            final String blobId = newBlobs ? change.getNewId() : change.getOldId();
+            final BlobEolStyle style = blobStyleCache.get(blobId);
+            if (style == null) {
+                blobIds.add(blobId);
+            } else {
+                styles.put(blobId, style);
+            }
+        }
+        styles.putAll(lookupStored(repository, blobIds));
+        log.debug("{} blobs are to be read from git. {}", blobIds.size(), blobStyleCache);
+        if (blobIds.isEmpty()) {
+            return styles;
+        }
+        final Collection<String> sampledIds = classifyBySize(repository, blobIds, styles);
+        if (!blobIds.isEmpty()) {
+            final Map<String, BlobEolStyle> scanned = governor.call(repository,
+                    builderFactory.builder(repository).command("cat-file").argument("--batch")
+                            .inputHandler(new LinesInputHandler(blobIds))
+                            .build(new BlobScanHandler()));
+            for (Entry<String, BlobEolStyle> entry : scanned.entrySet()) {
+                blobStyleCache.put(entry.getKey(), entry.getValue());
+            }
+            blobStyleStore.putAll(repository, scanned);
+            sharedVerdictStore.putBlobStyles(scanned);
+            sizePolicy.addBinarySkips((int) scanned.values().stream()
+                    .filter(BlobEolStyle.BINARY::equals).count());
+            styles.putAll(scanned);
+        }
+        for (String blobId : sampledIds) {
+            final BlobEolStyle style = sample(repository, blobId);
+            // CR could be missed in the rest of the old blob, which would
+            // turn the diff check into rejection
+            if (style != null && (newBlobs || style != BlobEolStyle.LF_ONLY)) {
+                styles.put(blobId, style);
+            }
+        }
+        log.debug("{}", sizePolicy);
+        return styles;
+    }
+
+    /**
+     * Classifies the blobs by their sizes, read from the headers. Oversized
+     * blobs are removed from the specified collection: skipped ones are put
+     * into the styles as binary, sampled ones are returned.
+     * @return IDs of the blobs to sample
+     */
+    @Nonnull
+    private Collection<String> classifyBySize(@Nonnull Repository repository,
+            @Nonnull Collection<String> blobIds, @Nonnull Map<String, BlobEolStyle> styles) {
+        if (!sizePolicy.isSizeRequired()) {
+            return Collections.emptyList();
+        }
+        final Map<String, Long> sizes = governor.call(repository, builderFactory.builder(
+                repository).command("cat-file").argument("--batch-check").inputHandler(
+                new LinesInputHandler(blobIds)).build(new BlobSizeHandler()));
+        final Collection<String> sampledIds = new ArrayList<>();
+        int skipped = 0;
+        for (Entry<String, Long> size : sizes.entrySet()) {
+            switch (sizePolicy.getPolicy(size.getValue())) {
+                case SKIP:
+                    styles.put(size.getKey(), BlobEolStyle.BINARY);
+                    blobIds.remove(size.getKey());
+                    skipped++;
+                    break;
+                case SAMPLE:
+                    sampledIds.add(size.getKey());
+                    blobIds.remove(size.getKey());
+                    break;
+                default:
+                    break;
+            }
+        }
+        sizePolicy.addOversizeSkips(skipped);
+        sizePolicy.addSamples(sampledIds.size());
+        return sampledIds;
+    }
+
+    /**
+     * Reads the leading bytes of the blob. Git process is canceled after
+     * them, so the rest of the blob is never read.
+     */
+    @Nullable
+    private BlobEolStyle sample(@Nonnull Repository repository, @Nonnull String blobId) {
+        final BlobScanHandler handler = new BlobScanHandler(sizePolicy.getSampleSize());
+        try {
+            governor.call(repository, builderFactory.builder(repository).command("cat-file")
+                    .argument("--batch").inputHandler(new LinesInputHandler(Collections
+                            .singleton(blobId))).build(handler));
+        } catch (CommandCanceledException e) {
+            if (!handler.isCanceled()) {
+                throw e;
+            }
+        }
+        return handler.getOutput().get(blobId);
+    }
+
+    /**
+     * Looks up blob styles in the local and in the shared stores. Found blob
+     * IDs are removed from the specified collection.
+     * @param repository repository blobs belong to
+     * @param blobIds blob IDs to look up
+     * @return found blob styles
+     */
+    @Nonnull
+    private Map<String, BlobEolStyle> lookupStored(@Nonnull Repository repository,
+            @Nonnull Collection<String> blobIds) {
+        final Map<String, BlobEolStyle> stored = new HashMap<>(blobStyleStore.getAll(
+                repository, blobIds));
+        blobIds.removeAll(stored.keySet());
+        final Map<String, BlobEolStyle> shared = sharedVerdictStore.getBlobStyles(blobIds);
+        blobIds.removeAll(shared.keySet());
+        blobStyleStore.putAll(repository, shared);
+        stored.putAll(shared);
+        for (Entry<String, BlobEolStyle> entry : stored.entrySet()) {
+            blobStyleCache.put(entry.getKey(), entry.getValue());
+        }
+        return stored;
+    }
+
+}
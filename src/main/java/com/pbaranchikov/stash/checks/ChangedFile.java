@@ -0,0 +1,56 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * File, changed in the checked range of commits. Holds the blob IDs of the
+ * file on both sides of the range. Absent side is denoted by
+ * {@link Constants#NON_ID}, unknown side is denoted by <code>null</code>.
+ * @author Pavel Baranchikov
+ */
+final class ChangedFile {
+
+    private final String path;
+    private final String oldId;
+    private final String newId;
+
+    ChangedFile(@Nonnull String path, @Nullable String oldId, @Nullable String newId) {
+        this.path = Objects.requireNonNull(path);
+        this.oldId = oldId;
+        this.newId = newId;
+    }
+
+    @Nonnull
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns blob ID of the file before the change.
+     * @return blob ID, {@link Constants#NON_ID} if file did not exist or
+     *         <code>null</code> if it is unknown
+     */
+    @Nullable
+    public String getOldId() {
+        return oldId;
+    }
+
+    /**
+     * Returns blob ID of the file after the change.
+     * @return blob ID, {@link Constants#NON_ID} if file is deleted or
+     *         <code>null</code> if it is unknown
+     */
+    @Nullable
+    public String getNewId() {
+        return newId;
+    }
+
+    @Override
+    public String toString() {
+        return path + " " + oldId + ".." + newId;
+    }
+
+}
@@ -0,0 +1,173 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Immutable set of Unicode code points, stored as sorted disjoint inclusive
+ * ranges.
+ * @author Pavel Baranchikov
+ */
+final class CharRanges {
+
+    /**
+     * Empty set.
+     */
+    static final CharRanges EMPTY = new CharRanges(new int[0]);
+    /**
+     * Digits, matched by <code>\d</code>.
+     */
+    static final CharRanges DIGIT = range('0', '9');
+    /**
+     * Word characters, matched by <code>\w</code>.
+     */
+    static final CharRanges WORD = range('a', 'z').union(range('A', 'Z')).union(DIGIT).union(
+            single('_'));
+    /**
+     * Whitespace characters, matched by <code>\s</code>.
+     */
+    static final CharRanges SPACE = range('\t', '\r').union(single(' '));
+    /**
+     * Characters, matched by <code>.</code> when no flags are set: everything
+     * except line terminators.
+     */
+    static final CharRanges DOT = single('\n').union(single('\r')).union(single('\u0085'))
+            .union(range('\u2028', '\u2029')).complement();
+
+    private static final int HI_SHIFT = 32;
+    private static final long LO_MASK = 0xFFFFFFFFL;
+
+    private final int[] ranges;
+
+    private CharRanges(int[] ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * Returns set of the code points from the range.
+     * @param from first code point, inclusive
+     * @param to last code point, inclusive
+     * @return set of the code points
+     */
+    @Nonnull
+    static CharRanges range(int from, int to) {
+        return new CharRanges(new int[] {from, to});
+    }
+
+    /**
+     * Returns set of a single code point.
+     * @param codePoint code point
+     * @return set of the code point
+     */
+    @Nonnull
+    static CharRanges single(int codePoint) {
+        return range(codePoint, codePoint);
+    }
+
+    /**
+     * Returns union of this set and the specified one.
+     * @param other set to unite with
+     * @return union of the sets
+     */
+    @Nonnull
+    CharRanges union(@Nonnull CharRanges other) {
+        final int count = (ranges.length + other.ranges.length) / 2;
+        final long[] packed = new long[count];
+        for (int i = 0; i < ranges.length; i += 2) {
+            packed[i / 2] = pack(ranges[i], ranges[i + 1]);
+        }
+        for (int i = 0; i < other.ranges.length; i += 2) {
+            packed[(ranges.length + i) / 2] = pack(other.ranges[i], other.ranges[i + 1]);
+        }
+        Arrays.sort(packed);
+        final int[] merged = new int[count * 2];
+        int size = 0;
+        for (long range : packed) {
+            final int from = (int) (range >>> HI_SHIFT);
+            final int to = (int) (range & LO_MASK);
+            if (size > 0 && from <= merged[size - 1] + 1) {
+                merged[size - 1] = Math.max(merged[size - 1], to);
+            } else {
+                merged[size++] = from;
+                merged[size++] = to;
+            }
+        }
+        return new CharRanges(Arrays.copyOf(merged, size));
+    }
+
+    private static long pack(int from, int to) {
+        return ((long) from << HI_SHIFT) | to;
+    }
+
+    /**
+     * Returns set of all the code points, missing in this set.
+     * @return complement of the set
+     */
+    @Nonnull
+    CharRanges complement() {
+        final int[] result = new int[ranges.length + 2];
+        int size = 0;
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                result[size++] = next;
+                result[size++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_CODE_POINT) {
+            result[size++] = next;
+            result[size++] = Character.MAX_CODE_POINT;
+        }
+        return new CharRanges(Arrays.copyOf(result, size));
+    }
+
+    /**
+     * Returns whether the set contains the code point.
+     * @param codePoint code point to look for
+     * @return whether the code point belongs to the set
+     */
+    boolean contains(int codePoint) {
+        int low = 0;
+        int high = ranges.length / 2 - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (codePoint < ranges[middle * 2]) {
+                high = middle - 1;
+            } else if (codePoint > ranges[middle * 2 + 1]) {
+                low = middle + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the code points, where membership in the set changes, to the
+     * collection. Code points between two adjacent boundaries either all
+     * belong to the set or all miss it.
+     * @param boundaries collection to add boundaries to
+     */
+    void addBoundaries(@Nonnull Collection<Integer> boundaries) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            boundaries.add(ranges[i]);
+            if (ranges[i + 1] < Character.MAX_CODE_POINT) {
+                boundaries.add(ranges[i + 1] + 1);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CharRanges && Arrays.equals(ranges, ((CharRanges) obj).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+}
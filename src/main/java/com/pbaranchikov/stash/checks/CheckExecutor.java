@@ -0,0 +1,109 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Bounded pool of worker threads, performing parts of EOL checks in
+ * parallel. <br/>
+ * Number of the worker threads, shared by all the checks, is set by system
+ * property {@value Constants#PROPERTY_THREADS}. Maximum number of the parts,
+ * a single check is split into, is set by system property
+ * {@value Constants#PROPERTY_PARALLELISM}. When the pool is saturated, tasks
+ * are executed by the calling thread.
+ * @author Pavel Baranchikov
+ */
+public class CheckExecutor implements DisposableBean {
+
+    private static final int MAX_DEFAULT_PARALLELISM = 4;
+    private static final int QUEUE_SIZE = 256;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor executor;
+    private final int parallelism;
+
+    public CheckExecutor() {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int threads = Math.max(1, Integer.getInteger(Constants.PROPERTY_THREADS,
+                processors));
+        this.parallelism = Math.max(1, Integer.getInteger(Constants.PROPERTY_PARALLELISM,
+                Math.min(MAX_DEFAULT_PARALLELISM, processors)));
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), new WorkerFactory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns maximum number of the parts, a single check is split into.
+     * @return parallelism of a check
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Executes the tasks in parallel. The first task is executed by the
+     * calling thread, so tasks are expected to be ordered the heaviest first.
+     * @param tasks tasks to execute
+     * @param <T> type of the task results
+     * @return results of the tasks in the order of the tasks
+     */
+    @Nonnull
+    public <T> List<T> invokeAll(@Nonnull List<Supplier<T>> tasks) {
+        final List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Supplier<T> task : tasks.subList(Math.min(1, tasks.size()), tasks.size())) {
+            futures.add(CompletableFuture.supplyAsync(task, executor));
+        }
+        final List<T> results = new ArrayList<>(tasks.size());
+        try {
+            if (!tasks.isEmpty()) {
+                results.add(tasks.get(0).get());
+            }
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (RuntimeException e) {
+            for (CompletableFuture<T> future : futures) {
+                future.cancel(false);
+            }
+            if (e instanceof CompletionException && e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Factory of daemon worker threads.
+     */
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "eol-check-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
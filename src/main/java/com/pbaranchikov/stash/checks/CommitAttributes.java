@@ -0,0 +1,120 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.git.command.GitCommandBuilderFactory;
+
+/**
+ * Git attributes of the files, as they are set by <code>.gitattributes</code>
+ * of the tree of a commit. <br/>
+ * Bare repository has no working tree, so the attributes are read from a
+ * temporary index, the tree is read into at the first use. All the paths of
+ * a call are classified by a single <code>git check-attr --stdin -z</code>
+ * process. Temporary index is deleted on close.
+ * @author Pavel Baranchikov
+ */
+final class CommitAttributes implements AutoCloseable {
+
+    private static final String INDEX_FILE_ENV = "GIT_INDEX_FILE";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final GitCommandBuilderFactory builderFactory;
+    private final GitProcessGovernor governor;
+    private final Repository repo;
+    private final String commitId;
+    private Path indexDir;
+
+    CommitAttributes(@Nonnull GitCommandBuilderFactory builderFactory,
+            @Nonnull GitProcessGovernor governor, @Nonnull Repository repo,
+            @Nonnull String commitId) {
+        this.builderFactory = Objects.requireNonNull(builderFactory);
+        this.governor = Objects.requireNonNull(governor);
+        this.repo = Objects.requireNonNull(repo);
+        this.commitId = Objects.requireNonNull(commitId);
+    }
+
+    /**
+     * Returns the paths, which are exempt from EOL check by their
+     * attributes: binary files and files with <code>text</code> or
+     * <code>diff</code> unset.
+     * @param paths paths to classify
+     * @return exempt paths
+     */
+    @Nonnull
+    synchronized Set<String> getExemptPaths(@Nonnull Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return Collections.emptySet();
+        }
+        final String indexFile = getIndexFile();
+        return governor.call(repo, builderFactory.builder(repo).command("check-attr")
+                .argument("--cached").argument("--stdin").argument("-z")
+                .argument(EolAttributesHandler.TEXT).argument(EolAttributesHandler.DIFF)
+                .withEnvironment(INDEX_FILE_ENV, indexFile)
+                .inputHandler(new LinesInputHandler(paths, 0))
+                .build(new EolAttributesHandler()));
+    }
+
+    private String getIndexFile() {
+        if (indexDir == null) {
+            try {
+                indexDir = Files.createTempDirectory("eol-check-attributes");
+            } catch (IOException e) {
+                throw new IllegalStateException("Error creating temporary index directory", e);
+            }
+            governor.call(repo, builderFactory.builder(repo).command("read-tree")
+                    .argument(commitId)
+                    .withEnvironment(INDEX_FILE_ENV, getIndexPath().toString())
+                    .build(new DiscardingHandler()));
+            log.debug("Tree of {} is read into temporary index {}", commitId, indexDir);
+        }
+        return getIndexPath().toString();
+    }
+
+    private Path getIndexPath() {
+        return indexDir.resolve("index").toAbsolutePath();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (indexDir == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(getIndexPath());
+            Files.deleteIfExists(indexDir);
+        } catch (IOException e) {
+            log.warn("Error deleting temporary index directory " + indexDir, e);
+        }
+        indexDir = null;
+    }
+
+    /**
+     * Output handler for the commands, which print nothing useful.
+     */
+    private static class DiscardingHandler extends NulTokenHandler<Void> {
+
+        @Override
+        protected void processToken(@Nonnull String next) {
+            // Output is not needed
+        }
+
+        @Override
+        public Void getOutput() {
+            return null;
+        }
+
+    }
+
+}
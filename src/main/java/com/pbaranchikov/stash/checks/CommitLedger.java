@@ -0,0 +1,137 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.repository.Repository;
+
+/**
+ * Ledger of the commit ranges, accepted by the pre-receive hook. Every range
+ * is kept as a single link from its last commit to the commit it starts
+ * from, so the pushes of a branch form a chain. <br/>
+ * Changes of the commit since the ancestor are accepted, if the chain of
+ * links, starting from the commit, reaches the ancestor or a range, which
+ * starts from the root. Links are kept per repository and policy fingerprint, so only the
+ * ranges, accepted with the same policy, are followed. <br/>
+ * Least recently used links are evicted first. Size of the ledger is set by
+ * system property {@value Constants#PROPERTY_LEDGER_SIZE}.
+ * @author Pavel Baranchikov
+ */
+public class CommitLedger {
+
+    private static final int DEFAULT_SIZE = 65536;
+    private static final char KEY_SEPARATOR = ':';
+    /**
+     * Start of the ranges, which all the history is new in.
+     */
+    private static final String ROOT = "";
+
+    private final int maxSize;
+    private final Map<String, String> links;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CommitLedger() {
+        this(Integer.getInteger(Constants.PROPERTY_LEDGER_SIZE, DEFAULT_SIZE));
+    }
+
+    /**
+     * Constructs the ledger.
+     * @param maxSize maximum number of ranges to hold. <code>0</code>
+     *            disables the ledger
+     */
+    public CommitLedger(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.links = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, String> eldest) {
+                return size() > CommitLedger.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Records the commit range, accepted with the policy.
+     * @param repository repository of the range
+     * @param since commit the range starts from or <code>null</code> if the
+     *            range starts from the root
+     * @param to commit the range ends with
+     * @param policy policy of the check
+     */
+    public void addAccepted(@Nonnull Repository repository, @Nullable String since,
+            @Nonnull String to, @Nonnull EolCheckPolicy policy) {
+        synchronized (links) {
+            links.put(getKey(repository, to, policy), since == null ? ROOT : since);
+        }
+    }
+
+    /**
+     * Returns whether the changes of the commit since the ancestor are
+     * accepted with the policy, that is whether a chain of the accepted
+     * ranges leads from the commit to the ancestor. No git command is run.
+     * @param repository repository of the commits
+     * @param ancestor ancestor of the commit
+     * @param commit commit to look up
+     * @param policy policy of the check
+     * @return whether the range is accepted
+     */
+    public boolean isAccepted(@Nonnull Repository repository, @Nonnull String ancestor,
+            @Nonnull String commit, @Nonnull EolCheckPolicy policy) {
+        String current = commit;
+        synchronized (links) {
+            // Chains are never longer, than the ledger itself
+            for (int i = 0; i < maxSize && !current.equals(ancestor); i++) {
+                current = links.get(getKey(repository, current, policy));
+                if (current == null || current.equals(ROOT)) {
+                    break;
+                }
+            }
+        }
+        final boolean accepted = ancestor.equals(current) || ROOT.equals(current);
+        if (accepted) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return accepted;
+    }
+
+    @Nonnull
+    private static String getKey(@Nonnull Repository repository, @Nonnull String commit,
+            @Nonnull EolCheckPolicy policy) {
+        return String.valueOf(repository.getId()) + KEY_SEPARATOR + commit + KEY_SEPARATOR
+                + policy.getFingerprint();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getSize() {
+        synchronized (links) {
+            return links.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CommitLedger[maxSize=" + maxSize + ", size=" + getSize() + ", hits="
+                + getHitCount() + ", misses=" + getMissCount() + "]";
+    }
+
+}
@@ -17,6 +17,11 @@ public class Constants {
      * Line feed symbol.
      */
     public static final int LF = 0x0A;
+    /**
+     * Complete key of the merge check module.
+     */
+    public static final String MERGE_CHECK_KEY =
+            "com.pbaranchikov.stash-eol-check:stash-check-eol-merge-check";
     /**
      * Setting name for excluded files.
      */
@@ -30,6 +35,93 @@ public class Constants {
      * another.
      */
     public static final String PATTERNS_SEPARATOR = ",";
+    /**
+     * Prefix of the excluded files pattern, denoting a glob instead of a
+     * regular expression.
+     */
+    public static final String GLOB_PREFIX = "glob:";
+    /**
+     * System property, setting maximum number of blobs in the blob EOL-style
+     * cache.
+     */
+    public static final String PROPERTY_BLOB_CACHE_SIZE =
+            "com.pbaranchikov.eol.check.blob.cache.size";
+    /**
+     * System property, setting maximum number of blobs in the persistent blob
+     * EOL-style store of a repository.
+     */
+    public static final String PROPERTY_BLOB_STORE_SIZE =
+            "com.pbaranchikov.eol.check.blob.store.size";
+    /**
+     * System property, setting maximum number of verdicts in the store,
+     * shared between the nodes of the cluster.
+     */
+    public static final String PROPERTY_SHARED_STORE_SIZE =
+            "com.pbaranchikov.eol.check.shared.store.size";
+    /**
+     * System property, setting number of worker threads, shared by all the
+     * EOL checks.
+     */
+    public static final String PROPERTY_THREADS = "com.pbaranchikov.eol.check.threads";
+    /**
+     * System property, setting maximum number of parts, a single EOL check is
+     * performed in parallel.
+     */
+    public static final String PROPERTY_PARALLELISM =
+            "com.pbaranchikov.eol.check.parallelism";
+    /**
+     * System property, setting maximum number of git processes, run by the
+     * plugin on the node simultaneously.
+     */
+    public static final String PROPERTY_GIT_PROCESSES =
+            "com.pbaranchikov.eol.check.git.processes";
+    /**
+     * System property, selecting the scanner of the diff output.
+     */
+    public static final String PROPERTY_SCANNER = "com.pbaranchikov.eol.check.scanner";
+    /**
+     * System property, setting maximum size of a blob in bytes, which is
+     * scanned as usual.
+     */
+    public static final String PROPERTY_BLOB_MAX_SIZE =
+            "com.pbaranchikov.eol.check.blob.max.size";
+    /**
+     * System property, selecting what is done with the blobs, bigger than
+     * {@link #PROPERTY_BLOB_MAX_SIZE}.
+     */
+    public static final String PROPERTY_BLOB_OVERSIZE =
+            "com.pbaranchikov.eol.check.blob.oversize";
+    /**
+     * System property, setting number of the leading bytes, scanned in the
+     * sampled blobs.
+     */
+    public static final String PROPERTY_BLOB_SAMPLE_SIZE =
+            "com.pbaranchikov.eol.check.blob.sample.size";
+    /**
+     * System property, setting maximum number of merge check verdicts, kept
+     * in memory.
+     */
+    public static final String PROPERTY_MERGE_CACHE_SIZE =
+            "com.pbaranchikov.eol.check.merge.cache.size";
+    /**
+     * System property, setting number of threads, precomputing verdicts of
+     * the pull requests in background.
+     */
+    public static final String PROPERTY_PRECOMPUTE_THREADS =
+            "com.pbaranchikov.eol.check.precompute.threads";
+    /**
+     * System property, setting time in milliseconds, pull request events of
+     * the same target branch are gathered for, to be precomputed in a single
+     * batch.
+     */
+    public static final String PROPERTY_PRECOMPUTE_WINDOW =
+            "com.pbaranchikov.eol.check.precompute.window";
+    /**
+     * System property, setting maximum number of commit ranges, accepted by
+     * the pre-receive hook, kept in memory.
+     */
+    public static final String PROPERTY_LEDGER_SIZE =
+            "com.pbaranchikov.eol.check.ledger.size";
 
     private Constants() {
     }
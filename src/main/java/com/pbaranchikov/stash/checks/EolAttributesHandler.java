@@ -0,0 +1,56 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Output handler for <code>git check-attr -z text diff</code>. Collects the
+ * paths, which are exempt from EOL check by their attributes: the ones with
+ * <code>text</code> unset (including the <code>binary</code> ones) and the
+ * ones with <code>diff</code> unset, which git diff reports as binary. Files
+ * with <code>eol=crlf</code> are text ones, stored with LF in the repository,
+ * so they are checked as any other file.
+ * @author Pavel Baranchikov
+ */
+class EolAttributesHandler extends NulTokenHandler<Set<String>> {
+
+    /**
+     * Name of the text attribute.
+     */
+    static final String TEXT = "text";
+    /**
+     * Name of the diff attribute.
+     */
+    static final String DIFF = "diff";
+
+    private static final int FIELDS = 3;
+    private static final String UNSET = "unset";
+
+    private final Set<String> exemptPaths = new HashSet<>();
+    // "<path> NUL <attribute> NUL <value> NUL"
+    private final String[] fields = new String[FIELDS];
+    private int field;
+
+    @Override
+    protected void processToken(@Nonnull String next) {
+        fields[field++] = next;
+        if (field == FIELDS) {
+            addRecord(fields[0], fields[1], fields[2]);
+            field = 0;
+        }
+    }
+
+    private void addRecord(String path, String attribute, String value) {
+        if ((TEXT.equals(attribute) || DIFF.equals(attribute)) && UNSET.equals(value)) {
+            exemptPaths.add(path);
+        }
+    }
+
+    @Override
+    public Set<String> getOutput() {
+        return exemptPaths;
+    }
+
+}
@@ -1,33 +1,36 @@
 package com.pbaranchikov.stash.checks;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Supplier;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.atlassian.bitbucket.content.AbstractChangeCallback;
 import com.atlassian.bitbucket.content.Change;
-import com.atlassian.bitbucket.content.DiffSegmentType;
+import com.atlassian.bitbucket.content.ChangeType;
+import com.atlassian.bitbucket.content.ContentTreeNode;
 import com.atlassian.bitbucket.repository.Repository;
-import com.atlassian.bitbucket.scm.CommandOutputHandler;
-import com.atlassian.bitbucket.scm.git.command.GitCommand;
+import com.atlassian.bitbucket.scm.CommandCanceledException;
 import com.atlassian.bitbucket.scm.git.command.GitCommandBuilderFactory;
+import com.atlassian.bitbucket.scm.git.command.GitScmCommandBuilder;
 import com.atlassian.bitbucket.scm.git.command.diff.GitDiffBuilder;
 import com.atlassian.bitbucket.setting.Settings;
-import com.atlassian.utils.process.ProcessException;
-import com.atlassian.utils.process.Watchdog;
-import com.google.common.base.Stopwatch;
 
 /**
  * Abstract class holding logic common for verifying EOL style in incoming source code.
@@ -35,246 +38,525 @@ import com.google.common.base.Stopwatch;
  */
 public abstract class EolCheckHook {
 
-    private static final int BUFFER_SIZE = 1024;
+    /**
+     * Maximum total length of paths, passed to a single git command. Keeps
+     * command line safely below the OS limits.
+     */
+    private static final int MAX_PATHS_LENGTH = 16 * 1024;
+    /**
+     * Maximum number of changed files, checked at once, while walking through
+     * the history of commits.
+     */
+    private static final int HISTORY_BATCH_SIZE = 4096;
 
     private final GitCommandBuilderFactory builderFactory;
+    private final BlobVerdictResolver blobVerdictResolver;
+    private final SharedVerdictStore sharedVerdictStore;
+    private final CheckExecutor checkExecutor;
+    private final GitProcessGovernor governor;
+    private final EolCheckPolicyCache policyCache;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final Supplier<AbstractEolHandler> strictHandlerCreator;
     private final Supplier<AbstractEolHandler> inheritedEolCreator;
 
-    public EolCheckHook(@Nonnull GitCommandBuilderFactory builderFactory) {
+    public EolCheckHook(@Nonnull GitCommandBuilderFactory builderFactory,
+            @Nonnull BlobVerdictResolver blobVerdictResolver,
+            @Nonnull SharedVerdictStore sharedVerdictStore,
+            @Nonnull CheckExecutor checkExecutor, @Nonnull GitProcessGovernor governor,
+            @Nonnull EolCheckPolicyCache policyCache) {
         this.builderFactory = Objects.requireNonNull(builderFactory);
+        this.blobVerdictResolver = Objects.requireNonNull(blobVerdictResolver);
+        this.sharedVerdictStore = Objects.requireNonNull(sharedVerdictStore);
+        this.checkExecutor = Objects.requireNonNull(checkExecutor);
+        this.governor = Objects.requireNonNull(governor);
+        this.policyCache = Objects.requireNonNull(policyCache);
         this.strictHandlerCreator = StrictEolHandler::new;
         this.inheritedEolCreator = AllowInheritedStyleEolHandler::new;
     }
 
+    /**
+     * Checks the changes of the commit range for wrong EOL. Verdict of the
+     * range is looked up in the shared store first, so ranges, already
+     * checked by any node of the cluster, are never checked again. Concurrent
+     * checks of the same range are run only once.
+     * @param changes changed files of the range
+     * @param repo repository to check
+     * @param since commit the range starts from
+     * @param to commit the range ends with
+     * @param policy policy of the check
+     * @return sorted paths with wrong EOL
+     */
     @Nonnull
-    protected Collection<String> checkForWrongEol(Collection<String> changedPaths, Repository repo,
-            String since, String to, Settings settings) {
-        final Collection<String> wrongPaths = new HashSet<String>();
-        final boolean allowInheritedEol = Boolean.TRUE.equals(settings
-                .getBoolean(Constants.SETTING_ALLOW_INHERITED_EOL));
-        final Supplier<AbstractEolHandler> handlerCreator = allowInheritedEol ? inheritedEolCreator
-                : strictHandlerCreator;
-        for (String path : changedPaths) {
-            final GitDiffBuilder builder = builderFactory.builder(repo).diff().rev(to).path(path);
-            if (since != null) {
-                builder.ancestor(since);
-            }
-            final AbstractEolHandler outputHandler = handlerCreator.get();
-            builder.contextLines(outputHandler.getRequiredContext());
-            final GitCommand<Boolean> cmd = builder.build(outputHandler);
-            final Boolean result = cmd.call();
-            if (!result) {
-                wrongPaths.add(path);
+    protected Collection<String> checkForWrongEol(Collection<ChangedFile> changes, Repository repo,
+            String since, String to, EolCheckPolicy policy) {
+        return new TreeSet<>(sharedVerdictStore.getWrongPaths(repo, since, to, policy,
+                () -> checkFilesForWrongEol(changes, repo, since, to, policy)));
+    }
+
+    /**
+     * Checks the specified files of the range for wrong EOL. Unlike
+     * {@link #checkForWrongEol(Collection, Repository, String, String, EolCheckPolicy)},
+     * the files are not supposed to be all the changes of the range, so the
+     * verdict is neither looked up in nor put to the shared store.
+     * @param changes files of the range to check
+     * @param repo repository to check
+     * @param since commit the range starts from
+     * @param to commit the range ends with
+     * @param policy policy of the check
+     * @return sorted paths with wrong EOL
+     */
+    @Nonnull
+    protected Collection<String> checkFilesForWrongEol(Collection<ChangedFile> changes,
+            Repository repo, String since, String to, EolCheckPolicy policy) {
+        try (CommitAttributes attributes = newAttributes(repo, to)) {
+            return checkChangesForWrongEol(removeExempt(changes, attributes), repo, since, to,
+                    policy.isAllowInheritedEol());
+        }
+    }
+
+    /**
+     * Reads EOL-styles of the blobs of the changes into the caches at once,
+     * so the following checks of the same changes find them ready and every
+     * distinct blob is only read once.
+     * @param changes changed files to read blobs of
+     * @param repo repository to read blobs from
+     * @param policy policy of the following checks
+     */
+    protected void prefetchBlobStyles(Collection<ChangedFile> changes, Repository repo,
+            EolCheckPolicy policy) {
+        blobVerdictResolver.resolve(repo, changes, policy.isAllowInheritedEol());
+    }
+
+    @Nonnull
+    private Collection<String> checkChangesForWrongEol(Collection<ChangedFile> changes,
+            Repository repo, String since, String to, boolean allowInheritedEol) {
+        final Collection<String> wrongPaths = new TreeSet<String>();
+        final Map<ChangedFile, EolVerdict> verdicts = blobVerdictResolver.resolve(repo, changes,
+                allowInheritedEol);
+        final Collection<ChangedFile> undecided = new ArrayList<>();
+        for (Entry<ChangedFile, EolVerdict> verdict : verdicts.entrySet()) {
+            if (verdict.getValue() == EolVerdict.REJECTED) {
+                wrongPaths.add(verdict.getKey().getPath());
+            } else if (verdict.getValue() == EolVerdict.UNDECIDED) {
+                undecided.add(verdict.getKey());
             }
         }
+        getLog().debug("{} of {} changed files require diff to be checked",
+                undecided.size(), changes.size());
+        wrongPaths.addAll(checkDiffForWrongEol(undecided, repo, since, to,
+                allowInheritedEol));
         return wrongPaths;
     }
 
+    /**
+     * Checks every commit of the history, which is not reachable from any
+     * existing ref, for wrong EOL. The whole history is read by a single
+     * streaming <code>git log</code>, changed files are checked by batches.
+     * Every undecided file is diffed against the first parent of its commit.
+     * Files, changed by a merge commit against all its parents, are diffed
+     * against every parent. Such a file is wrong only if it is wrong against
+     * each of them, so only the lines, the merge itself brings in, matter.
+     * Files are classified by the attributes of the last commit.
+     * @param repo repository to check
+     * @param to commit the history ends with
+     * @param policy policy of the check
+     * @return sorted paths with wrong EOL
+     */
     @Nonnull
-    protected static Collection<Pattern> getExcludeFiles(Settings settings) {
-        final String includeFiles = settings.getString(Constants.SETTING_EXCLUDED_FILES);
-        if (includeFiles == null) {
-            return Collections.emptyList();
-        }
-        final String[] patternStrings = includeFiles.split(Constants.PATTERNS_SEPARATOR);
-        final Collection<Pattern> patterns = new ArrayList<Pattern>(patternStrings.length);
-        for (String patternString : patternStrings) {
-            final Pattern pattern = Pattern.compile(patternString);
-            patterns.add(pattern);
+    protected Collection<String> checkHistoryForWrongEol(Repository repo, String to,
+            EolCheckPolicy policy) {
+        final Collection<String> wrongPaths = new TreeSet<>();
+        try (CommitAttributes attributes = newAttributes(repo, to)) {
+            final RawLogHandler handler = new RawLogHandler(batch -> wrongPaths.addAll(
+                    checkCommitsForWrongEol(batch, repo, policy, attributes)),
+                    HISTORY_BATCH_SIZE);
+            final long commitCount = governor.call(repo, buildHistoryLog(repo, to, policy)
+                    .build(handler));
+            getLog().debug("{} new commits checked one by one", commitCount);
         }
-        return patterns;
+        return wrongPaths;
     }
 
-    protected Collection<String> filterFiles(Collection<String> files,
-            Collection<Pattern> excludeFiles) {
-        if (excludeFiles.isEmpty()) {
-            return files;
+    @Nonnull
+    private GitScmCommandBuilder buildHistoryLog(Repository repo, String to,
+            EolCheckPolicy policy) {
+        final GitScmCommandBuilder builder = builderFactory.builder(repo).command("log")
+                .argument("--raw").argument("-c").argument("-z").argument("--no-renames")
+                .argument("--no-abbrev").argument("--root").argument("--format=%H");
+        if (!policy.getExcludePathspecs().isEmpty()) {
+            // Pathspecs must not prune the commits, reachable through merges
+            builder.argument("--full-history");
         }
-        final Iterator<String> iter = files.iterator();
-        while (iter.hasNext()) {
-            final String filename = iter.next();
-            for (Pattern pattern : excludeFiles) {
-                if (pattern.matcher(filename).matches()) {
-                    iter.remove();
-                    break;
+        builder.argument(to).argument("--not").argument("--all");
+        return addPathspecs(builder, policy);
+    }
+
+    @Nonnull
+    private Collection<String> checkCommitsForWrongEol(Map<String, List<ChangedFile>> commits,
+            Repository repo, EolCheckPolicy policy, CommitAttributes attributes) {
+        final boolean allowInheritedEol = policy.isAllowInheritedEol();
+        final Map<ChangedFile, String> changes = new HashMap<>();
+        for (Entry<String, List<ChangedFile>> commit : commits.entrySet()) {
+            for (ChangedFile change : commit.getValue()) {
+                if (!policy.isExcluded(change.getPath())) {
+                    changes.put(change, commit.getKey());
                 }
             }
         }
-        return files;
+        final Map<String, Collection<String>> wrongPaths = new HashMap<>();
+        final Map<String, Collection<String>> undecided = new HashMap<>();
+        for (Entry<ChangedFile, EolVerdict> verdict : blobVerdictResolver.resolve(repo,
+                removeExempt(changes.keySet(), attributes), allowInheritedEol).entrySet()) {
+            final String revision = changes.get(verdict.getKey());
+            if (verdict.getValue() == EolVerdict.REJECTED) {
+                wrongPaths.computeIfAbsent(revision, key -> new HashSet<>()).add(
+                        verdict.getKey().getPath());
+            } else if (verdict.getValue() == EolVerdict.UNDECIDED) {
+                undecided.computeIfAbsent(revision, key -> new HashSet<>()).add(
+                        verdict.getKey().getPath());
+            }
+        }
+        for (Entry<String, Collection<String>> revision : undecided.entrySet()) {
+            wrongPaths.computeIfAbsent(revision.getKey(), key -> new HashSet<>()).addAll(
+                    checkPathsForWrongEol(revision.getValue(), repo, RawLogHandler
+                            .getParent(revision.getKey()), RawLogHandler.getCommit(revision
+                            .getKey()), allowInheritedEol));
+        }
+        return combineParents(commits.keySet(), wrongPaths);
     }
 
+    /**
+     * Combines wrong paths of the revision keys of {@link RawLogHandler}.
+     * Path of a merge commit is wrong only if it is wrong against every
+     * parent of the merge.
+     * @param keys all the revision keys of the batch
+     * @param wrongPaths wrong paths of the revision keys
+     * @return wrong paths
+     */
     @Nonnull
-    protected Logger getLog() {
-        return log;
+    static Collection<String> combineParents(Collection<String> keys,
+            Map<String, Collection<String>> wrongPaths) {
+        final Map<String, Collection<String>> commitWrongPaths = new HashMap<>();
+        for (String key : keys) {
+            final Collection<String> keyWrongPaths = wrongPaths.getOrDefault(key,
+                    Collections.emptySet());
+            commitWrongPaths.merge(RawLogHandler.getCommit(key), new HashSet<>(keyWrongPaths),
+                    (combined, next) -> {
+                        combined.retainAll(next);
+                        return combined;
+                    });
+        }
+        final Collection<String> result = new HashSet<>();
+        commitWrongPaths.values().forEach(result::addAll);
+        return result;
+    }
+
+    @Nonnull
+    private CommitAttributes newAttributes(Repository repo, String commitId) {
+        return new CommitAttributes(builderFactory, governor, repo, commitId);
     }
 
     /**
-     * Callback, collecting all the paths, changed in the requested change
-     * range.
+     * Removes the changes, exempt from the check by git attributes, before
+     * any of them is scanned.
+     * @return changes to check
      */
-    protected static class ChangesPathsCollector extends AbstractChangeCallback {
-        private final Collection<String> changedPaths = new HashSet<String>();
-
-        @Override
-        public boolean onChange(Change change) throws IOException {
-            changedPaths.add(change.getPath().toString());
-            return true;
+    @Nonnull
+    private Collection<ChangedFile> removeExempt(Collection<ChangedFile> changes,
+            CommitAttributes attributes) {
+        final Collection<String> paths = new HashSet<>();
+        for (ChangedFile change : changes) {
+            if (!Constants.NON_ID.equals(change.getNewId())) {
+                paths.add(change.getPath());
+            }
         }
-
-        public Collection<String> getChangedPaths() {
-            return changedPaths;
+        final Set<String> exemptPaths = attributes.getExemptPaths(paths);
+        if (exemptPaths.isEmpty()) {
+            return changes;
         }
-
+        getLog().debug("{} of {} changed files are exempt by git attributes",
+                exemptPaths.size(), changes.size());
+        final Collection<ChangedFile> result = new ArrayList<>(changes.size());
+        for (ChangedFile change : changes) {
+            if (!exemptPaths.contains(change.getPath())) {
+                result.add(change);
+            }
+        }
+        return result;
     }
 
     /**
-     * Output handler, looking for CR symbol. <br/>
-     * Returns <code>true</code> if all the changes look Ok. <br/>
-     * Class is statefull. It is to be used strictly for one and only one output
-     * handling.
+     * Checks diff of the changes for wrong EOL. Changes are split into parts
+     * of about the same total size, which are checked in parallel.
      */
-    private abstract static class AbstractEolHandler implements CommandOutputHandler<Boolean> {
-
-        private boolean allOk = true;
-        private final Logger log = LoggerFactory.getLogger(getClass());
+    @Nonnull
+    private Collection<String> checkDiffForWrongEol(Collection<ChangedFile> changes,
+            Repository repo, String since, String to, boolean allowInheritedEol) {
+        final List<Supplier<Collection<String>>> tasks = new ArrayList<>();
+        for (Collection<String> paths : balancePaths(repo, changes)) {
+            tasks.add(() -> checkPathsForWrongEol(paths, repo, since, to, allowInheritedEol));
+        }
+        final Collection<String> wrongPaths = new TreeSet<>();
+        for (Collection<String> taskWrongPaths : checkExecutor.invokeAll(tasks)) {
+            wrongPaths.addAll(taskWrongPaths);
+        }
+        return wrongPaths;
+    }
 
-        @Override
-        public void process(InputStream output) throws ProcessException {
-            final Stopwatch streamRead = Stopwatch.createUnstarted();
-            final Stopwatch work = Stopwatch.createUnstarted();
-            try {
-                boolean newLine = true;
-                DiffSegmentType segmentType = DiffSegmentType.CONTEXT;
-                final byte[] buffer = new byte[BUFFER_SIZE];
-                // Just initial value for while cycle
-                int readCount = 1;
-                while (readCount >= 0) {
-                    streamRead.start();
-                    readCount = output.read(buffer);
-                    streamRead.stop();
-                    work.start();
-                    for (int i = 0; i < readCount; i++) {
-                        final byte nextChar = buffer[i];
-                        final boolean nextCharIsNewline = nextChar == Constants.CR
-                                || nextChar == Constants.LF;
-                        if (newLine && !nextCharIsNewline) {
-                            if (nextChar == '+') {
-                                segmentType = DiffSegmentType.ADDED;
-                            } else if (nextChar == '-') {
-                                segmentType = DiffSegmentType.REMOVED;
-                            } else {
-                                segmentType = DiffSegmentType.CONTEXT;
-                            }
-                        }
-                        // Catch only newline characters to reduce method calls
-                        if (nextCharIsNewline && !process(segmentType, nextChar)) {
-                            break;
-                        }
-                        newLine = nextCharIsNewline;
-                    }
-                    work.stop();
-                }
-            } catch (IOException e) {
-                throw new ProcessException("Error reading data from diff file", e);
+    /**
+     * Splits paths of the changes into parts, to be checked in parallel.
+     * Sizes of the new blobs are used as the estimation of the check costs.
+     * @return parts of the paths, the most expensive first
+     */
+    @Nonnull
+    private List<Collection<String>> balancePaths(Repository repo,
+            Collection<ChangedFile> changes) {
+        final Collection<String> paths = new ArrayList<>(changes.size());
+        final Collection<String> blobIds = new HashSet<>();
+        for (ChangedFile change : changes) {
+            paths.add(change.getPath());
+            if (ObjectIds.isObjectId(change.getNewId())) {
+                blobIds.add(change.getNewId());
             }
-            log.debug("Stream read time {}", streamRead);
-            log.debug("Stream processing time {}", work);
         }
-
-        /**
-         * Processes the next char according to the specified segment type.
-         * Method is only called for newline characters
-         * @param segmentType segment type this char belongs to
-         * @param nextChar next character
-         * @return whether the further processing should be performed
-         */
-        protected abstract boolean process(DiffSegmentType segmentType, byte nextChar);
-
-        protected void setResult(boolean allOk) {
-            this.allOk = allOk;
+        if (paths.isEmpty()) {
+            return Collections.emptyList();
         }
-
-        protected boolean getResult() {
-            return allOk;
+        if (paths.size() == 1 || checkExecutor.getParallelism() == 1) {
+            return Collections.singletonList(paths);
+        }
+        final Map<String, Long> blobSizes = governor.call(repo, builderFactory.builder(repo)
+                .command("cat-file").argument("--batch-check")
+                .inputHandler(new LinesInputHandler(blobIds)).build(new BlobSizeHandler()));
+        final Map<String, Long> sizes = new HashMap<>();
+        for (ChangedFile change : changes) {
+            final Long size = blobSizes.get(change.getNewId());
+            sizes.put(change.getPath(), size == null ? 0L : size);
         }
+        return SizeBalancer.balance(sizes, checkExecutor.getParallelism());
+    }
 
-        @Override
-        public void complete() throws ProcessException {
+    @Nonnull
+    private Collection<String> checkPathsForWrongEol(Collection<String> changedPaths,
+            Repository repo, String since, String to, boolean allowInheritedEol) {
+        final Collection<String> wrongPaths = new HashSet<String>();
+        final Supplier<AbstractEolHandler> handlerCreator = allowInheritedEol ? inheritedEolCreator
+                : strictHandlerCreator;
+        final int contextLines = handlerCreator.get().getRequiredContext();
+        for (Set<String> chunk : splitPaths(changedPaths)) {
+            Set<String> paths = chunk;
+            while (!paths.isEmpty()) {
+                final MultiFileEolHandler handler = new MultiFileEolHandler(handlerCreator,
+                        paths);
+                runDiff(repo, since, to, contextLines, handler);
+                wrongPaths.addAll(handler.getOutput());
+                // Diff, canceled in the middle of a huge file, is restarted
+                paths = handler.getRemainingPaths();
+            }
         }
+        return wrongPaths;
+    }
 
-        @Override
-        public void setWatchdog(Watchdog watchdog) {
+    private void runDiff(Repository repo, String since, String to, int contextLines,
+            MultiFileEolHandler handler) {
+        final GitDiffBuilder builder = builderFactory.builder(repo).diff().rev(to)
+                .paths(handler.getExpectedPaths());
+        if (since != null) {
+            builder.ancestor(since);
         }
+        builder.contextLines(contextLines);
+        try {
+            governor.call(repo, builder.build(handler));
+        } catch (CommandCanceledException e) {
+            if (!handler.isCanceled()) {
+                throw e;
+            }
+            getLog().debug("Verdicts are known, diff is canceled with {} paths remaining",
+                    handler.getRemainingPaths().size());
+        }
+    }
 
-        @Override
-        public Boolean getOutput() {
-            return allOk;
+    /**
+     * Splits paths into chunks, each of them is small enough to be passed to
+     * a single git command line.
+     * @param paths paths to split
+     * @return chunks of paths
+     */
+    @Nonnull
+    private static Collection<Set<String>> splitPaths(Collection<String> paths) {
+        final Collection<Set<String>> chunks = new ArrayList<>();
+        Set<String> chunk = new HashSet<>();
+        int chunkLength = 0;
+        for (String path : paths) {
+            if (!chunk.isEmpty() && chunkLength + path.length() > MAX_PATHS_LENGTH) {
+                chunks.add(chunk);
+                chunk = new HashSet<>();
+                chunkLength = 0;
+            }
+            chunk.add(path);
+            chunkLength += path.length() + 1;
         }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
 
-        /**
-         * Returns number of context lines, that are required for the handler to
-         * perform analysis.
-         * @return number of context lines to load within diff
-         */
-        public abstract int getRequiredContext();
+    /**
+     * Returns files, changed between the commits. Changes are enumerated by
+     * git itself, so the subtrees, excluded by the pathspecs of the policy,
+     * are never walked through. The rest of the exclusions are applied
+     * afterwards.
+     * @param repo repository to enumerate changes in
+     * @param since commit the range starts from
+     * @param to commit the range ends with
+     * @param policy policy of the check
+     * @return changed files, which are not excluded
+     */
+    @Nonnull
+    protected Collection<ChangedFile> getChangedFilesPruned(Repository repo, String since,
+            String to, EolCheckPolicy policy) {
+        final Collection<ChangedFile> changes = readChangedFiles(repo, addPathspecs(
+                newDiffTree(repo, since, to), policy), to);
+        changes.removeIf(change -> policy.isExcluded(change.getPath()));
+        return changes;
+    }
 
+    /**
+     * Returns all the files, changed between the commits, including the
+     * excluded ones.
+     * @param repo repository to enumerate changes in
+     * @param since commit the range starts from
+     * @param to commit the range ends with
+     * @return changed files
+     */
+    @Nonnull
+    protected Collection<ChangedFile> getAllChangedFiles(Repository repo, String since,
+            String to) {
+        return readChangedFiles(repo, newDiffTree(repo, since, to), to);
+    }
+
+    @Nonnull
+    private GitScmCommandBuilder newDiffTree(Repository repo, String since, String to) {
+        return builderFactory.builder(repo).command("diff-tree").argument("-r")
+                .argument("--raw").argument("-z").argument("--no-renames")
+                .argument("--no-abbrev").argument(since).argument(to);
+    }
+
+    @Nonnull
+    private Collection<ChangedFile> readChangedFiles(Repository repo,
+            GitScmCommandBuilder builder, String to) {
+        final List<ChangedFile> changes = new ArrayList<>();
+        governor.call(repo, builder.build(new RawLogHandler(
+                batch -> batch.values().forEach(changes::addAll), Integer.MAX_VALUE, to)));
+        return changes;
+    }
+
+    @Nonnull
+    private static GitScmCommandBuilder addPathspecs(GitScmCommandBuilder builder,
+            EolCheckPolicy policy) {
+        builder.argument("--");
+        if (!policy.getExcludePathspecs().isEmpty()) {
+            // Exclusions are only applied to the paths, included explicitly
+            builder.argument(".");
+            policy.getExcludePathspecs().forEach(builder::argument);
+        }
+        return builder;
     }
 
     /**
-     * Strict Eol checker - forces that every file has only LF-style
-     * end-of-line. <br/>
-     * Handler just search for the first occurrence of the CR symbol in the
-     * added lines. When it finds - it returns error result immediately
+     * Returns policy of the hook settings. Policies are cached, so the same
+     * settings always produce the same policy object.
+     * @param settings hook settings
+     * @return policy of the check
      */
-    private static class StrictEolHandler extends AbstractEolHandler {
-        @Override
-        protected boolean process(DiffSegmentType segmentType, byte nextChar) {
-            if (segmentType == DiffSegmentType.ADDED && nextChar == Constants.CR) {
-                setResult(false);
-                return false;
+    @Nonnull
+    protected EolCheckPolicy getPolicy(Settings settings) {
+        return policyCache.getPolicy(settings);
+    }
+
+    protected Collection<String> filterFiles(Collection<String> files, EolCheckPolicy policy) {
+        if (policy.getExcludePatterns().isEmpty()) {
+            return files;
+        }
+        final Iterator<String> iter = files.iterator();
+        while (iter.hasNext()) {
+            if (policy.isExcluded(iter.next())) {
+                iter.remove();
             }
-            return true;
         }
+        return files;
+    }
 
-        @Override
-        public int getRequiredContext() {
-            // No context is needed for this type of check.
-            return 0;
-        }
+    @Nonnull
+    protected Logger getLog() {
+        return log;
     }
 
     /**
-     * Eol-checker, allowing the EOL-style, that file have before the commit. <br/>
-     * Handler searches for CR in all the lines. If it finds CR in the removed
-     * lines, handler returns non-error result immediately. In other case, if
-     * there is no CR in ALL added lines, handler returns non-error result after
-     * all the parsing. Otherwise, error result is returned.
+     * Callback, collecting all the paths, changed in the requested change
+     * range, together with their blob IDs.
      */
-    private static class AllowInheritedStyleEolHandler extends AbstractEolHandler {
+    protected static class ChangesPathsCollector extends AbstractChangeCallback {
+        private final Map<String, ChangedFile> changedFiles = new HashMap<>();
+        private final boolean sinceContentKnown;
+
+        /**
+         * Constructs the collector.
+         * @param sinceContentKnown whether source contents of the changes are
+         *            the ones EOL check is to be performed against
+         */
+        public ChangesPathsCollector(boolean sinceContentKnown) {
+            this.sinceContentKnown = sinceContentKnown;
+        }
+
         @Override
-        protected boolean process(DiffSegmentType segmentType, byte nextChar) {
-            // We get info about old EOL-style from both context and removed
-            // lines. Descriptive lines, that are generated by git itself are
-            // always in LF style
-            if (segmentType != DiffSegmentType.ADDED && nextChar == Constants.CR) {
-                setResult(true);
-                return false;
-            }
-            if (getResult() && segmentType == DiffSegmentType.ADDED && nextChar == Constants.CR) {
-                setResult(false);
+        public boolean onChange(Change change) throws IOException {
+            // Submodule changes never have any EOL-style of their own
+            if (change.getNodeType() == ContentTreeNode.Type.SUBMODULE) {
+                return true;
             }
+            final String path = change.getPath().toString();
+            changedFiles.put(path, new ChangedFile(path, getOldId(change), getNewId(change)));
             return true;
         }
 
-        @Override
-        public int getRequiredContext() {
-            // At lease one line of context is needed to determine file's
-            // initial EOL-style
-            return 1;
+        @Nullable
+        private String getOldId(Change change) {
+            if (!sinceContentKnown) {
+                return null;
+            }
+            switch (change.getType()) {
+                case ADD:
+                case COPY:
+                case MOVE:
+                    // The path itself did not exist before the change
+                    return Constants.NON_ID;
+                default:
+                    return change.getFromContentId();
+            }
         }
+
+        @Nullable
+        private static String getNewId(Change change) {
+            return change.getType() == ChangeType.DELETE ? Constants.NON_ID : change
+                    .getContentId();
+        }
+
+        /**
+         * Returns changed paths. Removal of the paths from the returned
+         * collection removes them from the changed files as well.
+         * @return changed paths
+         */
+        public Collection<String> getChangedPaths() {
+            return changedFiles.keySet();
+        }
+
+        public Collection<ChangedFile> getChangedFiles() {
+            return changedFiles.values();
+        }
+
     }
 
 }
@@ -0,0 +1,189 @@
+package com.pbaranchikov.stash.checks;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import com.atlassian.bitbucket.setting.Settings;
+
+/**
+ * Settings of the EOL check, the verdict depends on. Policy is immutable and
+ * holds the compiled patterns of the excluded files, so it could be shared
+ * between the checks of any repositories with the same settings. <br/>
+ * Policy also holds the key of the effective {@link BlobSizePolicy}, as
+ * skipped and sampled oversized blobs could change the verdicts, which are
+ * stored persistently by the policy fingerprint.
+ * @author Pavel Baranchikov
+ */
+public final class EolCheckPolicy {
+
+    private static final int FINGERPRINT_LENGTH = 16;
+    /**
+     * Version of the check logic. It is to be incremented, whenever verdicts
+     * of the same settings change, so the verdicts, stored by the previous
+     * versions of the plugin, are never used.
+     */
+    private static final byte CHECK_VERSION = 1;
+
+    private final boolean allowInheritedEol;
+    private final String excludeFiles;
+    private final List<Pattern> excludePatterns;
+    private final PatternAutomaton excludeAutomaton;
+    private final List<String> excludePathspecs;
+    private final String blobSizeKey;
+    private final String fingerprint;
+
+    private EolCheckPolicy(boolean allowInheritedEol, @Nonnull String excludeFiles,
+            @Nonnull List<Pattern> excludePatterns, @Nonnull List<String> excludePathspecs,
+            @Nonnull String blobSizeKey) {
+        this.allowInheritedEol = allowInheritedEol;
+        this.excludeFiles = Objects.requireNonNull(excludeFiles);
+        this.excludePatterns = Collections.unmodifiableList(excludePatterns);
+        this.excludeAutomaton = PatternAutomaton.compile(excludePatterns);
+        this.excludePathspecs = Collections.unmodifiableList(excludePathspecs);
+        this.blobSizeKey = Objects.requireNonNull(blobSizeKey);
+        this.fingerprint = calculateFingerprint(allowInheritedEol, excludeFiles, blobSizeKey);
+    }
+
+    /**
+     * Creates policy from the hook settings.
+     * @param settings hook settings
+     * @param sizePolicy policy of the oversized blobs
+     * @return policy
+     */
+    @Nonnull
+    public static EolCheckPolicy fromSettings(@Nonnull Settings settings,
+            @Nonnull BlobSizePolicy sizePolicy) {
+        final String excludeFiles = settings.getString(Constants.SETTING_EXCLUDED_FILES);
+        final List<Pattern> patterns = new ArrayList<>();
+        final List<String> pathspecs = new ArrayList<>();
+        if (excludeFiles != null) {
+            for (String patternString : excludeFiles.split(Constants.PATTERNS_SEPARATOR)) {
+                if (ExcludeGlob.isGlob(patternString)) {
+                    final String glob = ExcludeGlob.getGlob(patternString);
+                    patterns.add(Pattern.compile(ExcludeGlob.toRegex(glob)));
+                    pathspecs.add(ExcludeGlob.toPathspec(glob));
+                } else {
+                    patterns.add(Pattern.compile(patternString));
+                }
+            }
+        }
+        return new EolCheckPolicy(isAllowInheritedEol(settings), excludeFiles == null ? ""
+                : excludeFiles, patterns, pathspecs, sizePolicy.getKey());
+    }
+
+    /**
+     * Returns key of the settings. Settings with equal keys produce equal
+     * policies.
+     * @param settings hook settings
+     * @return key of the settings
+     */
+    @Nonnull
+    static String getKey(@Nonnull Settings settings) {
+        final String excludeFiles = settings.getString(Constants.SETTING_EXCLUDED_FILES);
+        // Separator never appears in the setting, typed in a single-line field
+        return (isAllowInheritedEol(settings) ? "1" : "0")
+                + (excludeFiles == null ? "" : "\n" + excludeFiles);
+    }
+
+    private static boolean isAllowInheritedEol(Settings settings) {
+        return Boolean.TRUE.equals(settings.getBoolean(Constants.SETTING_ALLOW_INHERITED_EOL));
+    }
+
+    public boolean isAllowInheritedEol() {
+        return allowInheritedEol;
+    }
+
+    @Nonnull
+    public String getExcludeFiles() {
+        return excludeFiles;
+    }
+
+    @Nonnull
+    public Collection<Pattern> getExcludePatterns() {
+        return excludePatterns;
+    }
+
+    /**
+     * Returns git pathspecs, excluding the files of the globs. Pathspecs
+     * match exactly the same files, as {@link #isExcluded(String)} does for
+     * the globs.
+     * @return exclusion pathspecs
+     */
+    @Nonnull
+    public List<String> getExcludePathspecs() {
+        return excludePathspecs;
+    }
+
+    /**
+     * Returns whether the file is excluded from the check. All the patterns
+     * are matched at once by a single automaton in a time, linear in the
+     * length of the path.
+     * @param path path of the file
+     * @return whether the file is excluded
+     */
+    public boolean isExcluded(@Nonnull String path) {
+        return excludeAutomaton.matches(path);
+    }
+
+    /**
+     * Returns fingerprint of the policy. Policies with the same fingerprint
+     * produce the same verdicts. Fingerprint includes version of the check
+     * logic, so it changes with the plugin upgrades, changing the verdicts.
+     * @return hexadecimal fingerprint
+     */
+    @Nonnull
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    private static String calculateFingerprint(boolean allowInheritedEol, String excludeFiles,
+            String blobSizeKey) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(CHECK_VERSION);
+            digest.update((byte) (allowInheritedEol ? 1 : 0));
+            digest.update(excludeFiles.getBytes(StandardCharsets.UTF_8));
+            // Separator never appears in the setting, typed in a single-line field
+            digest.update((byte) '\n');
+            digest.update(blobSizeKey.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder();
+            for (byte nextByte : digest.digest()) {
+                sb.append(String.format("%02x", nextByte));
+            }
+            return sb.substring(0, FINGERPRINT_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported by JVM", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof EolCheckPolicy)) {
+            return false;
+        }
+        final EolCheckPolicy other = (EolCheckPolicy) obj;
+        return allowInheritedEol == other.allowInheritedEol
+                && excludeFiles.equals(other.excludeFiles)
+                && blobSizeKey.equals(other.blobSizeKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return fingerprint.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "EolCheckPolicy[" + fingerprint + "]";
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.atlassian.bitbucket.event.hook.RepositoryHookSettingsChangedEvent;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+
+/**
+ * Cache of the compiled EOL check policies. Policies are keyed by the
+ * content of the settings, so all the repositories with the same settings,
+ * either inherited from the project or set explicitly, share the same
+ * immutable policy. <br/>
+ * All the policies share the same {@link BlobSizePolicy}. <br/>
+ * Cache is cleared, when settings of the plugin's hook or merge check change
+ * in any scope, so policies of the outdated settings never pile up.
+ * @author Pavel Baranchikov
+ */
+public class EolCheckPolicyCache implements InitializingBean, DisposableBean {
+
+    private static final int MAX_POLICIES = 1024;
+    private static final String HOOK_KEY_SUFFIX = ":stash-check-eol-hook";
+    private static final String MERGE_CHECK_KEY_SUFFIX = ":stash-check-eol-merge-check";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final EventPublisher eventPublisher;
+    private final BlobSizePolicy sizePolicy;
+    private final ConcurrentMap<String, EolCheckPolicy> policies = new ConcurrentHashMap<>();
+
+    public EolCheckPolicyCache(@Nonnull EventPublisher eventPublisher,
+            @Nonnull BlobSizePolicy sizePolicy) {
+        this.eventPublisher = Objects.requireNonNull(eventPublisher);
+        this.sizePolicy = Objects.requireNonNull(sizePolicy);
+    }
+
+    /**
+     * Returns policy of the hook settings.
+     * @param settings hook settings
+     * @return policy
+     */
+    @Nonnull
+    public EolCheckPolicy getPolicy(@Nonnull Settings settings) {
+        final String key = EolCheckPolicy.getKey(settings);
+        final EolCheckPolicy policy = policies.get(key);
+        if (policy != null) {
+            return policy;
+        }
+        if (policies.size() >= MAX_POLICIES) {
+            policies.clear();
+        }
+        return policies.computeIfAbsent(key, k -> EolCheckPolicy.fromSettings(settings,
+                sizePolicy));
+    }
+
+    /**
+     * Clears the cache, when settings of the plugin's hooks are changed.
+     * @param event settings change event
+     */
+    @EventListener
+    public void onSettingsChanged(@Nonnull RepositoryHookSettingsChangedEvent event) {
+        final String hookKey = event.getRepositoryHookKey();
+        if (hookKey != null && (hookKey.endsWith(HOOK_KEY_SUFFIX)
+                || hookKey.endsWith(MERGE_CHECK_KEY_SUFFIX))) {
+            log.debug("Settings of {} changed in {}, clearing {} policies", hookKey,
+                    event.getScope(), policies.size());
+            policies.clear();
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() {
+        eventPublisher.unregister(this);
+    }
+
+}
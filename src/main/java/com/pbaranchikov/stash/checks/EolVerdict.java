@@ -0,0 +1,20 @@
+package com.pbaranchikov.stash.checks;
+
+/**
+ * Verdict on a single changed file.
+ * @author Pavel Baranchikov
+ */
+enum EolVerdict {
+    /**
+     * File does not introduce wrong EOL-style.
+     */
+    ACCEPTED,
+    /**
+     * File introduces wrong EOL-style.
+     */
+    REJECTED,
+    /**
+     * Verdict could not be made without looking at the diff.
+     */
+    UNDECIDED
+}
@@ -0,0 +1,210 @@
+package com.pbaranchikov.stash.checks;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Glob of the excluded files, set as <code>glob:&lt;glob&gt;</code> in the
+ * settings. <br/>
+ * Glob follows the syntax of git glob pathspecs: <code>*</code> and
+ * <code>?</code> never match <code>/</code>, <code>[...]</code> is a
+ * character class, <code>\</code> escapes the next character and
+ * <code>**</code> as a whole path component matches any number of
+ * directories. Glob without any of the wildcards excludes the file with the
+ * same path and all the files under the directory with the same path. <br/>
+ * Glob is passed to git as an exclusion pathspec, so excluded subtrees are
+ * never walked through. It is also translated into the regular expression,
+ * matching exactly the same paths, so the files, enumerated by other means,
+ * are filtered out as well. Constructs, git and the expression could treat
+ * differently (<code>**</code> inside a component, POSIX classes,
+ * <code>/</code> inside a class, empty components), are rejected.
+ * @author Pavel Baranchikov
+ */
+final class ExcludeGlob {
+
+    private static final String WILDCARDS = "*?[\\";
+    private static final String DOUBLE_STAR = "**";
+    private static final String ANY_PATH = ".*";
+    private static final String CLASS_SPECIALS = "\\[]^-&";
+    private static final String PATHSPEC_MAGIC = ":(exclude,glob)";
+    private static final char SEPARATOR = '/';
+
+    private ExcludeGlob() {
+    }
+
+    /**
+     * Returns whether the entry of the excluded files setting is a glob.
+     * @param entry entry of the setting
+     * @return whether the entry is a glob
+     */
+    static boolean isGlob(@Nonnull String entry) {
+        return entry.startsWith(Constants.GLOB_PREFIX);
+    }
+
+    /**
+     * Returns the glob of the setting entry.
+     * @param entry entry of the setting, starting with
+     *            {@link Constants#GLOB_PREFIX}
+     * @return glob
+     */
+    @Nonnull
+    static String getGlob(@Nonnull String entry) {
+        return entry.substring(Constants.GLOB_PREFIX.length());
+    }
+
+    /**
+     * Returns git pathspec, excluding the files, matching the glob.
+     * @param glob glob of the excluded files
+     * @return pathspec
+     */
+    @Nonnull
+    static String toPathspec(@Nonnull String glob) {
+        return PATHSPEC_MAGIC + glob;
+    }
+
+    /**
+     * Translates the glob into the regular expression, matching exactly the
+     * same paths as git does.
+     * @param glob glob of the excluded files
+     * @return regular expression
+     * @throws IllegalArgumentException if the glob is malformed or beyond the
+     *             supported syntax
+     */
+    @Nonnull
+    static String toRegex(@Nonnull String glob) {
+        if (glob.isEmpty() || glob.charAt(0) == SEPARATOR || glob.contains("//")) {
+            throw new IllegalArgumentException("Glob must be a non-empty relative path");
+        }
+        final StringBuilder regex = new StringBuilder();
+        if (!containsWildcards(glob)) {
+            // Git matches literal pathspecs against the leading directories too
+            appendLiteral(regex, glob);
+            regex.append(glob.charAt(glob.length() - 1) == SEPARATOR ? ANY_PATH : "(?:/.*)?");
+            return regex.toString();
+        }
+        final String[] components = glob.split(String.valueOf(SEPARATOR), -1);
+        boolean separatorPending = false;
+        for (int i = 0; i < components.length; i++) {
+            final boolean last = i == components.length - 1;
+            if (separatorPending) {
+                regex.append(SEPARATOR);
+            }
+            if (components[i].equals(DOUBLE_STAR)) {
+                // Matches any number of directories
+                regex.append(last ? ANY_PATH : "(?:.*/)?");
+                separatorPending = false;
+            } else {
+                appendComponent(regex, components[i]);
+                separatorPending = true;
+            }
+        }
+        return regex.toString();
+    }
+
+    private static boolean containsWildcards(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            if (WILDCARDS.indexOf(glob.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendComponent(StringBuilder regex, String component) {
+        if (component.isEmpty() || component.contains(DOUBLE_STAR)) {
+            throw new IllegalArgumentException("Unsupported path component \"" + component
+                    + "\"");
+        }
+        int position = 0;
+        while (position < component.length()) {
+            final char next = component.charAt(position);
+            if (next == '*') {
+                regex.append("[^/]*");
+            } else if (next == '?') {
+                regex.append("[^/]");
+            } else if (next == '[') {
+                position = appendClass(regex, component, position + 1);
+            } else if (next == '\\') {
+                position++;
+                if (position == component.length()) {
+                    throw new IllegalArgumentException("Trailing backslash");
+                }
+                appendLiteral(regex, component.substring(position, position + 1));
+            } else {
+                appendLiteral(regex, String.valueOf(next));
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Appends character class, starting right after the opening bracket.
+     * @return position of the closing bracket
+     */
+    private static int appendClass(StringBuilder regex, String component, int start) {
+        int position = start;
+        final boolean negated = position < component.length()
+                && (component.charAt(position) == '!' || component.charAt(position) == '^');
+        regex.append(negated ? "[^/" : "[");
+        if (negated) {
+            position++;
+        }
+        final int first = position;
+        while (position < component.length()
+                && (component.charAt(position) != ']' || position == first)) {
+            char from = component.charAt(position);
+            if (from == '[' && position + 1 < component.length()
+                    && component.charAt(position + 1) == ':') {
+                throw new IllegalArgumentException("POSIX classes are not supported");
+            }
+            if (from == '\\' && position + 1 < component.length()) {
+                position++;
+                from = component.charAt(position);
+            }
+            char to = from;
+            if (position + 2 < component.length() && component.charAt(position + 1) == '-'
+                    && component.charAt(position + 2) != ']') {
+                position += 2;
+                to = component.charAt(position);
+            }
+            appendClassRange(regex, from, to, negated);
+            position++;
+        }
+        if (position >= component.length()) {
+            throw new IllegalArgumentException("Unterminated character class");
+        }
+        regex.append(']');
+        return position;
+    }
+
+    private static void appendClassRange(StringBuilder regex, char from, char to,
+            boolean negated) {
+        if (to < from || to == '\\' || to == '[' || (!negated && from <= SEPARATOR
+                && to >= SEPARATOR)) {
+            throw new IllegalArgumentException("Unsupported character range " + from + "-"
+                    + to);
+        }
+        appendClassChar(regex, from);
+        if (to != from) {
+            regex.append('-');
+            appendClassChar(regex, to);
+        }
+    }
+
+    private static void appendClassChar(StringBuilder regex, char value) {
+        if (CLASS_SPECIALS.indexOf(value) >= 0) {
+            regex.append('\\');
+        }
+        regex.append(value);
+    }
+
+    private static void appendLiteral(StringBuilder regex, String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            final char next = literal.charAt(i);
+            if (next < 0x80 && !Character.isLetterOrDigit(next)) {
+                regex.append('\\');
+            }
+            regex.append(next);
+        }
+    }
+
+}
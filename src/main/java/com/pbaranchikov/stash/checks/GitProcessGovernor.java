@@ -0,0 +1,176 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.Command;
+
+/**
+ * Governor, limiting the number of git processes, run by the plugin on the
+ * node simultaneously. <br/>
+ * Maximum number of the processes is set by system property
+ * {@value Constants#PROPERTY_GIT_PROCESSES}. Commands, exceeding the limit,
+ * wait in the queue of their repository. Repositories are served in
+ * round-robin order, so a burst of pushes into one repository never starves
+ * the others. Commands of the same repository are served in FIFO order. <br/>
+ * Commands, called from within the output handler of a running command, are
+ * run at once, as the outer command could never finish otherwise.
+ * @author Pavel Baranchikov
+ */
+public class GitProcessGovernor {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final int maxProcesses;
+    private final ThreadLocal<Boolean> holding = new ThreadLocal<>();
+    private final Map<Integer, Deque<Waiter>> queues = new LinkedHashMap<>();
+    private int inFlight;
+    private long commandCount;
+    private long waitCount;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    public GitProcessGovernor() {
+        this(Integer.getInteger(Constants.PROPERTY_GIT_PROCESSES, Runtime.getRuntime()
+                .availableProcessors() * 2));
+    }
+
+    public GitProcessGovernor(int maxProcesses) {
+        this.maxProcesses = Math.max(1, maxProcesses);
+    }
+
+    /**
+     * Calls the command, as soon as the number of running processes allows
+     * it.
+     * @param repository repository the command is run in
+     * @param command command to call
+     * @param <T> type of the command result
+     * @return result of the command
+     */
+    public <T> T call(@Nonnull Repository repository, @Nonnull Command<T> command) {
+        if (holding.get() != null) {
+            return command.call();
+        }
+        acquire(repository.getId());
+        holding.set(Boolean.TRUE);
+        try {
+            return command.call();
+        } finally {
+            holding.remove();
+            release();
+        }
+    }
+
+    private synchronized void acquire(int repositoryId) {
+        commandCount++;
+        if (inFlight < maxProcesses && queues.isEmpty()) {
+            inFlight++;
+            return;
+        }
+        final Waiter waiter = new Waiter();
+        queues.computeIfAbsent(repositoryId, id -> new ArrayDeque<>()).add(waiter);
+        final long start = System.nanoTime();
+        try {
+            while (!waiter.granted) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            abandon(repositoryId, waiter);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for git process to start", e);
+        }
+        final long waitNanos = System.nanoTime() - start;
+        waitCount++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        log.debug("Git command in repository {} waited {} ms. {}", repositoryId,
+                TimeUnit.NANOSECONDS.toMillis(waitNanos), this);
+    }
+
+    private void abandon(int repositoryId, Waiter waiter) {
+        if (waiter.granted) {
+            release();
+            return;
+        }
+        final Deque<Waiter> queue = queues.get(repositoryId);
+        queue.remove(waiter);
+        if (queue.isEmpty()) {
+            queues.remove(repositoryId);
+        }
+    }
+
+    private synchronized void release() {
+        inFlight--;
+        final Iterator<Entry<Integer, Deque<Waiter>>> iter = queues.entrySet().iterator();
+        if (inFlight >= maxProcesses || !iter.hasNext()) {
+            return;
+        }
+        final Entry<Integer, Deque<Waiter>> next = iter.next();
+        iter.remove();
+        next.getValue().poll().granted = true;
+        inFlight++;
+        if (!next.getValue().isEmpty()) {
+            // Move the repository to the end of the round
+            queues.put(next.getKey(), next.getValue());
+        }
+        notifyAll();
+    }
+
+    public int getMaxProcesses() {
+        return maxProcesses;
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    public synchronized int getQueuedCount() {
+        int count = 0;
+        for (Deque<Waiter> queue : queues.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    public synchronized long getCommandCount() {
+        return commandCount;
+    }
+
+    public synchronized long getWaitCount() {
+        return waitCount;
+    }
+
+    public synchronized long getTotalWaitTime(@Nonnull TimeUnit unit) {
+        return unit.convert(totalWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized long getMaxWaitTime(@Nonnull TimeUnit unit) {
+        return unit.convert(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Git processes: " + inFlight + " of " + maxProcesses + " running, "
+                + getQueuedCount() + " queued, " + waitCount + " of " + commandCount
+                + " waited " + TimeUnit.NANOSECONDS.toMillis(totalWaitNanos) + " ms total, "
+                + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms max";
+    }
+
+    /**
+     * Command, waiting for the process to start.
+     */
+    private static final class Waiter {
+        private boolean granted;
+    }
+
+}
@@ -4,7 +4,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import javax.annotation.Nonnull;
 
@@ -41,8 +40,10 @@ public class HookSettingsValidator implements SettingsValidator {
         final Map<String, String> wrongPatterns = new HashMap<>();
         for (String patternString : excludedFiles) {
             try {
-                Pattern.compile(patternString);
-            } catch (PatternSyntaxException e) {
+                Pattern.compile(ExcludeGlob.isGlob(patternString) ? ExcludeGlob
+                        .toRegex(ExcludeGlob.getGlob(patternString)) : patternString);
+            } catch (IllegalArgumentException e) {
+                // Thrown for wrong globs, PatternSyntaxException for wrong patterns
                 wrongPatterns.put(patternString, e.getLocalizedMessage());
             }
         }
@@ -0,0 +1,59 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import com.atlassian.bitbucket.scm.CommandInputHandler;
+import com.atlassian.utils.process.ProcessException;
+import com.atlassian.utils.process.Watchdog;
+
+/**
+ * Input handler, writing the specified lines into the standard input of the
+ * git process. Lines are terminated by LF or, for the commands, run with
+ * <code>-z</code>, by NUL.
+ * @author Pavel Baranchikov
+ */
+class LinesInputHandler implements CommandInputHandler {
+
+    private final Collection<String> lines;
+    private final int terminator;
+
+    LinesInputHandler(@Nonnull Collection<String> lines) {
+        this(lines, Constants.LF);
+    }
+
+    LinesInputHandler(@Nonnull Collection<String> lines, int terminator) {
+        this.lines = Objects.requireNonNull(lines);
+        this.terminator = terminator;
+    }
+
+    @Override
+    public void process(OutputStream input) throws ProcessException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(input,
+                StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write(terminator);
+            }
+        } catch (IOException e) {
+            throw new ProcessException("Error writing data to git process", e);
+        }
+    }
+
+    @Override
+    public void complete() throws ProcessException {
+    }
+
+    @Override
+    public void setWatchdog(Watchdog watchdog) {
+    }
+
+}
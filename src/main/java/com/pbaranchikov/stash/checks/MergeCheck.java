@@ -2,7 +2,6 @@ package com.pbaranchikov.stash.checks;
 
 import java.util.Collection;
 import java.util.Objects;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 
@@ -12,24 +11,23 @@ import com.atlassian.bitbucket.hook.repository.RepositoryHookResult;
 import com.atlassian.bitbucket.hook.repository.RepositoryMergeCheck;
 import com.atlassian.bitbucket.i18n.I18nService;
 import com.atlassian.bitbucket.pull.PullRequest;
-import com.atlassian.bitbucket.pull.PullRequestChangesRequest;
-import com.atlassian.bitbucket.pull.PullRequestService;
-import com.atlassian.bitbucket.scm.git.command.GitCommandBuilderFactory;
-import com.atlassian.bitbucket.setting.Settings;
 
 /**
  * Pull requests merge check to enforce EOL style in merge requests.
+ * Verdicts are computed by {@link PullRequestChecker}, so the ones,
+ * precomputed in background, are reused.
  */
-public class MergeCheck extends EolCheckHook implements RepositoryMergeCheck {
+public class MergeCheck implements RepositoryMergeCheck {
 
     private final I18nService i18service;
-    private final PullRequestService pullRequestService;
+    private final EolCheckPolicyCache policyCache;
+    private final PullRequestChecker pullRequestChecker;
 
-    public MergeCheck(@Nonnull GitCommandBuilderFactory builderFactory,
-            @Nonnull I18nService i18service, @Nonnull PullRequestService pullRequestService) {
-        super(builderFactory);
-        this.pullRequestService = Objects.requireNonNull(pullRequestService);
+    public MergeCheck(@Nonnull I18nService i18service, @Nonnull EolCheckPolicyCache policyCache,
+            @Nonnull PullRequestChecker pullRequestChecker) {
         this.i18service = Objects.requireNonNull(i18service);
+        this.policyCache = Objects.requireNonNull(policyCache);
+        this.pullRequestChecker = Objects.requireNonNull(pullRequestChecker);
     }
 
     @Override
@@ -37,11 +35,9 @@ public class MergeCheck extends EolCheckHook implements RepositoryMergeCheck {
     public RepositoryHookResult preUpdate(@Nonnull PreRepositoryHookContext context,
             @Nonnull PullRequestMergeHookRequest pullRequestMergeHookRequest) {
         final PullRequest pr = pullRequestMergeHookRequest.getPullRequest();
-        final Settings settings = context.getSettings();
+        final EolCheckPolicy policy = policyCache.getPolicy(context.getSettings());
 
-        final Collection<Pattern> excludeFiles = getExcludeFiles(settings);
-        final Collection<String> changedFiles = getChangedPaths(pr, excludeFiles);
-        final Collection<String> wrongFiles = checkForWrongEol(changedFiles, pr, settings);
+        final Collection<String> wrongFiles = pullRequestChecker.getWrongPaths(pr, policy);
         if (wrongFiles.isEmpty()) {
             return RepositoryHookResult.accepted();
         } else {
@@ -54,24 +50,4 @@ public class MergeCheck extends EolCheckHook implements RepositoryMergeCheck {
         }
     }
 
-    @Nonnull
-    private Collection<String> getChangedPaths(PullRequest pullRequest,
-            Collection<Pattern> excludeFiles) {
-        final PullRequestChangesRequest request =
-                new PullRequestChangesRequest.Builder(pullRequest).build();
-
-        final ChangesPathsCollector pathsCallback = new ChangesPathsCollector();
-        pullRequestService.streamChanges(request, pathsCallback);
-        final Collection<String> changedFiles = pathsCallback.getChangedPaths();
-        filterFiles(changedFiles, excludeFiles);
-        return changedFiles;
-    }
-
-    @Nonnull
-    private Collection<String> checkForWrongEol(Collection<String> changedPaths,
-            PullRequest pullRequest, Settings settings) {
-        return checkForWrongEol(changedPaths, pullRequest.getToRef().getRepository(),
-                pullRequest.getToRef().getLatestCommit(),
-                pullRequest.getFromRef().getLatestCommit(), settings);
-    }
 }
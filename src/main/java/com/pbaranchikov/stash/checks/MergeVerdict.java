@@ -0,0 +1,68 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Merge check verdict of the pull request together with the latest commits
+ * of the source and the target branches, it has been computed at, and the
+ * merge base, the changes of the pull request have been checked since.
+ * @author Pavel Baranchikov
+ */
+public final class MergeVerdict {
+
+    private final String fromCommit;
+    private final String toCommit;
+    private final String mergeBase;
+    private final Collection<String> wrongPaths;
+
+    public MergeVerdict(@Nonnull String fromCommit, @Nonnull String toCommit,
+            @Nullable String mergeBase, @Nonnull Collection<String> wrongPaths) {
+        this.fromCommit = Objects.requireNonNull(fromCommit);
+        this.toCommit = Objects.requireNonNull(toCommit);
+        this.mergeBase = mergeBase;
+        this.wrongPaths = Collections.unmodifiableList(new ArrayList<>(wrongPaths));
+    }
+
+    @Nonnull
+    public String getFromCommit() {
+        return fromCommit;
+    }
+
+    @Nonnull
+    public String getToCommit() {
+        return toCommit;
+    }
+
+    /**
+     * Returns merge base of the source and the target commits.
+     * @return merge base or <code>null</code> if the commits have no common
+     *         history, so the changes have been checked against the target
+     *         commit
+     */
+    @Nullable
+    public String getMergeBase() {
+        return mergeBase;
+    }
+
+    /**
+     * Returns paths with wrong EOL, the pull request would bring into the
+     * target branch.
+     * @return sorted paths with wrong EOL
+     */
+    @Nonnull
+    public Collection<String> getWrongPaths() {
+        return wrongPaths;
+    }
+
+    @Override
+    public String toString() {
+        return fromCommit + ".." + toCommit + " " + wrongPaths;
+    }
+
+}
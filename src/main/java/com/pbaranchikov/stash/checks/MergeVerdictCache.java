@@ -0,0 +1,297 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.pull.PullRequest;
+
+/**
+ * Bounded in-memory cache of the merge check verdicts. Verdict is keyed by
+ * the latest commits of the source and the target branches of the pull
+ * request and by the fingerprint of the policy, so repeated evaluations of
+ * an unchanged pull request neither stream its changes nor diff any file.
+ * <br/>
+ * Verdicts, being computed, are tracked as well, so a concurrent evaluation
+ * of the same pull request waits for the running computation instead of
+ * starting a duplicate one. Verdicts of a batch of pull requests could be
+ * registered as being computed all at once, before their computation
+ * starts. <br/>
+ * The latest verdict of every pull request is kept apart, so the pull
+ * request, which branches have moved, may be rechecked incrementally. <br/>
+ * Least recently used verdicts are evicted first. Size of the cache is set
+ * by system property {@value Constants#PROPERTY_MERGE_CACHE_SIZE}.
+ * @author Pavel Baranchikov
+ */
+public class MergeVerdictCache {
+
+    private static final int DEFAULT_SIZE = 4096;
+    private static final char KEY_SEPARATOR = ':';
+
+    private final int maxSize;
+    private final Map<String, Collection<String>> verdicts;
+    private final Map<String, MergeVerdict> latest;
+    private final SingleFlight<String, Collection<String>> flights = new SingleFlight<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public MergeVerdictCache() {
+        this(Integer.getInteger(Constants.PROPERTY_MERGE_CACHE_SIZE, DEFAULT_SIZE));
+    }
+
+    /**
+     * Constructs the cache.
+     * @param maxSize maximum number of verdicts to hold. <code>0</code>
+     *            disables the cache
+     */
+    public MergeVerdictCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.verdicts = newLruMap(this.maxSize);
+        this.latest = newLruMap(this.maxSize);
+    }
+
+    @Nonnull
+    private static <T> Map<String, T> newLruMap(int maxSize) {
+        return new LinkedHashMap<String, T>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, T> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns wrong paths of the pull request, checked with the policy.
+     * @param pullRequest pull request
+     * @param policy policy of the check
+     * @return sorted wrong paths or <code>null</code> if the pull request
+     *         has not been checked at its current commits yet
+     */
+    @Nullable
+    public Collection<String> get(@Nonnull PullRequest pullRequest,
+            @Nonnull EolCheckPolicy policy) {
+        final Collection<String> wrongPaths;
+        synchronized (verdicts) {
+            wrongPaths = verdicts.get(getKey(pullRequest, policy));
+        }
+        if (wrongPaths == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return wrongPaths;
+    }
+
+    /**
+     * Returns whether the verdict of the pull request, checked with the
+     * policy, is cached. Unlike {@link #get(PullRequest, EolCheckPolicy)},
+     * the lookup is not counted.
+     * @param pullRequest pull request
+     * @param policy policy of the check
+     * @return whether the pull request has been checked at its current
+     *         commits
+     */
+    public boolean contains(@Nonnull PullRequest pullRequest, @Nonnull EolCheckPolicy policy) {
+        synchronized (verdicts) {
+            return verdicts.containsKey(getKey(pullRequest, policy));
+        }
+    }
+
+    /**
+     * Returns wrong paths of the pull request, checked with the policy. If
+     * the verdict is neither cached nor being computed, it is computed by the
+     * calling thread and cached. If it is being computed, the running
+     * computation is waited for. Should it fail, the verdict is computed by
+     * the calling thread once again.
+     * @param pullRequest pull request
+     * @param policy policy of the check
+     * @param check computation of the verdict at the current commits of the
+     *            pull request
+     * @return sorted wrong paths
+     */
+    @Nonnull
+    public Collection<String> get(@Nonnull PullRequest pullRequest,
+            @Nonnull EolCheckPolicy policy, @Nonnull Supplier<MergeVerdict> check) {
+        final Collection<String> cached = get(pullRequest, policy);
+        if (cached != null) {
+            return cached;
+        }
+        final String key = getKey(pullRequest, policy);
+        return flights.execute(key, () -> lookup(key), () -> {
+            final MergeVerdict verdict = check.get();
+            put(pullRequest, policy, verdict);
+            return verdict.getWrongPaths();
+        });
+    }
+
+    /**
+     * Starts computation of the verdict of the pull request by the caller.
+     * Concurrent evaluations of the pull request wait for it, until it is
+     * either completed or abandoned.
+     * @param pullRequest pull request
+     * @param policy policy of the check
+     * @return the started computation or <code>null</code> if the verdict is
+     *         either cached or being computed already
+     */
+    @Nullable
+    public PendingVerdict start(@Nonnull PullRequest pullRequest,
+            @Nonnull EolCheckPolicy policy) {
+        final String key = getKey(pullRequest, policy);
+        final SingleFlight<String, Collection<String>>.Flight flight = flights.start(key);
+        if (flight == null) {
+            return null;
+        }
+        final Collection<String> cached = lookup(key);
+        if (cached != null) {
+            flight.complete(cached);
+            return null;
+        }
+        return new PendingVerdict(pullRequest, policy, flight);
+    }
+
+    @Nullable
+    private Collection<String> lookup(@Nonnull String key) {
+        synchronized (verdicts) {
+            return verdicts.get(key);
+        }
+    }
+
+    /**
+     * Stores verdict of the pull request, checked with the policy at its
+     * current commits.
+     * @param pullRequest pull request
+     * @param policy policy of the check
+     * @param verdict verdict of the pull request
+     */
+    public void put(@Nonnull PullRequest pullRequest, @Nonnull EolCheckPolicy policy,
+            @Nonnull MergeVerdict verdict) {
+        synchronized (verdicts) {
+            verdicts.put(getKey(pullRequest, policy), verdict.getWrongPaths());
+            latest.put(getPullRequestKey(pullRequest, policy), verdict);
+        }
+    }
+
+    /**
+     * Returns the latest verdict of the pull request, checked with the
+     * policy, whichever commits it has been computed at. Used to recheck the
+     * pull request incrementally, after its branches move.
+     * @param pullRequest pull request
+     * @param policy policy of the check
+     * @return the latest verdict or <code>null</code> if the pull request
+     *         has not been checked yet
+     */
+    @Nullable
+    public MergeVerdict getLatest(@Nonnull PullRequest pullRequest,
+            @Nonnull EolCheckPolicy policy) {
+        synchronized (verdicts) {
+            return latest.get(getPullRequestKey(pullRequest, policy));
+        }
+    }
+
+    @Nonnull
+    private static String getKey(@Nonnull PullRequest pullRequest,
+            @Nonnull EolCheckPolicy policy) {
+        return String.valueOf(pullRequest.getToRef().getRepository().getId()) + KEY_SEPARATOR
+                + pullRequest.getFromRef().getLatestCommit() + KEY_SEPARATOR
+                + pullRequest.getToRef().getLatestCommit() + KEY_SEPARATOR
+                + policy.getFingerprint();
+    }
+
+    @Nonnull
+    private static String getPullRequestKey(@Nonnull PullRequest pullRequest,
+            @Nonnull EolCheckPolicy policy) {
+        return String.valueOf(pullRequest.getToRef().getRepository().getId()) + KEY_SEPARATOR
+                + pullRequest.getId() + KEY_SEPARATOR + policy.getFingerprint();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getSize() {
+        synchronized (verdicts) {
+            return verdicts.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns number of the evaluations, which waited for the running
+     * computation of the same verdict.
+     * @return number of the joined computations
+     */
+    public long getJoinCount() {
+        return flights.getJoinCount();
+    }
+
+    /**
+     * Returns share of the lookups, which found the verdict.
+     * @return hit rate from 0 to 1, or 0 if there were no lookups yet
+     */
+    public double getHitRate() {
+        final long hitCount = getHitCount();
+        final long total = hitCount + getMissCount();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "MergeVerdictCache[maxSize=" + maxSize + ", size=" + getSize() + ", hits="
+                + getHitCount() + ", misses=" + getMissCount() + ", joins=" + getJoinCount()
+                + ", hitRate="
+                + String.format(Locale.ROOT, "%.3f", getHitRate()) + "]";
+    }
+
+    /**
+     * Verdict, which computation is started by
+     * {@link MergeVerdictCache#start(PullRequest, EolCheckPolicy)}. It must
+     * be either completed or abandoned.
+     */
+    public final class PendingVerdict {
+        private final PullRequest pullRequest;
+        private final EolCheckPolicy policy;
+        private final SingleFlight<String, Collection<String>>.Flight flight;
+
+        private PendingVerdict(PullRequest pullRequest, EolCheckPolicy policy,
+                SingleFlight<String, Collection<String>>.Flight flight) {
+            this.pullRequest = pullRequest;
+            this.policy = policy;
+            this.flight = flight;
+        }
+
+        /**
+         * Stores the computed verdict and releases the waiting evaluations.
+         * @param verdict verdict of the pull request
+         */
+        public void complete(@Nonnull MergeVerdict verdict) {
+            put(pullRequest, policy, verdict);
+            flight.complete(verdict.getWrongPaths());
+        }
+
+        /**
+         * Releases the waiting evaluations without a verdict, so each of
+         * them computes the verdict by itself. Does nothing, if the verdict
+         * is completed already.
+         */
+        public void abandon() {
+            flight.abandon();
+        }
+    }
+
+}
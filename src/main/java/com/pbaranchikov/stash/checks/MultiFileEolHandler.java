@@ -0,0 +1,334 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.scm.CommandOutputHandler;
+import com.atlassian.utils.process.ProcessException;
+import com.atlassian.utils.process.Watchdog;
+
+/**
+ * Output handler for a diff, covering multiple files at once. <br/>
+ * Handler splits the diff stream into file sections by <code>diff --git</code>
+ * headers and feeds every section into its own single-file EOL handler.
+ * Returns collection of the paths, which sections were reported wrong. <br/>
+ * As soon as the verdicts for all the expected paths are final, handler
+ * cancels the git process through the watchdog, so the rest of the diff is
+ * never read. The rest of a section, which verdict is final, is skipped
+ * without scanning, while the other paths are still to come. Should the
+ * skipped part exceed the limit, the process is canceled as well, so a huge
+ * file is never read to its end, and the diff is to be restarted for
+ * {@link #getRemainingPaths()}. The command throws {@link
+ * com.atlassian.bitbucket.scm.CommandCanceledException} after the
+ * cancellation, which is to be ignored if {@link #isCanceled()} is set.
+ * <br/>
+ * Class is statefull. It is to be used strictly for one and only one output
+ * handling.
+ * @author Pavel Baranchikov
+ */
+class MultiFileEolHandler implements CommandOutputHandler<Collection<String>> {
+
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Default number of bytes of a finished section, which are skipped
+     * before the diff is canceled. Restarting the diff is cheaper, than
+     * reading more.
+     */
+    private static final long DEFAULT_SKIP_LIMIT = 4L * 1024 * 1024;
+    private static final byte[] FILE_HEADER = "diff --git ".getBytes(StandardCharsets.UTF_8);
+    private static final String NEW_PATH_PREFIX = " b/";
+    private static final int OCTAL_RADIX = 8;
+    private static final int OCTAL_DIGITS = 3;
+    private static final NewlineScanner SCANNER = NewlineScanner.getDefault();
+
+    private final Supplier<AbstractEolHandler> handlerCreator;
+    private final Set<String> expectedPaths;
+    private final Collection<String> wrongPaths = new HashSet<>();
+    private final Set<String> unstartedPaths;
+    private final ByteArrayOutputStream headerLine = new ByteArrayOutputStream();
+    private final long skipLimit;
+
+    private AbstractEolHandler currentHandler;
+    private String currentPath;
+    private boolean lineStart = true;
+    private boolean inHeader;
+    private boolean canceled;
+    private long skippedBytes;
+    private Watchdog watchdog;
+
+    /**
+     * Constructs the handler.
+     * @param handlerCreator creator of single-file handlers
+     * @param expectedPaths paths, the diff is requested for. Sections of all
+     *            the other paths are ignored
+     */
+    MultiFileEolHandler(@Nonnull Supplier<AbstractEolHandler> handlerCreator,
+            @Nonnull Set<String> expectedPaths) {
+        this(handlerCreator, expectedPaths, DEFAULT_SKIP_LIMIT);
+    }
+
+    /**
+     * Constructs the handler.
+     * @param handlerCreator creator of single-file handlers
+     * @param expectedPaths paths, the diff is requested for. Sections of all
+     *            the other paths are ignored
+     * @param skipLimit number of bytes of a finished section to skip before
+     *            canceling the diff
+     */
+    MultiFileEolHandler(@Nonnull Supplier<AbstractEolHandler> handlerCreator,
+            @Nonnull Set<String> expectedPaths, long skipLimit) {
+        this.handlerCreator = Objects.requireNonNull(handlerCreator);
+        this.expectedPaths = Objects.requireNonNull(expectedPaths);
+        this.unstartedPaths = new HashSet<>(expectedPaths);
+        this.skipLimit = skipLimit;
+    }
+
+    @Override
+    public void process(InputStream output) throws ProcessException {
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int readCount = output.read(buffer);
+            while (readCount >= 0 && !canceled) {
+                processData(buffer, readCount);
+                readCount = canceled ? -1 : output.read(buffer);
+            }
+            finishSection();
+        } catch (IOException e) {
+            throw new ProcessException("Error reading data from diff file", e);
+        }
+    }
+
+    private void processData(byte[] buffer, int length) {
+        int sectionStart = 0;
+        int position = 0;
+        while (position < length && !canceled) {
+            if (inHeader) {
+                final int lineEnd = indexOfLf(buffer, position, length);
+                if (lineEnd == length) {
+                    headerLine.write(buffer, position, length - position);
+                    return;
+                }
+                headerLine.write(buffer, position, lineEnd + 1 - position);
+                inHeader = false;
+                processHeaderLine();
+                sectionStart = lineEnd + 1;
+                position = sectionStart;
+                lineStart = true;
+            } else if (lineStart && buffer[position] == FILE_HEADER[0]) {
+                // Diff content lines never start with 'd', so this one is
+                // one of the git's descriptive lines
+                forward(buffer, sectionStart, position - sectionStart);
+                inHeader = true;
+                headerLine.reset();
+            } else {
+                final int lineEnd = indexOfLf(buffer, position, length);
+                lineStart = lineEnd < length;
+                position = lineStart ? lineEnd + 1 : length;
+            }
+        }
+        if (!inHeader) {
+            forward(buffer, sectionStart, length - sectionStart);
+        }
+    }
+
+    /**
+     * Returns position of the next LF. Only LF delimits the lines of git
+     * output. CR is a payload here.
+     */
+    private static int indexOfLf(byte[] buffer, int from, int to) {
+        int position = SCANNER.indexOfNewline(buffer, from, to);
+        while (position < to && buffer[position] != Constants.LF) {
+            position = SCANNER.indexOfNewline(buffer, position + 1, to);
+        }
+        return position;
+    }
+
+    private void forward(byte[] buffer, int offset, int length) {
+        if (currentHandler == null || length <= 0 || canceled
+                || currentHandler.processData(buffer, offset, length)) {
+            return;
+        }
+        // Verdict of the section is final, so the rest of it is skipped
+        skippedBytes += length;
+        if (unstartedPaths.isEmpty() || skippedBytes > skipLimit) {
+            canceled = true;
+            if (watchdog != null) {
+                watchdog.cancel();
+            }
+        }
+    }
+
+    private void processHeaderLine() {
+        final byte[] line = headerLine.toByteArray();
+        if (startsWith(line, FILE_HEADER)) {
+            finishSection();
+            final String path = parsePath(line);
+            if (path != null && expectedPaths.contains(path)) {
+                unstartedPaths.remove(path);
+                skippedBytes = 0;
+                currentPath = path;
+                currentHandler = handlerCreator.get();
+            }
+        }
+        forward(line, 0, line.length);
+    }
+
+    private void finishSection() {
+        if (currentHandler != null && !currentHandler.getResult()) {
+            wrongPaths.add(currentPath);
+        }
+        currentHandler = null;
+        currentPath = null;
+    }
+
+    private static boolean startsWith(byte[] line, byte[] prefix) {
+        if (line.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the new path of the file from the <code>diff --git</code>
+     * header line.
+     * @param line header line, including the trailing LF
+     * @return path of the file or <code>null</code> if header could not be
+     *         parsed
+     */
+    @Nullable
+    private static String parsePath(byte[] line) {
+        final int start = FILE_HEADER.length;
+        final int length = line.length - start - 1;
+        if (length <= 0) {
+            return null;
+        }
+        if (line[start] == '"') {
+            return parseQuotedPath(line, start, start + length);
+        }
+        final String paths = new String(line, start, length, StandardCharsets.UTF_8);
+        // Old and new paths are equal unless git detected a rename:
+        // "a/<path> b/<path>"
+        final int pathLength = (paths.length() - NEW_PATH_PREFIX.length() - 2) / 2;
+        final String oldPath = paths.substring(2, 2 + pathLength);
+        final String newPaths = paths.substring(2 + pathLength);
+        if (newPaths.equals(NEW_PATH_PREFIX + oldPath)) {
+            return oldPath;
+        }
+        final int newPathStart = paths.lastIndexOf(NEW_PATH_PREFIX);
+        return newPathStart < 0 ? null : paths.substring(newPathStart
+                + NEW_PATH_PREFIX.length());
+    }
+
+    /**
+     * Parses quoted header of a file with special characters in the path.
+     * Git quotes paths in C-style: <code>"a/&lt;path&gt;" "b/&lt;path&gt;"</code>.
+     */
+    @Nullable
+    private static String parseQuotedPath(byte[] line, int start, int end) {
+        final ByteArrayOutputStream path = new ByteArrayOutputStream();
+        int quotes = 0;
+        boolean quoted = false;
+        int position = start;
+        while (position < end) {
+            final byte nextChar = line[position];
+            if (nextChar == '"') {
+                quoted = !quoted;
+                if (quoted) {
+                    quotes++;
+                    path.reset();
+                }
+            } else if (quoted && nextChar == '\\' && position + 1 < end) {
+                position = unescape(line, position + 1, end, path);
+            } else if (quoted) {
+                path.write(nextChar);
+            }
+            position++;
+        }
+        final String decoded = new String(path.toByteArray(), StandardCharsets.UTF_8);
+        // The second quoted string holds the new path
+        if (quotes != 2 || decoded.length() < 2) {
+            return null;
+        }
+        return decoded.substring(2);
+    }
+
+    private static int unescape(byte[] line, int position, int end, ByteArrayOutputStream out) {
+        final byte escaped = line[position];
+        if (escaped >= '0' && escaped <= '7' && position + OCTAL_DIGITS <= end) {
+            out.write(Integer.parseInt(new String(line, position, OCTAL_DIGITS,
+                    StandardCharsets.US_ASCII), OCTAL_RADIX));
+            return position + OCTAL_DIGITS - 1;
+        }
+        switch (escaped) {
+            case 'n':
+                out.write(Constants.LF);
+                break;
+            case 'r':
+                out.write(Constants.CR);
+                break;
+            case 't':
+                out.write('\t');
+                break;
+            default:
+                out.write(escaped);
+                break;
+        }
+        return position;
+    }
+
+    @Override
+    public void complete() throws ProcessException {
+        finishSection();
+    }
+
+    @Override
+    public void setWatchdog(Watchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Returns whether the git process has been canceled by the handler,
+     * because the verdicts were already known.
+     * @return whether the process has been canceled
+     */
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    @Nonnull
+    public Set<String> getExpectedPaths() {
+        return expectedPaths;
+    }
+
+    /**
+     * Returns the paths, which sections have not been read, because the
+     * process has been canceled in the middle of the diff.
+     * @return paths to restart the diff for
+     */
+    @Nonnull
+    public Set<String> getRemainingPaths() {
+        return canceled ? unstartedPaths : Collections.<String>emptySet();
+    }
+
+    @Override
+    public Collection<String> getOutput() {
+        return wrongPaths;
+    }
+
+}
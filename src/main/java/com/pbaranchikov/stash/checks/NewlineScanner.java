@@ -0,0 +1,109 @@
+package com.pbaranchikov.stash.checks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scanner, looking for the newline (CR or LF) symbols in the diff output.
+ * Scanner to use is selected at runtime by system property
+ * {@value Constants#PROPERTY_SCANNER}.
+ * @author Pavel Baranchikov
+ */
+enum NewlineScanner {
+    /**
+     * Scanner, inspecting the bytes one by one.
+     */
+    SCALAR {
+        @Override
+        int indexOfNewline(byte[] buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                final byte nextChar = buffer[i];
+                if (nextChar == Constants.LF || nextChar == Constants.CR) {
+                    return i;
+                }
+            }
+            return to;
+        }
+    },
+    /**
+     * Scanner, inspecting 8 bytes at once within a <code>long</code> word
+     * (SIMD within a register). Works on any JVM.
+     */
+    SWAR {
+        @Override
+        int indexOfNewline(byte[] buffer, int from, int to) {
+            final ByteBuffer words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+            int position = from;
+            while (position + Long.BYTES <= to) {
+                final long found = findNewlines(words.getLong(position));
+                if (found != 0) {
+                    // The lowest marked byte is the first one in the little-endian word
+                    return position + (Long.numberOfTrailingZeros(found) >>> BYTE_SHIFT);
+                }
+                position += Long.BYTES;
+            }
+            return SCALAR.indexOfNewline(buffer, position, to);
+        }
+    };
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LF_WORD = Constants.LF * ONES;
+    private static final long CR_WORD = Constants.CR * ONES;
+    private static final int BYTE_SHIFT = 3;
+
+    private static final NewlineScanner DEFAULT = select(System
+            .getProperty(Constants.PROPERTY_SCANNER));
+
+    /**
+     * Marks bytes of the word, equal to CR or LF. The lowest marked byte is
+     * always the lowest newline byte of the word, while the higher marks
+     * could be false positives.
+     * @param word 8 bytes to look through
+     * @return word with the high bits set in the newline bytes
+     */
+    private static long findNewlines(long word) {
+        final long lf = word ^ LF_WORD;
+        final long cr = word ^ CR_WORD;
+        return ((lf - ONES) & ~lf | (cr - ONES) & ~cr) & HIGH_BITS;
+    }
+
+    /**
+     * Returns position of the first newline symbol in the buffer.
+     * @param buffer buffer to scan
+     * @param from position to start scanning from, inclusive
+     * @param to position to stop scanning at, exclusive
+     * @return position of the newline symbol or <code>to</code> if there is
+     *         no newline symbol in the range
+     */
+    abstract int indexOfNewline(byte[] buffer, int from, int to);
+
+    /**
+     * Returns the scanner, selected for the current JVM.
+     * @return scanner to use
+     */
+    @Nonnull
+    static NewlineScanner getDefault() {
+        return DEFAULT;
+    }
+
+    @Nonnull
+    private static NewlineScanner select(String name) {
+        if (name == null) {
+            return SWAR;
+        }
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LoggerFactory.getLogger(NewlineScanner.class).warn(
+                    "Unknown newline scanner {}, falling back to {}", name, SWAR);
+            return SWAR;
+        }
+    }
+
+}
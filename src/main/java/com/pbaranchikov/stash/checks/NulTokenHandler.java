@@ -0,0 +1,80 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.scm.CommandOutputHandler;
+import com.atlassian.utils.process.ProcessException;
+import com.atlassian.utils.process.Watchdog;
+
+/**
+ * Output handler for the git commands, run with <code>-z</code>. Splits the
+ * output into NUL-terminated tokens and passes them to
+ * {@link #processToken(String)} one by one. The last token could miss its
+ * terminator.
+ * @param <T> type of the output
+ * @author Pavel Baranchikov
+ */
+abstract class NulTokenHandler<T> implements CommandOutputHandler<T> {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ByteArrayOutputStream token = new ByteArrayOutputStream();
+
+    @Override
+    public void process(InputStream output) throws ProcessException {
+        try {
+            final InputStream input = new BufferedInputStream(output, BUFFER_SIZE);
+            for (String next = readToken(input); next != null; next = readToken(input)) {
+                processToken(next);
+            }
+            processEnd();
+        } catch (IOException e) {
+            throw new ProcessException("Error reading output of git", e);
+        }
+    }
+
+    /**
+     * Processes the next token.
+     * @param next token without the terminating NUL
+     */
+    protected abstract void processToken(@Nonnull String next);
+
+    /**
+     * Processes the end of the output. Does nothing by default.
+     */
+    protected void processEnd() {
+    }
+
+    /**
+     * Reads the next NUL-terminated token.
+     */
+    @Nullable
+    private String readToken(InputStream input) throws IOException {
+        token.reset();
+        int nextChar = input.read();
+        while (nextChar > 0) {
+            token.write(nextChar);
+            nextChar = input.read();
+        }
+        if (nextChar < 0 && token.size() == 0) {
+            return null;
+        }
+        return new String(token.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void complete() throws ProcessException {
+    }
+
+    @Override
+    public void setWatchdog(Watchdog watchdog) {
+    }
+
+}
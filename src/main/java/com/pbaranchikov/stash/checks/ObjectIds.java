@@ -0,0 +1,77 @@
+package com.pbaranchikov.stash.checks;
+
+import javax.annotation.Nullable;
+
+/**
+ * Utility methods to pack hexadecimal git object IDs into primitives. SHA1
+ * object ID (20 bytes) is packed into two <code>long</code> values and one
+ * <code>int</code> value.
+ * @author Pavel Baranchikov
+ */
+final class ObjectIds {
+
+    /**
+     * Length of hexadecimal SHA1 object ID.
+     */
+    static final int HEX_LENGTH = 40;
+
+    private static final int LONG_HEX_LENGTH = 16;
+    private static final int HEX_RADIX = 16;
+    private static final int BITS_PER_DIGIT = 4;
+
+    private ObjectIds() {
+    }
+
+    /**
+     * Returns whether the string is a full hexadecimal SHA1 object ID.
+     * @param id string to check
+     * @return <code>true</code> if string could be packed
+     */
+    static boolean isObjectId(@Nullable String id) {
+        if (id == null || id.length() != HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            if (Character.digit(id.charAt(i), HEX_RADIX) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first 8 bytes of the object ID.
+     * @param id object ID
+     * @return packed bytes
+     */
+    static long getHigh(String id) {
+        return parse(id, 0, LONG_HEX_LENGTH);
+    }
+
+    /**
+     * Returns the second 8 bytes of the object ID.
+     * @param id object ID
+     * @return packed bytes
+     */
+    static long getMiddle(String id) {
+        return parse(id, LONG_HEX_LENGTH, 2 * LONG_HEX_LENGTH);
+    }
+
+    /**
+     * Returns the last 4 bytes of the object ID.
+     * @param id object ID
+     * @return packed bytes
+     */
+    static int getLow(String id) {
+        return (int) parse(id, 2 * LONG_HEX_LENGTH, HEX_LENGTH);
+    }
+
+    private static long parse(String id, int start, int end) {
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            result = (result << BITS_PER_DIGIT) | Character.digit(id.charAt(i), HEX_RADIX);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Matcher of a string against a list of regular expressions at once. <br/>
+ * Expressions, parsed by {@link RegexSubsetParser}, are combined into a
+ * single {@link PatternNfa}, which is run as a lazily built DFA over the
+ * classes of the code points. String is classified in a single pass over its
+ * code points with one table lookup per code point, so matching takes linear
+ * time regardless of the expressions and never backtracks. <br/>
+ * DFA states are built on the first transition to them, so only the states,
+ * actually reached by the paths, are ever built. If their number exceeds the
+ * limit, the NFA is simulated from the last DFA state instead, which is still
+ * linear in the length of the string. <br/>
+ * Expressions, using constructs beyond the supported subset or any flags,
+ * are matched by their {@link Pattern}s one by one. Result always equals to
+ * <code>pattern.matcher(string).matches()</code> for any of the patterns.
+ * <br/>
+ * Class is thread-safe. Transitions table is read without locking: an entry,
+ * which is not visible to the thread yet, is just calculated once again
+ * under the lock.
+ * @author Pavel Baranchikov
+ */
+final class PatternAutomaton {
+
+    private static final int MAX_NFA_STATES = 1 << 16;
+    private static final int MAX_DFA_TRANSITIONS = 1 << 20;
+    private static final int START = 0;
+    /**
+     * Entry of the transition, not calculated yet.
+     */
+    private static final int UNKNOWN = 0;
+    /**
+     * Entry of the transition to the state, no string could be accepted
+     * from.
+     */
+    private static final int DEAD = Integer.MIN_VALUE;
+    /**
+     * Result of the transition to a new state, which could not be built as
+     * the DFA has too many states.
+     */
+    private static final int OVERFLOW = Integer.MAX_VALUE;
+
+    private final PatternNfa nfa;
+    private final Collection<Pattern> fallbackPatterns;
+    private final int classCount;
+    private final int maxStates;
+    private final boolean startAccepting;
+    private final List<BitSet> states = new ArrayList<>();
+    private final Map<BitSet, Integer> stateIds = new HashMap<>();
+    /**
+     * Transitions by state and class. Entry is the target state plus one,
+     * negated for the accepting states.
+     */
+    private volatile int[] transitions;
+
+    private PatternAutomaton(@Nonnull PatternNfa nfa,
+            @Nonnull Collection<Pattern> fallbackPatterns, int maxTransitions) {
+        this.nfa = nfa;
+        this.fallbackPatterns = Collections.unmodifiableCollection(fallbackPatterns);
+        this.classCount = nfa.getClassCount();
+        this.maxStates = Math.max(1, maxTransitions / classCount);
+        this.startAccepting = nfa.getStartStates().get(PatternNfa.MATCH);
+        states.add(nfa.getStartStates());
+        stateIds.put(nfa.getStartStates(), START);
+        this.transitions = new int[classCount];
+    }
+
+    /**
+     * Compiles the patterns into an automaton.
+     * @param patterns patterns to match
+     * @return automaton
+     */
+    @Nonnull
+    static PatternAutomaton compile(@Nonnull Collection<Pattern> patterns) {
+        return compile(patterns, MAX_DFA_TRANSITIONS);
+    }
+
+    /**
+     * Compiles the patterns into an automaton with the specified size of the
+     * DFA.
+     * @param patterns patterns to match
+     * @param maxTransitions maximum number of transitions of the DFA
+     * @return automaton
+     */
+    @Nonnull
+    static PatternAutomaton compile(@Nonnull Collection<Pattern> patterns, int maxTransitions) {
+        final PatternNfa nfa = new PatternNfa(MAX_NFA_STATES);
+        final Collection<Pattern> fallbackPatterns = new ArrayList<>();
+        for (Pattern pattern : patterns) {
+            final RegexNode node = pattern.flags() == 0 ? RegexSubsetParser.parse(pattern
+                    .pattern()) : null;
+            if (node == null || !nfa.add(node)) {
+                fallbackPatterns.add(pattern);
+            }
+        }
+        nfa.freeze();
+        return new PatternAutomaton(nfa, fallbackPatterns, maxTransitions);
+    }
+
+    /**
+     * Returns whether the string matches any of the patterns.
+     * @param input string to match
+     * @return whether the string matches
+     */
+    boolean matches(@Nonnull String input) {
+        if (matchesAutomaton(input)) {
+            return true;
+        }
+        for (Pattern pattern : fallbackPatterns) {
+            if (pattern.matcher(input).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesAutomaton(String input) {
+        int state = START;
+        boolean accepting = startAccepting;
+        int position = 0;
+        while (position < input.length()) {
+            final int codePoint = input.codePointAt(position);
+            final int codePointClass = nfa.classOf(codePoint);
+            final int[] table = transitions;
+            final int index = state * classCount + codePointClass;
+            int entry = index < table.length ? table[index] : UNKNOWN;
+            if (entry == UNKNOWN) {
+                entry = addTransition(state, codePointClass);
+            }
+            if (entry == DEAD) {
+                return false;
+            } else if (entry == OVERFLOW) {
+                return nfa.matches(getStates(state), input, position);
+            }
+            position += Character.charCount(codePoint);
+            accepting = entry < 0;
+            state = Math.abs(entry) - 1;
+        }
+        return accepting;
+    }
+
+    private synchronized BitSet getStates(int state) {
+        return states.get(state);
+    }
+
+    /**
+     * Calculates the transition and builds the target state, if it is a new
+     * one.
+     * @return entry of the transition
+     */
+    private synchronized int addTransition(int state, int codePointClass) {
+        final int index = state * classCount + codePointClass;
+        if (index < transitions.length && transitions[index] != UNKNOWN) {
+            return transitions[index];
+        }
+        final BitSet next = nfa.step(states.get(state), codePointClass);
+        Integer id = stateIds.get(next);
+        if (id == null) {
+            if (states.size() >= maxStates) {
+                return OVERFLOW;
+            }
+            id = states.size();
+            states.add(next);
+            stateIds.put(next, id);
+            if (states.size() * classCount > transitions.length) {
+                transitions = Arrays.copyOf(transitions, Math.min(transitions.length * 2,
+                        maxStates * classCount));
+            }
+        }
+        final int entry;
+        if (next.isEmpty()) {
+            entry = DEAD;
+        } else {
+            entry = next.get(PatternNfa.MATCH) ? -(id + 1) : id + 1;
+        }
+        transitions[index] = entry;
+        return entry;
+    }
+
+    /**
+     * Returns whether all the patterns are compiled into the automaton, so
+     * none of them is matched by {@link Pattern}.
+     * @return whether all the patterns are compiled into the automaton
+     */
+    boolean isFullyCompiled() {
+        return fallbackPatterns.isEmpty();
+    }
+
+}
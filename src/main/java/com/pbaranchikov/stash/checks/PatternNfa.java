@@ -0,0 +1,271 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Thompson NFA, combining several regular expressions. <br/>
+ * States are stored in parallel arrays. State {@value #MATCH} is the only
+ * accepting state, shared by all the expressions. Character states move to
+ * their target by a code point from their set, the rest of the states are
+ * epsilon states with up to two targets. <br/>
+ * Code points are split into classes by the boundaries of all the sets,
+ * used in the expressions, so every character state either matches all the
+ * code points of a class or none of them. Automaton works with the classes
+ * instead of the code points. <br/>
+ * NFA is filled with {@link #add(RegexNode)} and then frozen with
+ * {@link #freeze()}. Frozen NFA is immutable and thread-safe.
+ * @author Pavel Baranchikov
+ */
+final class PatternNfa {
+
+    /**
+     * The accepting state.
+     */
+    static final int MATCH = 0;
+
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int ASCII_SIZE = 128;
+
+    private final int maxStates;
+    private final BitSet starts = new BitSet();
+    private int size = 1;
+    private int[] targets = new int[INITIAL_CAPACITY];
+    private int[] alternatives = new int[INITIAL_CAPACITY];
+    private CharRanges[] chars = new CharRanges[INITIAL_CAPACITY];
+
+    private int[] classStarts;
+    private int[] asciiClasses;
+    private BitSet[] stateClasses;
+    private int[][] targetClosures;
+    private BitSet startStates;
+
+    /**
+     * Constructs empty NFA.
+     * @param maxStates maximum number of states. Expressions, which do not
+     *            fit, are not added
+     */
+    PatternNfa(int maxStates) {
+        this.maxStates = maxStates;
+        targets[MATCH] = NONE;
+        alternatives[MATCH] = NONE;
+    }
+
+    /**
+     * Adds expression to the NFA.
+     * @param node syntax tree of the expression
+     * @return whether expression is added. Expression is not added, if it
+     *         does not fit maximum number of states
+     */
+    boolean add(@Nonnull RegexNode node) {
+        final int mark = size;
+        try {
+            starts.set(compile(node, MATCH));
+            return true;
+        } catch (IllegalStateException e) {
+            size = mark;
+            return false;
+        }
+    }
+
+    /**
+     * Builds states for the node, moving to the specified state after the
+     * node is matched.
+     * @return start state of the node
+     */
+    private int compile(RegexNode node, int out) {
+        final List<RegexNode> children = node.getChildren();
+        switch (node.getKind()) {
+            case CHARS:
+                return newState(node.getChars(), out, NONE);
+            case CONCATENATION:
+                return compileConcatenation(children, out);
+            case ALTERNATION:
+                return compileAlternation(children, out);
+            case OPTIONAL:
+                return newState(null, compile(children.get(0), out), out);
+            case STAR:
+                final int loop = newState(null, NONE, out);
+                targets[loop] = compile(children.get(0), loop);
+                return loop;
+            default:
+                return out;
+        }
+    }
+
+    private int compileConcatenation(List<RegexNode> items, int out) {
+        int next = out;
+        for (int i = items.size() - 1; i >= 0; i--) {
+            next = compile(items.get(i), next);
+        }
+        return next;
+    }
+
+    private int compileAlternation(List<RegexNode> branches, int out) {
+        int first = compile(branches.get(branches.size() - 1), out);
+        for (int i = branches.size() - 2; i >= 0; i--) {
+            first = newState(null, compile(branches.get(i), out), first);
+        }
+        return first;
+    }
+
+    private int newState(CharRanges stateChars, int target, int alternative) {
+        if (size >= maxStates) {
+            throw new IllegalStateException("Too many NFA states: " + size);
+        }
+        if (size == targets.length) {
+            targets = Arrays.copyOf(targets, size * 2);
+            alternatives = Arrays.copyOf(alternatives, size * 2);
+            chars = Arrays.copyOf(chars, size * 2);
+        }
+        chars[size] = stateChars;
+        targets[size] = target;
+        alternatives[size] = alternative;
+        return size++;
+    }
+
+    /**
+     * Calculates classes of the code points. No expressions could be added
+     * after that.
+     */
+    void freeze() {
+        final TreeSet<Integer> boundaries = new TreeSet<>();
+        boundaries.add(0);
+        for (int state = 0; state < size; state++) {
+            if (chars[state] != null) {
+                chars[state].addBoundaries(boundaries);
+            }
+        }
+        classStarts = boundaries.stream().mapToInt(Integer::intValue).toArray();
+        asciiClasses = new int[ASCII_SIZE];
+        for (int codePoint = 0; codePoint < ASCII_SIZE; codePoint++) {
+            asciiClasses[codePoint] = findClass(codePoint);
+        }
+        final Map<CharRanges, BitSet> classesOfChars = new HashMap<>();
+        stateClasses = new BitSet[size];
+        targetClosures = new int[size][];
+        for (int state = 0; state < size; state++) {
+            if (chars[state] != null) {
+                stateClasses[state] = classesOfChars.computeIfAbsent(chars[state],
+                        this::getClasses);
+                final BitSet target = new BitSet();
+                target.set(targets[state]);
+                targetClosures[state] = closure(target).stream().toArray();
+            }
+        }
+        startStates = closure(starts);
+    }
+
+    private BitSet getClasses(CharRanges ranges) {
+        final BitSet classes = new BitSet(classStarts.length);
+        for (int i = 0; i < classStarts.length; i++) {
+            if (ranges.contains(classStarts[i])) {
+                classes.set(i);
+            }
+        }
+        return classes;
+    }
+
+    private int findClass(int codePoint) {
+        final int index = Arrays.binarySearch(classStarts, codePoint);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Returns class of the code point.
+     * @param codePoint code point
+     * @return class of the code point
+     */
+    int classOf(int codePoint) {
+        return codePoint < ASCII_SIZE ? asciiClasses[codePoint] : findClass(codePoint);
+    }
+
+    int getClassCount() {
+        return classStarts.length;
+    }
+
+    /**
+     * Returns set of the states, NFA is in before any input.
+     * @return start states. Only character states and {@link #MATCH} are
+     *         included
+     */
+    @Nonnull
+    BitSet getStartStates() {
+        return startStates;
+    }
+
+    /**
+     * Returns set of the states, NFA moves to from the specified states by a
+     * code point of the class.
+     * @param states current states
+     * @param codePointClass class of the code point
+     * @return next states. Only character states and {@link #MATCH} are
+     *         included
+     */
+    @Nonnull
+    BitSet step(@Nonnull BitSet states, int codePointClass) {
+        final BitSet next = new BitSet();
+        for (int state = states.nextSetBit(0); state >= 0; state = states.nextSetBit(state + 1)) {
+            if (stateClasses[state] != null && stateClasses[state].get(codePointClass)) {
+                for (int target : targetClosures[state]) {
+                    next.set(target);
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns whether NFA, being in the specified states, accepts the rest of
+     * the input.
+     * @param states current states
+     * @param input input to match
+     * @param from position of the rest of the input
+     * @return whether input is accepted
+     */
+    boolean matches(@Nonnull BitSet states, @Nonnull CharSequence input, int from) {
+        BitSet current = states;
+        int position = from;
+        while (position < input.length() && !current.isEmpty()) {
+            final int codePoint = Character.codePointAt(input, position);
+            position += Character.charCount(codePoint);
+            current = step(current, classOf(codePoint));
+        }
+        return current.get(MATCH);
+    }
+
+    private BitSet closure(BitSet seeds) {
+        final BitSet result = new BitSet();
+        final BitSet visited = new BitSet();
+        final Deque<Integer> stack = new ArrayDeque<>();
+        for (int state = seeds.nextSetBit(0); state >= 0; state = seeds.nextSetBit(state + 1)) {
+            stack.push(state);
+        }
+        while (!stack.isEmpty()) {
+            final int state = stack.pop();
+            if (visited.get(state)) {
+                continue;
+            }
+            visited.set(state);
+            if (state == MATCH || chars[state] != null) {
+                result.set(state);
+            } else {
+                stack.push(targets[state]);
+                if (alternatives[state] != NONE) {
+                    stack.push(alternatives[state]);
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,307 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.pull.PullRequest;
+import com.atlassian.bitbucket.pull.PullRequestChangesRequest;
+import com.atlassian.bitbucket.pull.PullRequestService;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.git.command.GitCommandBuilderFactory;
+
+/**
+ * Checker of the pull requests for wrong EOL. Verdicts are cached by
+ * {@link MergeVerdictCache}, so the merge check and the background
+ * precomputation never check the same pull request twice. <br/>
+ * Changes of the pull request are checked since the merge base of its
+ * source and target commits, so the files, changed in the target branch
+ * only, are never checked, and the verdict does not depend on the target
+ * branch, while the merge base stays the same. Then the files, changed in
+ * the source branch since the latest verdict, are the only ones rechecked.
+ * Pull requests with the merge base moved or with git attributes changed in
+ * the source branch are checked in full. <br/>
+ * Pull requests, which changes since the merge base have all been accepted
+ * by the pre-receive hook with the same policy, according to
+ * {@link CommitLedger}, are not checked at all.
+ * @author Pavel Baranchikov
+ */
+public class PullRequestChecker extends EolCheckHook {
+
+    private static final String ATTRIBUTES_FILE = ".gitattributes";
+
+    private final PullRequestService pullRequestService;
+    private final MergeVerdictCache verdictCache;
+    private final RealParentResolver parentResolver;
+    private final CommitLedger commitLedger;
+
+    public PullRequestChecker(@Nonnull GitCommandBuilderFactory builderFactory,
+            @Nonnull PullRequestService pullRequestService,
+            @Nonnull BlobVerdictResolver blobVerdictResolver,
+            @Nonnull SharedVerdictStore sharedVerdictStore, @Nonnull CheckExecutor checkExecutor,
+            @Nonnull GitProcessGovernor governor, @Nonnull EolCheckPolicyCache policyCache,
+            @Nonnull MergeVerdictCache verdictCache,
+            @Nonnull RealParentResolver parentResolver, @Nonnull CommitLedger commitLedger) {
+        super(builderFactory, blobVerdictResolver, sharedVerdictStore, checkExecutor, governor,
+                policyCache);
+        this.pullRequestService = Objects.requireNonNull(pullRequestService);
+        this.verdictCache = Objects.requireNonNull(verdictCache);
+        this.parentResolver = Objects.requireNonNull(parentResolver);
+        this.commitLedger = Objects.requireNonNull(commitLedger);
+    }
+
+    /**
+     * Returns paths with wrong EOL, the pull request would bring into the
+     * target branch.
+     * @param pullRequest pull request to check
+     * @param policy policy of the check
+     * @return sorted paths with wrong EOL
+     */
+    @Nonnull
+    public Collection<String> getWrongPaths(@Nonnull PullRequest pullRequest,
+            @Nonnull EolCheckPolicy policy) {
+        final Collection<String> wrongPaths = verdictCache.get(pullRequest, policy,
+                () -> complete(plan(pullRequest, policy), policy));
+        getLog().debug("{}", verdictCache);
+        return wrongPaths;
+    }
+
+    /**
+     * Returns paths with wrong EOL for every pull request of the batch.
+     * Verdicts of the pull requests are registered as being computed first,
+     * so the concurrent merge checks wait for the batch. Then changes of all
+     * the pull requests are enumerated, and the blobs of all the changes are
+     * read at once, so a blob, changed by multiple pull requests, is only
+     * read once. Then every pull request is checked with the blob styles
+     * ready.
+     * @param pullRequests pull requests to the same target repository
+     * @param policy policy of the check
+     * @return sorted paths with wrong EOL by pull requests
+     */
+    @Nonnull
+    public Map<PullRequest, Collection<String>> getWrongPaths(
+            @Nonnull Collection<PullRequest> pullRequests, @Nonnull EolCheckPolicy policy) {
+        final Map<PullRequest, Collection<String>> wrongPaths = new LinkedHashMap<>();
+        final Map<PullRequest, MergeVerdictCache.PendingVerdict> pending = new LinkedHashMap<>();
+        try {
+            for (PullRequest pullRequest : pullRequests) {
+                final MergeVerdictCache.PendingVerdict verdict = verdictCache.start(
+                        pullRequest, policy);
+                if (verdict != null) {
+                    pending.put(pullRequest, verdict);
+                }
+            }
+            for (Plan plan : planAll(pending.keySet(), policy)) {
+                final MergeVerdict verdict = complete(plan, policy);
+                pending.remove(plan.getPullRequest()).complete(verdict);
+                wrongPaths.put(plan.getPullRequest(), verdict.getWrongPaths());
+            }
+        } finally {
+            pending.values().forEach(MergeVerdictCache.PendingVerdict::abandon);
+        }
+        for (PullRequest pullRequest : pullRequests) {
+            wrongPaths.computeIfAbsent(pullRequest, key -> getWrongPaths(key, policy));
+        }
+        getLog().debug("{}", verdictCache);
+        return wrongPaths;
+    }
+
+    /**
+     * Plans the checks of the pull requests and reads the blobs of all their
+     * changes at once.
+     */
+    @Nonnull
+    private Collection<Plan> planAll(Collection<PullRequest> pullRequests,
+            EolCheckPolicy policy) {
+        final Collection<Plan> plans = new ArrayList<>();
+        final Collection<ChangedFile> changes = new ArrayList<>();
+        for (PullRequest pullRequest : pullRequests) {
+            final Plan plan = plan(pullRequest, policy);
+            plans.add(plan);
+            changes.addAll(plan.getChanges());
+        }
+        if (!changes.isEmpty()) {
+            getLog().debug("Reading blobs of {} changes of {} pull requests", changes.size(),
+                    plans.size());
+            prefetchBlobStyles(changes, plans.iterator().next().getPullRequest().getToRef()
+                    .getRepository(), policy);
+        }
+        return plans;
+    }
+
+    /**
+     * Plans the check of the pull request: finds out, which files are to be
+     * checked since which commit. Only changes are enumerated, no file is
+     * checked yet.
+     */
+    @Nonnull
+    private Plan plan(PullRequest pullRequest, EolCheckPolicy policy) {
+        final Repository repo = pullRequest.getToRef().getRepository();
+        final String from = pullRequest.getFromRef().getLatestCommit();
+        final String mergeBase = parentResolver.getMergeBase(repo, pullRequest.getToRef()
+                .getLatestCommit(), from);
+        if (mergeBase == null) {
+            return new Plan(pullRequest, null, pullRequest.getToRef().getLatestCommit(),
+                    getChangesAgainstTarget(pullRequest, policy), null);
+        }
+        if (commitLedger.isAccepted(repo, mergeBase, from, policy)) {
+            getLog().debug("Pull request {} is accepted by the pre-receive hook: {}",
+                    pullRequest.getId(), commitLedger);
+            return new Plan(pullRequest, mergeBase, mergeBase, Collections.emptyList(), null);
+        }
+        final MergeVerdict previous = verdictCache.getLatest(pullRequest, policy);
+        if (previous != null && mergeBase.equals(previous.getMergeBase())) {
+            final Plan recheck = planRecheck(pullRequest, mergeBase, previous, policy);
+            if (recheck != null) {
+                return recheck;
+            }
+        }
+        return new Plan(pullRequest, mergeBase, mergeBase, getChangedFilesPruned(repo,
+                mergeBase, from, policy), null);
+    }
+
+    /**
+     * Plans the recheck of the files, changed in the source branch since the
+     * previous verdict.
+     * @return plan or <code>null</code> if git attributes have changed, so
+     *         verdicts of the other files could change as well
+     */
+    @Nullable
+    private Plan planRecheck(PullRequest pullRequest, String mergeBase, MergeVerdict previous,
+            EolCheckPolicy policy) {
+        final String from = pullRequest.getFromRef().getLatestCommit();
+        if (previous.getFromCommit().equals(from)) {
+            return new Plan(pullRequest, mergeBase, mergeBase, Collections.emptyList(),
+                    previous);
+        }
+        // Excluded files are enumerated as well, as their attributes apply
+        // to the other files
+        final Collection<ChangedFile> sourceChanges = getAllChangedFiles(pullRequest
+                .getToRef().getRepository(), previous.getFromCommit(), from);
+        if (sourceChanges.stream().anyMatch(change -> isAttributesFile(change.getPath()))) {
+            getLog().debug("Git attributes of pull request {} changed since {}",
+                    pullRequest.getId(), previous.getFromCommit());
+            return null;
+        }
+        // Files are to be checked against the merge base, not against the
+        // previous source commit
+        final Collection<ChangedFile> changes = sourceChanges.stream().filter(
+                change -> !policy.isExcluded(change.getPath())).map(
+                change -> new ChangedFile(change.getPath(), null, change.getNewId())).collect(
+                Collectors.toList());
+        getLog().debug("Rechecking {} files of pull request {} changed since {}",
+                changes.size(), pullRequest.getId(), previous.getFromCommit());
+        return new Plan(pullRequest, mergeBase, mergeBase, changes, previous);
+    }
+
+    private static boolean isAttributesFile(String path) {
+        return path.equals(ATTRIBUTES_FILE) || path.endsWith('/' + ATTRIBUTES_FILE);
+    }
+
+    /**
+     * Checks the planned files. If the plan is a recheck, verdicts of the
+     * other files are taken from the previous verdict, as neither the merge
+     * base nor the files have changed.
+     */
+    @Nonnull
+    private MergeVerdict complete(Plan plan, EolCheckPolicy policy) {
+        final PullRequest pullRequest = plan.getPullRequest();
+        final Repository repo = pullRequest.getToRef().getRepository();
+        final String from = pullRequest.getFromRef().getLatestCommit();
+        final Collection<String> wrongPaths;
+        if (plan.getChanges().isEmpty()) {
+            wrongPaths = plan.getPrevious() == null ? Collections.emptyList() : plan
+                    .getPrevious().getWrongPaths();
+        } else if (plan.getPrevious() == null) {
+            wrongPaths = checkForWrongEol(plan.getChanges(), repo, plan.getSince(), from,
+                    policy);
+        } else {
+            wrongPaths = new TreeSet<>(plan.getPrevious().getWrongPaths());
+            plan.getChanges().forEach(change -> wrongPaths.remove(change.getPath()));
+            wrongPaths.addAll(checkFilesForWrongEol(plan.getChanges(), repo, plan.getSince(),
+                    from, policy));
+        }
+        return new MergeVerdict(from, pullRequest.getToRef().getLatestCommit(),
+                plan.getMergeBase(), wrongPaths);
+    }
+
+    /**
+     * Returns changes of the pull request, which source and target commits
+     * have no common history, to be checked against the target commit.
+     */
+    @Nonnull
+    private Collection<ChangedFile> getChangesAgainstTarget(PullRequest pullRequest,
+            EolCheckPolicy policy) {
+        final PullRequestChangesRequest request =
+                new PullRequestChangesRequest.Builder(pullRequest).build();
+        final ChangesPathsCollector pathsCallback = new ChangesPathsCollector(false);
+        pullRequestService.streamChanges(request, pathsCallback);
+        filterFiles(pathsCallback.getChangedPaths(), policy);
+        return pathsCallback.getChangedFiles();
+    }
+
+    /**
+     * Planned check of the pull request.
+     */
+    private static final class Plan {
+        private final PullRequest pullRequest;
+        private final String mergeBase;
+        private final String since;
+        private final Collection<ChangedFile> changes;
+        private final MergeVerdict previous;
+
+        Plan(@Nonnull PullRequest pullRequest, @Nullable String mergeBase,
+                @Nonnull String since, @Nonnull Collection<ChangedFile> changes,
+                @Nullable MergeVerdict previous) {
+            this.pullRequest = pullRequest;
+            this.mergeBase = mergeBase;
+            this.since = since;
+            this.changes = changes;
+            this.previous = previous;
+        }
+
+        @Nonnull
+        public PullRequest getPullRequest() {
+            return pullRequest;
+        }
+
+        @Nullable
+        public String getMergeBase() {
+            return mergeBase;
+        }
+
+        /**
+         * Returns commit, the changes are to be checked since.
+         * @return commit to check since
+         */
+        @Nonnull
+        public String getSince() {
+            return since;
+        }
+
+        @Nonnull
+        public Collection<ChangedFile> getChanges() {
+            return changes;
+        }
+
+        /**
+         * Returns verdict, which is to be updated with the verdicts of the
+         * changes.
+         * @return previous verdict or <code>null</code> if the changes are
+         *         all the changes of the pull request
+         */
+        @Nullable
+        public MergeVerdict getPrevious() {
+            return previous;
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.atlassian.bitbucket.event.pull.PullRequestOpenedEvent;
+import com.atlassian.bitbucket.event.pull.PullRequestRescopedEvent;
+import com.atlassian.bitbucket.hook.repository.GetRepositoryHookSettingsRequest;
+import com.atlassian.bitbucket.hook.repository.RepositoryHook;
+import com.atlassian.bitbucket.hook.repository.RepositoryHookService;
+import com.atlassian.bitbucket.hook.repository.RepositoryHookSettings;
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.pull.PullRequest;
+import com.atlassian.bitbucket.scope.Scope;
+import com.atlassian.bitbucket.scope.Scopes;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+
+/**
+ * Listener, precomputing merge check verdicts of the pull requests in
+ * background, as soon as they are opened or rescoped. Merge check, evaluated
+ * afterwards, finds the verdict ready or waits for its computation. <br/>
+ * Verdicts are only precomputed for the repositories with the merge check
+ * enabled. Number of the background threads is set by system property
+ * {@value Constants#PROPERTY_PRECOMPUTE_THREADS}, <code>0</code> disables
+ * precomputation. When the queue is full, pull requests are left to the
+ * merge check. <br/>
+ * Events of the pull requests to the same target branch are gathered for a
+ * short window, set by system property
+ * {@value Constants#PROPERTY_PRECOMPUTE_WINDOW}, and the pull requests are
+ * checked in a single batch, so the blobs, changed by many of them, are only
+ * read once. Moving a busy target branch rescopes many pull requests at
+ * once.
+ * @author Pavel Baranchikov
+ */
+public class PullRequestEventListener implements InitializingBean, DisposableBean {
+
+    private static final int DEFAULT_THREADS = 2;
+    private static final int QUEUE_SIZE = 64;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final long DEFAULT_WINDOW = 200;
+    private static final char KEY_SEPARATOR = ':';
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final EventPublisher eventPublisher;
+    private final RepositoryHookService repositoryHookService;
+    private final SecurityService securityService;
+    private final EolCheckPolicyCache policyCache;
+    private final PullRequestChecker pullRequestChecker;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService scheduler;
+    private final long window;
+    private final ConcurrentMap<String, Map<Long, PullRequest>> batches =
+            new ConcurrentHashMap<>();
+
+    public PullRequestEventListener(@Nonnull EventPublisher eventPublisher,
+            @Nonnull RepositoryHookService repositoryHookService,
+            @Nonnull SecurityService securityService, @Nonnull EolCheckPolicyCache policyCache,
+            @Nonnull PullRequestChecker pullRequestChecker) {
+        this.eventPublisher = Objects.requireNonNull(eventPublisher);
+        this.repositoryHookService = Objects.requireNonNull(repositoryHookService);
+        this.securityService = Objects.requireNonNull(securityService);
+        this.policyCache = Objects.requireNonNull(policyCache);
+        this.pullRequestChecker = Objects.requireNonNull(pullRequestChecker);
+        final int threads = Integer.getInteger(Constants.PROPERTY_PRECOMPUTE_THREADS,
+                DEFAULT_THREADS);
+        this.window = Math.max(0, Long.getLong(Constants.PROPERTY_PRECOMPUTE_WINDOW,
+                DEFAULT_WINDOW));
+        if (threads > 0) {
+            final ThreadFactory threadFactory = new PrecomputeThreadFactory();
+            this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), threadFactory);
+            this.executor.allowCoreThreadTimeOut(true);
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        } else {
+            this.executor = null;
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Precomputes verdict of the opened pull request.
+     * @param event pull request opened event
+     */
+    @EventListener
+    public void onOpened(@Nonnull PullRequestOpenedEvent event) {
+        precompute(event.getPullRequest());
+    }
+
+    /**
+     * Precomputes verdict of the pull request, which source or target branch
+     * has moved.
+     * @param event pull request rescoped event
+     */
+    @EventListener
+    public void onRescoped(@Nonnull PullRequestRescopedEvent event) {
+        precompute(event.getPullRequest());
+    }
+
+    /**
+     * Adds the pull request to the batch of its target branch. The first
+     * pull request of the batch schedules the batch to be checked after the
+     * window.
+     */
+    private void precompute(@Nonnull PullRequest pullRequest) {
+        if (executor == null || !pullRequest.isOpen()) {
+            return;
+        }
+        final String key = String.valueOf(pullRequest.getToRef().getRepository().getId())
+                + KEY_SEPARATOR + pullRequest.getToRef().getId();
+        final AtomicBoolean created = new AtomicBoolean();
+        batches.compute(key, (batchKey, batch) -> {
+            final Map<Long, PullRequest> pullRequests = batch == null ? new LinkedHashMap<>()
+                    : batch;
+            created.set(batch == null);
+            // The latest event holds the latest commits of the pull request
+            pullRequests.put(pullRequest.getId(), pullRequest);
+            return pullRequests;
+        });
+        if (created.get()) {
+            try {
+                scheduler.schedule(() -> submit(key), window, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                batches.remove(key);
+            }
+        }
+    }
+
+    private void submit(@Nonnull String key) {
+        final Map<Long, PullRequest> batch = batches.remove(key);
+        try {
+            executor.execute(() -> {
+                try {
+                    securityService.withPermission(Permission.REPO_ADMIN,
+                            "Precomputing EOL verdicts of the pull requests").call(
+                            () -> check(batch.values()));
+                } catch (RuntimeException e) {
+                    log.warn("Error precomputing EOL verdicts of pull requests "
+                            + batch.keySet(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Precomputation queue is full, pull requests {} are skipped",
+                    batch.keySet());
+        }
+    }
+
+    @Nullable
+    private Void check(@Nonnull Collection<PullRequest> pullRequests) {
+        final Settings settings = getMergeCheckSettings(Scopes.repository(pullRequests
+                .iterator().next().getToRef().getRepository()));
+        if (settings != null) {
+            pullRequestChecker.getWrongPaths(pullRequests, policyCache.getPolicy(settings));
+            log.debug("EOL verdicts of {} pull requests are precomputed",
+                    pullRequests.size());
+        }
+        return null;
+    }
+
+    /**
+     * Returns settings of the merge check, effective in the scope.
+     * @return settings or <code>null</code> if the merge check is not
+     *         enabled
+     */
+    @Nullable
+    private Settings getMergeCheckSettings(@Nonnull Scope scope) {
+        final RepositoryHook mergeCheck = repositoryHookService.getByKey(scope,
+                Constants.MERGE_CHECK_KEY);
+        if (mergeCheck == null || !mergeCheck.isEnabled()) {
+            return null;
+        }
+        final RepositoryHookSettings settings = repositoryHookService.getSettings(
+                new GetRepositoryHookSettingsRequest.Builder(scope, Constants.MERGE_CHECK_KEY)
+                        .build());
+        return settings == null ? null : settings.getSettings();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() {
+        eventPublisher.unregister(this);
+        if (executor != null) {
+            scheduler.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Factory of daemon precomputation threads.
+     */
+    private static final class PrecomputeThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "eol-check-precompute-"
+                    + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
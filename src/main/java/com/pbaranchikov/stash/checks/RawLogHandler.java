@@ -0,0 +1,158 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Output handler for <code>git log --raw -c -z --format=%H</code> and
+ * <code>git diff-tree --raw -z</code>. Streams the changed files of every
+ * commit into the consumer by batches of the limited size, so memory
+ * consumption does not depend on the length of the history. <br/>
+ * Batch maps revision keys to the files, changed against the parent of the
+ * key. Key of an ordinary commit is its ID. Combined records of a merge
+ * commit are split into the changes against every parent, which are keyed
+ * by <code>&lt;merge ID&gt;^&lt;parent number&gt;</code>, so the changes of
+ * a file against all the parents always come in the same batch. Changes of
+ * submodules are skipped. Returns number of the commits read.
+ * @author Pavel Baranchikov
+ */
+class RawLogHandler extends NulTokenHandler<Long> {
+
+    private static final String SUBMODULE_MODE = "160000";
+    private static final char RAW_PREFIX = ':';
+    private static final char PARENT_SEPARATOR = '^';
+    private static final String LF = "\n";
+    /**
+     * Number of the fields of a raw record besides the modes and the IDs of
+     * the parents: the new mode, the new ID and the status.
+     */
+    private static final int OWN_FIELDS = 3;
+
+    private final Consumer<Map<String, List<ChangedFile>>> batchConsumer;
+    private final int batchSize;
+
+    private Map<String, List<ChangedFile>> batch = new LinkedHashMap<>();
+    private int batchFiles;
+    private long commitCount;
+    private String commitId;
+    private String[] rawFields;
+    private int rawParents;
+
+    /**
+     * Constructs the handler.
+     * @param batchConsumer consumer of the changed files batches
+     * @param batchSize maximum number of the changed files in a batch
+     */
+    RawLogHandler(@Nonnull Consumer<Map<String, List<ChangedFile>>> batchConsumer,
+            int batchSize) {
+        this(batchConsumer, batchSize, null);
+    }
+
+    /**
+     * Constructs the handler for the output of <code>git diff-tree --raw
+     * -z</code> of two commits, which has no commit IDs.
+     * @param batchConsumer consumer of the changed files batches
+     * @param batchSize maximum number of the changed files in a batch
+     * @param commitId commit ID, all the changes are attributed to
+     */
+    RawLogHandler(@Nonnull Consumer<Map<String, List<ChangedFile>>> batchConsumer,
+            int batchSize, @Nullable String commitId) {
+        this.batchConsumer = Objects.requireNonNull(batchConsumer);
+        this.batchSize = batchSize;
+        this.commitId = commitId;
+    }
+
+    @Override
+    protected void processToken(@Nonnull String next) {
+        if (rawFields != null) {
+            // Path, following the raw change record
+            addChange(rawFields, next);
+            rawFields = null;
+            return;
+        }
+        // Commit ID is separated from its raw change records by LF
+        final String value = next.startsWith(LF) ? next.substring(1) : next;
+        if (!value.isEmpty() && value.charAt(0) == RAW_PREFIX) {
+            // ":<old mode> <new mode> <old id> <new id> <status>", merges
+            // have a colon, a mode and an ID for every parent
+            rawParents = 0;
+            while (rawParents < value.length() && value.charAt(rawParents) == RAW_PREFIX) {
+                rawParents++;
+            }
+            rawFields = value.substring(rawParents).split(" ");
+        } else if (!value.isEmpty()) {
+            commitId = value;
+            commitCount++;
+        }
+    }
+
+    private void addChange(String[] fields, String path) {
+        if (commitId == null || fields.length != rawParents * 2 + OWN_FIELDS) {
+            return;
+        }
+        for (int i = 0; i <= rawParents; i++) {
+            if (SUBMODULE_MODE.equals(fields[i])) {
+                return;
+            }
+        }
+        final String newId = fields[rawParents * 2 + 1];
+        for (int i = 0; i < rawParents; i++) {
+            final String key = rawParents == 1 ? commitId : commitId + PARENT_SEPARATOR
+                    + (i + 1);
+            batch.computeIfAbsent(key, id -> new ArrayList<>()).add(
+                    new ChangedFile(path, fields[rawParents + 1 + i], newId));
+        }
+        batchFiles += rawParents;
+        if (batchFiles >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns ID of the commit, the changes of the batch key belong to.
+     * @param key key of the batch
+     * @return commit ID
+     */
+    @Nonnull
+    static String getCommit(@Nonnull String key) {
+        final int separator = key.indexOf(PARENT_SEPARATOR);
+        return separator < 0 ? key : key.substring(0, separator);
+    }
+
+    /**
+     * Returns revision of the parent, the changes of the batch key are made
+     * against.
+     * @param key key of the batch
+     * @return parent revision
+     */
+    @Nonnull
+    static String getParent(@Nonnull String key) {
+        return key.indexOf(PARENT_SEPARATOR) < 0 ? key + PARENT_SEPARATOR : key;
+    }
+
+    @Override
+    protected void processEnd() {
+        flush();
+    }
+
+    private void flush() {
+        if (!batch.isEmpty()) {
+            batchConsumer.accept(batch);
+            batch = new LinkedHashMap<>();
+            batchFiles = 0;
+        }
+    }
+
+    @Override
+    public Long getOutput() {
+        return commitCount;
+    }
+
+}
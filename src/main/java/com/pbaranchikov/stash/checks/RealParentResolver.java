@@ -4,20 +4,19 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import javax.annotation.Nullable;
 
-import com.atlassian.bitbucket.commit.Commit;
-import com.atlassian.bitbucket.commit.CommitRequest;
-import com.atlassian.bitbucket.commit.CommitService;
 import com.atlassian.bitbucket.io.LineReader;
 import com.atlassian.bitbucket.io.LineReaderOutputHandler;
 import com.atlassian.bitbucket.repository.RefChange;
 import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.CommandFailedException;
 import com.atlassian.bitbucket.scm.CommandOutputHandler;
 import com.atlassian.bitbucket.scm.git.command.GitCommandBuilderFactory;
-import com.atlassian.bitbucket.scm.git.command.merge.GitMergeBaseBuilder;
 
 /**
  * Helper class to resolve the real parent of the commit. Real parent is a
@@ -26,68 +25,96 @@ import com.atlassian.bitbucket.scm.git.command.merge.GitMergeBaseBuilder;
  * @author Pavel Baranchikov
  */
 public class RealParentResolver {
+    private static final String BOUNDARY_PREFIX = "-";
+    private static final int DEFAULT_MERGE_BASES = 4096;
+    private static final char KEY_SEPARATOR = ':';
+
     private final GitCommandBuilderFactory builderFactory;
-    private final CommitService commitService;
+    private final GitProcessGovernor governor;
+    private final Map<String, String> mergeBases;
 
-    public RealParentResolver(GitCommandBuilderFactory builderFactory, CommitService commitService) {
+    public RealParentResolver(GitCommandBuilderFactory builderFactory,
+            GitProcessGovernor governor) {
         this.builderFactory = builderFactory;
-        this.commitService = commitService;
+        this.governor = governor;
+        final int maxMergeBases = Math.max(0, Integer.getInteger(
+                Constants.PROPERTY_MERGE_CACHE_SIZE, DEFAULT_MERGE_BASES));
+        this.mergeBases = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, String> eldest) {
+                return size() > maxMergeBases;
+            }
+        };
     }
 
     /**
      * Returns real parent for the specified commit.Real parent is a commit,
      * which is the nearest parent to the specified commit and already resides
-     * in the repository.
+     * in the repository. <br/>
+     * Existing commits are the ones reachable from any ref of the
+     * repository. A single <code>git rev-list --boundary</code> finds the
+     * new commits together with their existing parents, the newest of which
+     * is the real parent.
      * @param repository repository to search parent into
      * @param refChange commit to search existing parent for
-     * @return nearest existing parent commit SHA1
+     * @return nearest existing parent commit SHA1 or <code>null</code> if all
+     *         the history of the commit is new
      */
     @Nullable
     public String getRealParent(Repository repository, RefChange refChange) {
         if (!refChange.getFromHash().equals(Constants.NON_ID)) {
             return refChange.getFromHash();
         }
-        final Collection<String> branches = getNearestBranches(repository, refChange);
-        if (branches.isEmpty()) {
-            return null;
+        final BoundaryReader boundary = new BoundaryReader();
+        governor.call(repository, builderFactory.builder(repository).command("rev-list")
+                .argument("--boundary").argument(refChange.getToHash()).argument("--not")
+                .argument("--all").build(boundary));
+        if (!boundary.isNewCommitsFound()) {
+            // The commit itself is already reachable from an existing ref
+            return refChange.getToHash();
         }
-        final Commit branch = getCommitById(repository, branches.iterator().next());
-        final Commit newChangeset = getCommitById(repository, refChange.getToHash());
-        if (branch.equals(newChangeset)) {
-            return branch.getId();
-        }
-
-        final GitMergeBaseBuilder builder = builderFactory.builder(repository).mergeBase()
-                .between(branch.getId(), newChangeset.getId());
-        final String sha = builder.build(new FirstLineOutputHandler()).call();
-        return sha;
-    }
-
-    private Commit getCommitById(Repository repository, String commitId) {
-        final CommitRequest.Builder builder = new CommitRequest.Builder(repository, commitId);
-        final CommitRequest request = builder.build();
-        return commitService.getCommit(request);
+        final Collection<String> parents = boundary.getOutput();
+        return parents.isEmpty() ? null : parents.iterator().next();
     }
 
     /**
-     * Return branches, that have the latest common commit with the specified
-     * head.
-     * @param repository repository to look at
-     * @param refChange head to look branches
-     * @return collection of branch names
+     * Returns the best common ancestor of the commits. Commits never change,
+     * so merge bases are cached per pair of commits and the same pair costs
+     * a single <code>git merge-base</code>.
+     * @param repository repository to look commits up in
+     * @param commit1 the first commit
+     * @param commit2 the second commit
+     * @return merge base SHA1 or <code>null</code> if the commits have no
+     *         common history
      */
-    private Collection<String> getNearestBranches(Repository repository, RefChange refChange) {
-        final Collection<String> revlist = builderFactory.builder(repository).revList()
-                .rev(refChange.getToHash()).build(new MultilineReader()).call();
-        for (String revision : revlist) {
-            final Collection<String> branches = builderFactory.builder(repository)
-                    .command("branch").argument("--contains").argument(revision)
-                    .build(new BranchReader()).call();
-            if (!branches.isEmpty()) {
-                return branches;
+    @Nullable
+    public String getMergeBase(Repository repository, String commit1, String commit2) {
+        final String key = String.valueOf(repository.getId()) + KEY_SEPARATOR + commit1
+                + KEY_SEPARATOR + commit2;
+        synchronized (mergeBases) {
+            final String cached = mergeBases.get(key);
+            if (cached != null) {
+                return cached;
             }
         }
-        return Collections.emptyList();
+        final MultilineReader reader = new MultilineReader();
+        try {
+            governor.call(repository, builderFactory.builder(repository).command("merge-base")
+                    .argument(commit1).argument(commit2).build(reader));
+        } catch (CommandFailedException e) {
+            // git merge-base exits with 1 when there is no common ancestor
+            return null;
+        }
+        if (reader.getOutput().isEmpty()) {
+            return null;
+        }
+        final String mergeBase = reader.getOutput().iterator().next();
+        synchronized (mergeBases) {
+            mergeBases.put(key, mergeBase);
+        }
+        return mergeBase;
     }
 
     /**
@@ -125,13 +152,23 @@ public class RealParentResolver {
     }
 
     /**
-     * Callback to read branch names. Branch listing has 2 chars prefix left to
-     * the branch name.
+     * Callback to read the output of <code>git rev-list --boundary</code>.
+     * Collects the first boundary commit only, as it is the newest one.
      */
-    private static class BranchReader extends MultilineReader {
+    private static class BoundaryReader extends MultilineReader {
+        private boolean newCommitsFound;
+
         @Override
         protected void saveLine(String line) {
-            super.saveLine(line.substring(2));
+            if (!line.startsWith(BOUNDARY_PREFIX)) {
+                newCommitsFound = true;
+            } else if (getOutput().isEmpty()) {
+                super.saveLine(line.substring(BOUNDARY_PREFIX.length()));
+            }
+        }
+
+        public boolean isNewCommitsFound() {
+            return newCommitsFound;
         }
     }
 
@@ -0,0 +1,159 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Node of the syntax tree of a regular expression, parsed by
+ * {@link RegexSubsetParser}. Only the constructs, affecting the result of a
+ * whole-input match, are represented: capturing groups, anchors and
+ * reluctant quantifiers are dropped by the parser.
+ * @author Pavel Baranchikov
+ */
+final class RegexNode {
+
+    /**
+     * Node, matching the empty string only.
+     */
+    static final RegexNode EMPTY = new RegexNode(Kind.EMPTY, null,
+            Collections.<RegexNode> emptyList());
+
+    private final Kind kind;
+    private final CharRanges chars;
+    private final List<RegexNode> children;
+
+    private RegexNode(@Nonnull Kind kind, @Nullable CharRanges chars,
+            @Nonnull List<RegexNode> children) {
+        this.kind = kind;
+        this.chars = chars;
+        this.children = children;
+    }
+
+    /**
+     * Returns node, matching a single code point from the set.
+     * @param chars set of the code points
+     * @return node
+     */
+    @Nonnull
+    static RegexNode chars(@Nonnull CharRanges chars) {
+        return new RegexNode(Kind.CHARS, Objects.requireNonNull(chars),
+                Collections.<RegexNode> emptyList());
+    }
+
+    /**
+     * Returns node, matching the nodes one after another.
+     * @param items nodes to match
+     * @return node
+     */
+    @Nonnull
+    static RegexNode concatenation(@Nonnull List<RegexNode> items) {
+        if (items.isEmpty()) {
+            return EMPTY;
+        }
+        return items.size() == 1 ? items.get(0) : new RegexNode(Kind.CONCATENATION, null,
+                Collections.unmodifiableList(items));
+    }
+
+    /**
+     * Returns node, matching any of the nodes.
+     * @param branches nodes to match
+     * @return node
+     */
+    @Nonnull
+    static RegexNode alternation(@Nonnull List<RegexNode> branches) {
+        return branches.size() == 1 ? branches.get(0) : new RegexNode(Kind.ALTERNATION, null,
+                Collections.unmodifiableList(branches));
+    }
+
+    /**
+     * Returns node, matching the node zero or more times.
+     * @param node node to repeat
+     * @return node
+     */
+    @Nonnull
+    static RegexNode star(@Nonnull RegexNode node) {
+        return new RegexNode(Kind.STAR, null, Collections.singletonList(node));
+    }
+
+    /**
+     * Returns node, matching the node zero or one time.
+     * @param node node to match optionally
+     * @return node
+     */
+    @Nonnull
+    static RegexNode optional(@Nonnull RegexNode node) {
+        return new RegexNode(Kind.OPTIONAL, null, Collections.singletonList(node));
+    }
+
+    /**
+     * Returns node, matching the node from <code>min</code> to
+     * <code>max</code> times.
+     * @param node node to repeat
+     * @param min minimum number of repetitions
+     * @param max maximum number of repetitions or <code>-1</code> for no
+     *            limit
+     * @return node
+     */
+    @Nonnull
+    static RegexNode repeat(@Nonnull RegexNode node, int min, int max) {
+        final RegexNode[] items = new RegexNode[max < 0 ? min + 1 : max];
+        Arrays.fill(items, 0, min, node);
+        if (max < 0) {
+            items[min] = star(node);
+        } else {
+            Arrays.fill(items, min, max, optional(node));
+        }
+        return concatenation(Arrays.asList(items));
+    }
+
+    @Nonnull
+    Kind getKind() {
+        return kind;
+    }
+
+    @Nullable
+    CharRanges getChars() {
+        return chars;
+    }
+
+    @Nonnull
+    List<RegexNode> getChildren() {
+        return children;
+    }
+
+    /**
+     * Kind of the node.
+     */
+    enum Kind {
+        /**
+         * Empty string.
+         */
+        EMPTY,
+        /**
+         * Single code point from the set.
+         */
+        CHARS,
+        /**
+         * Child nodes one after another.
+         */
+        CONCATENATION,
+        /**
+         * Any of the child nodes.
+         */
+        ALTERNATION,
+        /**
+         * The only child node zero or more times.
+         */
+        STAR,
+        /**
+         * The only child node zero or one time.
+         */
+        OPTIONAL,
+    }
+
+}
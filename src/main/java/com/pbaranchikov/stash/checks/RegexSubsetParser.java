@@ -0,0 +1,269 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Parser of the subset of {@link java.util.regex.Pattern} syntax, which
+ * could be matched by a finite automaton. <br/>
+ * Supported are literals, <code>.</code>, character classes with ranges and
+ * negation, escapes <code>\t \n \r \f \a \e \d \D \w \W \s \S</code> and
+ * escaped non-alphanumeric characters, capturing and non-capturing groups,
+ * alternation, greedy and reluctant quantifiers <code>* + ? {n} {n,}
+ * {n,m}</code>, <code>^</code> at the very beginning and <code>$</code> at
+ * the very end of the expression. <br/>
+ * Anything else (back references, lookarounds, possessive quantifiers,
+ * inline flags, class unions and intersections, Unicode properties, etc.)
+ * makes the parser return <code>null</code>, so the expression is to be
+ * matched by {@link java.util.regex.Pattern} itself. Parser is strict: any
+ * construct with a doubtful meaning is treated as unsupported.
+ * @author Pavel Baranchikov
+ */
+final class RegexSubsetParser {
+
+    private static final int MAX_REPEAT = 100;
+    private static final int MAX_NUMBER_LENGTH = 3;
+    private static final int END = -1;
+    private static final String QUANTIFIERS = "*+?{";
+    private static final String SIMPLE_ESCAPES = "tnrfae";
+    private static final String SIMPLE_ESCAPE_VALUES = "\t\n\r\f\u0007\u001B";
+
+    private final String regex;
+    private int position;
+
+    private RegexSubsetParser(@Nonnull String regex) {
+        this.regex = regex;
+    }
+
+    /**
+     * Parses regular expression.
+     * @param regex regular expression, valid for
+     *            {@link java.util.regex.Pattern}
+     * @return syntax tree of the expression or <code>null</code> if
+     *         expression is beyond the supported subset
+     */
+    @Nullable
+    static RegexNode parse(@Nonnull String regex) {
+        final RegexSubsetParser parser = new RegexSubsetParser(regex);
+        try {
+            final RegexNode node = parser.parseAlternation();
+            return parser.peek() == END ? node : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private int peek() {
+        return position < regex.length() ? regex.codePointAt(position) : END;
+    }
+
+    private int peekAfterNext() {
+        final int next = position + Character.charCount(peek());
+        return next < regex.length() ? regex.codePointAt(next) : END;
+    }
+
+    private int next() {
+        final int codePoint = peek();
+        if (codePoint == END) {
+            throw unsupported();
+        }
+        position += Character.charCount(codePoint);
+        return codePoint;
+    }
+
+    private boolean consume(int codePoint) {
+        if (peek() == codePoint) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private IllegalArgumentException unsupported() {
+        return new IllegalArgumentException("Unsupported construct at " + position + " in "
+                + regex);
+    }
+
+    private RegexNode parseAlternation() {
+        final List<RegexNode> branches = new ArrayList<>();
+        branches.add(parseConcatenation());
+        while (consume('|')) {
+            branches.add(parseConcatenation());
+        }
+        return RegexNode.alternation(branches);
+    }
+
+    private RegexNode parseConcatenation() {
+        final List<RegexNode> items = new ArrayList<>();
+        while (peek() != END && peek() != '|' && peek() != ')') {
+            items.add(parseQuantified());
+        }
+        return RegexNode.concatenation(items);
+    }
+
+    private RegexNode parseQuantified() {
+        final RegexNode atom = parseAtom();
+        final int quantifier = peek();
+        if (QUANTIFIERS.indexOf(quantifier) < 0) {
+            return atom;
+        }
+        next();
+        final RegexNode result;
+        switch (quantifier) {
+            case '*':
+                result = RegexNode.star(atom);
+                break;
+            case '+':
+                result = RegexNode.repeat(atom, 1, -1);
+                break;
+            case '?':
+                result = RegexNode.optional(atom);
+                break;
+            default:
+                result = parseRepeat(atom);
+                break;
+        }
+        // Reluctant quantifier does not change the result of the whole match,
+        // while the possessive one does
+        consume('?');
+        if (QUANTIFIERS.indexOf(peek()) >= 0) {
+            throw unsupported();
+        }
+        return result;
+    }
+
+    private RegexNode parseRepeat(RegexNode atom) {
+        final int min = parseNumber();
+        int max = min;
+        if (consume(',')) {
+            max = peek() == '}' ? -1 : parseNumber();
+        }
+        if (!consume('}') || max > MAX_REPEAT || (max >= 0 && max < min) || min > MAX_REPEAT) {
+            throw unsupported();
+        }
+        return RegexNode.repeat(atom, min, max);
+    }
+
+    private int parseNumber() {
+        final int start = position;
+        while (peek() >= '0' && peek() <= '9') {
+            next();
+        }
+        if (position == start || position - start > MAX_NUMBER_LENGTH) {
+            throw unsupported();
+        }
+        return Integer.parseInt(regex.substring(start, position));
+    }
+
+    private RegexNode parseAtom() {
+        final int start = position;
+        final int codePoint = next();
+        switch (codePoint) {
+            case '(':
+                return parseGroup();
+            case '[':
+                return RegexNode.chars(parseClass());
+            case '.':
+                return RegexNode.chars(CharRanges.DOT);
+            case '\\':
+                return RegexNode.chars(parseEscape());
+            case '^':
+                // Anchors are no-op for a whole-input match
+                return parseAnchor(start == 0);
+            case '$':
+                return parseAnchor(peek() == END);
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+            case ')':
+                throw unsupported();
+            default:
+                return RegexNode.chars(CharRanges.single(codePoint));
+        }
+    }
+
+    private RegexNode parseAnchor(boolean noop) {
+        if (!noop) {
+            throw unsupported();
+        }
+        return RegexNode.EMPTY;
+    }
+
+    private RegexNode parseGroup() {
+        if (consume('?') && !consume(':')) {
+            throw unsupported();
+        }
+        final RegexNode node = parseAlternation();
+        if (!consume(')')) {
+            throw unsupported();
+        }
+        return node;
+    }
+
+    private CharRanges parseEscape() {
+        final int codePoint = next();
+        final int simple = SIMPLE_ESCAPES.indexOf(codePoint);
+        if (simple >= 0) {
+            return CharRanges.single(SIMPLE_ESCAPE_VALUES.charAt(simple));
+        }
+        switch (codePoint) {
+            case 'd':
+                return CharRanges.DIGIT;
+            case 'D':
+                return CharRanges.DIGIT.complement();
+            case 'w':
+                return CharRanges.WORD;
+            case 'W':
+                return CharRanges.WORD.complement();
+            case 's':
+                return CharRanges.SPACE;
+            case 'S':
+                return CharRanges.SPACE.complement();
+            default:
+                if (Character.isLetterOrDigit(codePoint)) {
+                    throw unsupported();
+                }
+                return CharRanges.single(codePoint);
+        }
+    }
+
+    private CharRanges parseClass() {
+        final boolean negated = consume('^');
+        if (peek() == ']') {
+            throw unsupported();
+        }
+        CharRanges result = CharRanges.EMPTY;
+        boolean first = true;
+        while (!consume(']')) {
+            result = result.union(parseClassItem(first));
+            first = false;
+        }
+        return negated ? result.complement() : result;
+    }
+
+    private CharRanges parseClassItem(boolean first) {
+        final int codePoint = next();
+        if (codePoint == '[' || (codePoint == '&' && peek() == '&')) {
+            // Unions and intersections of classes
+            throw unsupported();
+        }
+        if (codePoint == '-' && !first && peek() != ']') {
+            throw unsupported();
+        }
+        final CharRanges item = codePoint == '\\' ? parseEscape() : CharRanges.single(codePoint);
+        if (peek() != '-' || peekAfterNext() == ']') {
+            return item;
+        }
+        next();
+        final int to = next();
+        if (codePoint == '\\' || codePoint == '-' || to == '\\' || to == '[' || to < codePoint) {
+            throw unsupported();
+        }
+        return CharRanges.range(codePoint, to);
+    }
+
+}
@@ -4,7 +4,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Objects;
 import java.util.TreeSet;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -13,14 +12,15 @@ import org.springframework.util.StopWatch;
 
 import com.atlassian.bitbucket.commit.CommitService;
 import com.atlassian.bitbucket.content.ChangesRequest;
+import com.atlassian.bitbucket.hook.repository.BranchCreationHookRequest;
 import com.atlassian.bitbucket.hook.repository.PreRepositoryHook;
 import com.atlassian.bitbucket.hook.repository.PreRepositoryHookContext;
 import com.atlassian.bitbucket.hook.repository.RepositoryHookRequest;
 import com.atlassian.bitbucket.hook.repository.RepositoryHookResult;
+import com.atlassian.bitbucket.hook.repository.TagCreationHookRequest;
 import com.atlassian.bitbucket.repository.RefChange;
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.scm.git.command.GitCommandBuilderFactory;
-import com.atlassian.bitbucket.setting.Settings;
 
 /**
  * Commit pre-receive hook to enforce EOL style in source files.
@@ -33,23 +33,35 @@ public class RepositoryHook extends EolCheckHook implements
 
     private final RealParentResolver realParentResolver;
     private final CommitService commitService;
+    private final CommitLedger commitLedger;
 
     public RepositoryHook(@Nonnull GitCommandBuilderFactory builderFactory,
-            @Nonnull RealParentResolver realParentResolver, @Nonnull CommitService commitService) {
-        super(builderFactory);
+            @Nonnull RealParentResolver realParentResolver, @Nonnull CommitService commitService,
+            @Nonnull BlobVerdictResolver blobVerdictResolver,
+            @Nonnull SharedVerdictStore sharedVerdictStore, @Nonnull CheckExecutor checkExecutor,
+            @Nonnull GitProcessGovernor governor, @Nonnull EolCheckPolicyCache policyCache,
+            @Nonnull CommitLedger commitLedger) {
+        super(builderFactory, blobVerdictResolver, sharedVerdictStore, checkExecutor, governor,
+                policyCache);
         this.realParentResolver = Objects.requireNonNull(realParentResolver);
         this.commitService = Objects.requireNonNull(commitService);
+        this.commitLedger = Objects.requireNonNull(commitLedger);
     }
 
     @Nonnull
     @Override
     public RepositoryHookResult preUpdate(@Nonnull PreRepositoryHookContext context,
             @Nonnull RepositoryHookRequest request) {
-        final Collection<Pattern> excludedFiles = getExcludeFiles(context.getSettings());
+        if (request instanceof BranchCreationHookRequest
+                || request instanceof TagCreationHookRequest) {
+            // Branches and tags, created in UI or by REST, always point to
+            // the commits, already residing in the repository
+            return RepositoryHookResult.accepted();
+        }
+        final EolCheckPolicy policy = getPolicy(context.getSettings());
         final Collection<String> files = new TreeSet<>();
         for (RefChange refChange : request.getRefChanges()) {
-            files.addAll(processChange(request.getRepository(), context.getSettings(), refChange,
-                    excludedFiles));
+            files.addAll(processChange(request.getRepository(), policy, refChange));
         }
         if (files.isEmpty()) {
             return RepositoryHookResult.accepted();
@@ -77,8 +89,7 @@ public class RepositoryHook extends EolCheckHook implements
 
     @Nonnull
     private Collection<String> processChange(@Nonnull Repository repository,
-            @Nonnull Settings settings, @Nonnull RefChange refChange,
-            @Nonnull Collection<Pattern> excludeFiles) {
+            @Nonnull EolCheckPolicy policy, @Nonnull RefChange refChange) {
         final StopWatch stopwatch = new StopWatch("Processing changes hook");
         stopwatch.start("getting real parent");
         final String fromId = realParentResolver.getRealParent(repository, refChange);
@@ -91,32 +102,55 @@ public class RepositoryHook extends EolCheckHook implements
             return Collections.emptyList();
         }
         stopwatch.stop();
+        if (fromId == null) {
+            // The whole history is new, so every commit is to be checked
+            stopwatch.start("checking new history");
+            final Collection<String> result = checkHistoryForWrongEol(repository, toId,
+                    policy);
+            stopwatch.stop();
+            return addAccepted(repository, null, toId, policy, result);
+        }
         stopwatch.start("getting changedPaths");
-        final Collection<String> changedPaths =
-                getChangedPaths(repository, fromId, toId, excludeFiles);
+        final Collection<ChangedFile> changedFiles =
+                getChangedFiles(repository, fromId, toId, policy);
         stopwatch.stop();
         stopwatch.start("performing main check");
         final Collection<String> result =
-                checkForWrongEol(changedPaths, repository, fromId, toId, settings);
+                checkForWrongEol(changedFiles, repository, fromId, toId, policy);
         stopwatch.stop();
         if (getLog().isDebugEnabled()) {
             getLog().debug(stopwatch.prettyPrint());
         }
-        return result;
+        return addAccepted(repository, fromId, toId, policy, result);
+    }
+
+    /**
+     * Records the range to the ledger, if no wrong EOL is found in it, so
+     * the merge check of the pushed commits may be skipped.
+     * @return wrong paths of the range
+     */
+    @Nonnull
+    private Collection<String> addAccepted(@Nonnull Repository repository,
+            @Nullable String fromId, @Nonnull String toId, @Nonnull EolCheckPolicy policy,
+            @Nonnull Collection<String> wrongPaths) {
+        if (wrongPaths.isEmpty()) {
+            commitLedger.addAccepted(repository, fromId, toId, policy);
+        }
+        return wrongPaths;
     }
 
     @Nonnull
-    private Collection<String> getChangedPaths(@Nonnull Repository repository, @Nullable String fromId, @Nonnull String toId,
-            @Nonnull Collection<Pattern> excludeFiles) {
-        final ChangesRequest.Builder builder = new ChangesRequest.Builder(repository, toId);
-        if (fromId != null) {
-            builder.sinceId(fromId);
+    private Collection<ChangedFile> getChangedFiles(@Nonnull Repository repository,
+            @Nonnull String fromId, @Nonnull String toId, @Nonnull EolCheckPolicy policy) {
+        if (!policy.getExcludePathspecs().isEmpty()) {
+            // Let git skip the excluded subtrees while enumerating the changes
+            return getChangedFilesPruned(repository, fromId, toId, policy);
         }
-        final ChangesRequest pathsRequest = builder.build();
-        final ChangesPathsCollector pathsCallback = new ChangesPathsCollector();
+        final ChangesRequest pathsRequest = new ChangesRequest.Builder(repository, toId).sinceId(
+                fromId).build();
+        final ChangesPathsCollector pathsCallback = new ChangesPathsCollector(true);
         commitService.streamChanges(pathsRequest, pathsCallback);
-        final Collection<String> changedFiles = pathsCallback.getChangedPaths();
-        filterFiles(changedFiles, excludeFiles);
-        return changedFiles;
+        filterFiles(pathsCallback.getChangedPaths(), policy);
+        return pathsCallback.getChangedFiles();
     }
 }
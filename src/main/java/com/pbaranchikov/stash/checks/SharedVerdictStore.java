@@ -0,0 +1,276 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.bitbucket.repository.Repository;
+
+/**
+ * Store of EOL verdicts, shared between the nodes of the cluster. Holds
+ * EOL-styles of the blobs and wrong paths of the checked commit ranges, so a
+ * range checked on one node is never rechecked on another one. <br/>
+ * Verdicts of the ranges are additionally held in the local near-cache. Blob
+ * styles are expected to be cached by the caller. Concurrent checks of the
+ * same range on the node are run only once. <br/>
+ * Store is an optimization only: any error of the underlying table is logged
+ * and treated as a missing verdict.
+ * @author Pavel Baranchikov
+ */
+public class SharedVerdictStore {
+
+    private static final String BLOB_PREFIX = "b:";
+    private static final String RANGE_PREFIX = "r:";
+    private static final char KEY_SEPARATOR = ':';
+    private static final char PATH_SEPARATOR = '\n';
+    private static final char ESCAPE = '\\';
+    /*
+     * Oracle stores empty strings as NULL, so the range without wrong paths
+     * is stored as a lone escape character, which never ends encoded paths
+     */
+    private static final String NO_PATHS = String.valueOf(ESCAPE);
+    private static final int NEAR_CACHE_SIZE = 1024;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final VerdictTable table;
+    private final Map<String, Collection<String>> rangeCache = new LinkedHashMap<String,
+            Collection<String>>(NEAR_CACHE_SIZE, 1, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<String, Collection<String>> eldest) {
+            return size() > NEAR_CACHE_SIZE;
+        }
+    };
+
+    private final SingleFlight<String, Collection<String>> flights = new SingleFlight<>();
+
+    public SharedVerdictStore(@Nonnull VerdictTable table) {
+        this.table = Objects.requireNonNull(table);
+    }
+
+    /**
+     * Returns EOL-styles of the blobs, stored by any node.
+     * @param blobIds blob IDs to look up
+     * @return found blob styles
+     */
+    @Nonnull
+    public Map<String, BlobEolStyle> getBlobStyles(@Nonnull Collection<String> blobIds) {
+        final Collection<String> keys = new ArrayList<>(blobIds.size());
+        for (String blobId : blobIds) {
+            keys.add(BLOB_PREFIX + blobId);
+        }
+        final Map<String, BlobEolStyle> styles = new HashMap<>();
+        for (Entry<String, String> entry : getAll(keys).entrySet()) {
+            try {
+                styles.put(entry.getKey().substring(BLOB_PREFIX.length()),
+                        BlobEolStyle.valueOf(entry.getValue()));
+            } catch (IllegalArgumentException e) {
+                log.debug("Unknown blob style {} stored for {}", entry.getValue(),
+                        entry.getKey());
+            }
+        }
+        return styles;
+    }
+
+    /**
+     * Stores EOL-styles of the blobs.
+     * @param styles blob styles to store
+     */
+    public void putBlobStyles(@Nonnull Map<String, BlobEolStyle> styles) {
+        final Map<String, String> values = new HashMap<>();
+        for (Entry<String, BlobEolStyle> entry : styles.entrySet()) {
+            values.put(BLOB_PREFIX + entry.getKey(), entry.getValue().name());
+        }
+        putAll(values);
+    }
+
+    /**
+     * Returns wrong paths of the commit range, checked with the policy.
+     * @param repository repository of the range
+     * @param since commit the range starts from or <code>null</code> if the
+     *            range starts from the root
+     * @param to commit the range ends with
+     * @param policy policy of the check
+     * @return wrong paths or <code>null</code> if the range has not been
+     *         checked yet
+     */
+    @Nullable
+    public Collection<String> getWrongPaths(@Nonnull Repository repository,
+            @Nullable String since, @Nonnull String to, @Nonnull EolCheckPolicy policy) {
+        final String key = getRangeKey(repository, since, to, policy);
+        synchronized (rangeCache) {
+            final Collection<String> cached = rangeCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final String value = getAll(Collections.singleton(key)).get(key);
+        if (value == null) {
+            return null;
+        }
+        final Collection<String> wrongPaths = decodePaths(value);
+        synchronized (rangeCache) {
+            rangeCache.put(key, wrongPaths);
+        }
+        return wrongPaths;
+    }
+
+    /**
+     * Returns wrong paths of the commit range, checked with the policy. If
+     * the range has not been checked yet, it is checked and the wrong paths
+     * are stored. Concurrent checks of the same range on the node are
+     * coalesced: only the first caller runs the check, the others wait for
+     * its result.
+     * @param repository repository of the range
+     * @param since commit the range starts from or <code>null</code> if the
+     *            range starts from the root
+     * @param to commit the range ends with
+     * @param policy policy of the check
+     * @param check check of the range
+     * @return wrong paths
+     */
+    @Nonnull
+    public Collection<String> getWrongPaths(@Nonnull Repository repository,
+            @Nullable String since, @Nonnull String to, @Nonnull EolCheckPolicy policy,
+            @Nonnull Supplier<Collection<String>> check) {
+        final Collection<String> stored = getWrongPaths(repository, since, to, policy);
+        if (stored != null) {
+            log.debug("Verdict for {}..{} found in the shared store", since, to);
+            return stored;
+        }
+        final Supplier<Collection<String>> lookup = () -> getWrongPaths(repository, since, to,
+                policy);
+        return flights.execute(getRangeKey(repository, since, to, policy), lookup, () -> {
+            final Collection<String> wrongPaths = check.get();
+            putWrongPaths(repository, since, to, policy, wrongPaths);
+            return wrongPaths;
+        });
+    }
+
+    /**
+     * Returns number of the range checks, which waited for the running check
+     * of the same range.
+     * @return number of the joined checks
+     */
+    public long getJoinCount() {
+        return flights.getJoinCount();
+    }
+
+    /**
+     * Stores wrong paths of the commit range, checked with the policy.
+     * @param repository repository of the range
+     * @param since commit the range starts from or <code>null</code> if the
+     *            range starts from the root
+     * @param to commit the range ends with
+     * @param policy policy of the check
+     * @param wrongPaths wrong paths found in the range
+     */
+    public void putWrongPaths(@Nonnull Repository repository, @Nullable String since,
+            @Nonnull String to, @Nonnull EolCheckPolicy policy,
+            @Nonnull Collection<String> wrongPaths) {
+        final String key = getRangeKey(repository, since, to, policy);
+        final Collection<String> paths = Collections.unmodifiableList(new ArrayList<>(
+                wrongPaths));
+        synchronized (rangeCache) {
+            rangeCache.put(key, paths);
+        }
+        putAll(Collections.singletonMap(key, encodePaths(paths)));
+    }
+
+    @Nonnull
+    private Map<String, String> getAll(@Nonnull Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            return table.getAll(keys);
+        } catch (RuntimeException e) {
+            log.warn("Error reading shared EOL verdicts", e);
+            return Collections.emptyMap();
+        }
+    }
+
+    private void putAll(@Nonnull Map<String, String> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        try {
+            table.putAll(values);
+        } catch (RuntimeException e) {
+            log.warn("Error writing shared EOL verdicts", e);
+        }
+    }
+
+    @Nonnull
+    private static String getRangeKey(@Nonnull Repository repository, @Nullable String since,
+            @Nonnull String to, @Nonnull EolCheckPolicy policy) {
+        return RANGE_PREFIX + repository.getId() + KEY_SEPARATOR
+                + (since == null ? Constants.NON_ID : since) + KEY_SEPARATOR + to
+                + KEY_SEPARATOR + policy.getFingerprint();
+    }
+
+    @Nonnull
+    private static String encodePaths(@Nonnull Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return NO_PATHS;
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (String path : paths) {
+            if (sb.length() > 0) {
+                sb.append(PATH_SEPARATOR);
+            }
+            for (int i = 0; i < path.length(); i++) {
+                final char nextChar = path.charAt(i);
+                if (nextChar == ESCAPE) {
+                    sb.append(ESCAPE).append(ESCAPE);
+                } else if (nextChar == PATH_SEPARATOR) {
+                    sb.append(ESCAPE).append('n');
+                } else {
+                    sb.append(nextChar);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    @Nonnull
+    private static Collection<String> decodePaths(@Nonnull String value) {
+        final List<String> paths = new ArrayList<>();
+        if (value.isEmpty() || value.equals(NO_PATHS)) {
+            return Collections.unmodifiableList(paths);
+        }
+        final StringBuilder path = new StringBuilder();
+        boolean escaped = false;
+        for (int i = 0; i < value.length(); i++) {
+            final char nextChar = value.charAt(i);
+            if (escaped) {
+                path.append(nextChar == 'n' ? PATH_SEPARATOR : nextChar);
+                escaped = false;
+            } else if (nextChar == ESCAPE) {
+                escaped = true;
+            } else if (nextChar == PATH_SEPARATOR) {
+                paths.add(path.toString());
+                path.setLength(0);
+            } else {
+                path.append(nextChar);
+            }
+        }
+        paths.add(path.toString());
+        return Collections.unmodifiableList(paths);
+    }
+
+}
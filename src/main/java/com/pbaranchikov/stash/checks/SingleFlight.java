@@ -0,0 +1,133 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Coalesces concurrent identical computations. The first caller of the key
+ * computes the value, while the concurrent callers of the same key wait for
+ * it instead of computing it once again. Should the computation fail, every
+ * waiting caller computes the value by itself. <br/>
+ * Only running computations are tracked: results are expected to be cached
+ * by the computation itself, before the waiting callers are released. As
+ * the previous computation of the key could finish between the caller's
+ * cache lookup and the start of its own computation, the cache is looked up
+ * once again, after the computation is registered. <br/>
+ * Computation could also be started explicitly with {@link #start(Object)}
+ * and finished later, so a caller, computing multiple values at once, could
+ * register all of them before it starts.
+ * @param <K> type of the keys
+ * @param <V> type of the computed values
+ * @author Pavel Baranchikov
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder joins = new LongAdder();
+
+    /**
+     * Returns value of the key, computed either by the calling thread or by
+     * the concurrent caller of the same key.
+     * @param key key of the computation
+     * @param lookup lookup of the value in the cache, returning
+     *            <code>null</code> if the value is not cached
+     * @param computation computation of the value
+     * @return computed value
+     */
+    V execute(@Nonnull K key, @Nonnull Supplier<V> lookup, @Nonnull Supplier<V> computation) {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            joins.increment();
+            try {
+                return running.join();
+            } catch (CompletionException | CancellationException e) {
+                return computation.get();
+            }
+        }
+        try {
+            final V cached = lookup.get();
+            final V value = cached == null ? computation.get() : cached;
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Starts computation of the key by the calling thread. Concurrent callers
+     * of the same key wait for it, until it is either completed or
+     * abandoned. The started computation must be finished in any case.
+     * @param key key of the computation
+     * @return the started computation or <code>null</code> if the key is
+     *         being computed already
+     */
+    @Nullable
+    Flight start(@Nonnull K key) {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        return inFlight.putIfAbsent(key, future) == null ? new Flight(key, future) : null;
+    }
+
+    /**
+     * Returns number of the callers, which waited for the running
+     * computation of the same key.
+     * @return number of the joined computations
+     */
+    long getJoinCount() {
+        return joins.sum();
+    }
+
+    /**
+     * Returns number of the computations, running at the moment.
+     * @return number of the running computations
+     */
+    int getRunningCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Computation, started explicitly.
+     */
+    final class Flight {
+        private final K key;
+        private final CompletableFuture<V> future;
+
+        private Flight(K key, CompletableFuture<V> future) {
+            this.key = key;
+            this.future = future;
+        }
+
+        /**
+         * Releases the waiting callers with the computed value. The value is
+         * expected to be cached already.
+         * @param value computed value
+         */
+        void complete(@Nonnull V value) {
+            future.complete(value);
+            inFlight.remove(key, future);
+        }
+
+        /**
+         * Releases the waiting callers without a value, so each of them
+         * computes the value by itself. Does nothing, if the computation is
+         * completed already.
+         */
+        void abandon() {
+            future.cancel(false);
+            inFlight.remove(key, future);
+        }
+    }
+
+}
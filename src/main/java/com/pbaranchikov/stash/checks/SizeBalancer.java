@@ -0,0 +1,86 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Distributes weighted items between the limited number of bins, so that the
+ * bins are loaded as evenly as possible. Uses the largest-first greedy
+ * algorithm: the heaviest of the remaining items always goes into the least
+ * loaded bin.
+ * @author Pavel Baranchikov
+ */
+final class SizeBalancer {
+
+    private SizeBalancer() {
+    }
+
+    /**
+     * Distributes items between the bins.
+     * @param sizes sizes of the items
+     * @param maxBins maximum number of bins
+     * @param <T> type of the items
+     * @return non-empty bins, the most loaded first
+     */
+    @Nonnull
+    static <T> List<Collection<T>> balance(@Nonnull Map<T, Long> sizes, int maxBins) {
+        final List<Entry<T, Long>> items = new ArrayList<>(sizes.entrySet());
+        items.sort(Comparator.comparing(Entry<T, Long>::getValue).reversed());
+        final int binCount = Math.max(1, Math.min(maxBins, items.size()));
+        final PriorityQueue<Bin<T>> bins = new PriorityQueue<>(binCount,
+                Comparator.comparingLong(Bin::getLoad));
+        for (int i = 0; i < binCount; i++) {
+            bins.add(new Bin<T>(i));
+        }
+        for (Entry<T, Long> item : items) {
+            final Bin<T> bin = bins.poll();
+            bin.add(item.getKey(), item.getValue());
+            bins.add(bin);
+        }
+        final List<Bin<T>> sorted = new ArrayList<>(bins);
+        sorted.sort(Comparator.comparingLong(Bin<T>::getLoad).reversed().thenComparingInt(
+                Bin::getIndex));
+        final List<Collection<T>> result = new ArrayList<>(sorted.size());
+        for (Bin<T> bin : sorted) {
+            if (!bin.items.isEmpty()) {
+                result.add(bin.items);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Bin of the items.
+     * @param <T> type of the items
+     */
+    private static final class Bin<T> {
+        private final int index;
+        private final Collection<T> items = new ArrayList<>();
+        private long load;
+
+        Bin(int index) {
+            this.index = index;
+        }
+
+        void add(T item, long size) {
+            items.add(item);
+            load += size;
+        }
+
+        long getLoad() {
+            return load;
+        }
+
+        int getIndex() {
+            return index;
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.pbaranchikov.stash.checks;
+
+/**
+ * Strict Eol checker - forces that every file has only LF-style
+ * end-of-line. <br/>
+ * Handler just search for the first occurrence of the CR symbol in the
+ * added lines. When it finds - it returns error result immediately
+ * @author Pavel Baranchikov
+ */
+class StrictEolHandler extends AbstractEolHandler {
+    @Override
+    protected boolean scan(byte[] buffer, int from, int to) {
+        int state = getState();
+        int position = from;
+        while (position < to) {
+            final int charClass = getCharClass(buffer[position]);
+            if (charClass == CLASS_CR && isAdded(state)) {
+                setResult(false);
+                return false;
+            }
+            state = getNextState(state, charClass);
+            position = getNextPosition(buffer, position, charClass, to);
+        }
+        setState(state);
+        return true;
+    }
+
+    @Override
+    public int getRequiredContext() {
+        // No context is needed for this type of check.
+        return 0;
+    }
+}
@@ -0,0 +1,43 @@
+package com.pbaranchikov.stash.checks;
+
+import net.java.ao.Entity;
+import net.java.ao.Preload;
+import net.java.ao.schema.Indexed;
+import net.java.ao.schema.NotNull;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Active Objects entity of {@link ActiveObjectsVerdictTable}.
+ * @author Pavel Baranchikov
+ */
+@Preload
+@Table("EOL_VERDICT")
+public interface VerdictEntity extends Entity {
+
+    /**
+     * Name of the key column.
+     */
+    String KEY_COLUMN = "VERDICT_KEY";
+    /**
+     * Name of the value column.
+     */
+    String VALUE_COLUMN = "VERDICT_VALUE";
+    /**
+     * Maximum length of the key.
+     */
+    int KEY_LENGTH = 255;
+
+    @NotNull
+    @Indexed
+    @StringLength(KEY_LENGTH)
+    String getVerdictKey();
+
+    void setVerdictKey(String key);
+
+    @StringLength(StringLength.UNLIMITED)
+    String getVerdictValue();
+
+    void setVerdictValue(String value);
+
+}
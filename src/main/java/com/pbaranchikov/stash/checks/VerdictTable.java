@@ -0,0 +1,30 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Key-value table, holding EOL verdicts, shared between the nodes of the
+ * cluster.
+ * @author Pavel Baranchikov
+ */
+public interface VerdictTable {
+
+    /**
+     * Returns values of the specified keys.
+     * @param keys keys to look up
+     * @return values of the keys, present in the table
+     */
+    @Nonnull
+    Map<String, String> getAll(@Nonnull Collection<String> keys);
+
+    /**
+     * Puts values into the table. Values of the existing keys are left
+     * untouched, as the verdict for the key never changes.
+     * @param values values to put
+     */
+    void putAll(@Nonnull Map<String, String> values);
+
+}
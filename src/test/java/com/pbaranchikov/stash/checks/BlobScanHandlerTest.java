@@ -0,0 +1,120 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.atlassian.utils.process.Watchdog;
+
+/**
+ * Unit test for {@link BlobScanHandler}, fed with the output of
+ * <code>git cat-file --batch</code>. <br/>
+ * Test resides in the package of the handler, as it is not public.
+ * @author Pavel Baranchikov
+ */
+public class BlobScanHandlerTest {
+
+    private static final String LF_ID = "1111111111111111111111111111111111111111";
+    private static final String CR_ID = "2222222222222222222222222222222222222222";
+    private static final String BINARY_ID = "3333333333333333333333333333333333333333";
+    private static final String LATE_CR_ID = "4444444444444444444444444444444444444444";
+    private static final String MISSING_ID = "5555555555555555555555555555555555555555";
+    private static final int LARGE_SIZE = 100000;
+    private static final int SAMPLE_SIZE = 1000;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private void addBlob(String blobId, byte[] content) {
+        final byte[] header = (blobId + " blob " + content.length + "\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        output.write(header, 0, header.length);
+        output.write(content, 0, content.length);
+        output.write(Constants.LF);
+    }
+
+    private static byte[] text(int size) {
+        final byte[] content = new byte[size];
+        Arrays.fill(content, (byte) 'a');
+        for (int i = 0; i < size; i += 80) {
+            content[i] = Constants.LF;
+        }
+        return content;
+    }
+
+    private Map<String, BlobEolStyle> process(BlobScanHandler handler) throws Exception {
+        handler.process(new ByteArrayInputStream(output.toByteArray()));
+        return handler.getOutput();
+    }
+
+    @Test
+    public void testStyles() throws Exception {
+        addBlob(LF_ID, text(LARGE_SIZE));
+        final byte[] withCr = text(LARGE_SIZE);
+        withCr[LARGE_SIZE / 2] = Constants.CR;
+        addBlob(CR_ID, withCr);
+        final byte[] binary = text(LARGE_SIZE);
+        binary[10] = 0;
+        binary[LARGE_SIZE / 2] = Constants.CR;
+        addBlob(BINARY_ID, binary);
+        final byte[] missing = (MISSING_ID + " missing\n").getBytes(StandardCharsets.US_ASCII);
+        output.write(missing, 0, missing.length);
+        final byte[] lateNul = text(LARGE_SIZE);
+        lateNul[LARGE_SIZE - 1] = 0;
+        lateNul[LARGE_SIZE - 2] = Constants.CR;
+        addBlob(LATE_CR_ID, lateNul);
+        final Map<String, BlobEolStyle> styles = process(new BlobScanHandler());
+        Assert.assertEquals(BlobEolStyle.LF_ONLY, styles.get(LF_ID));
+        Assert.assertEquals(BlobEolStyle.HAS_CR, styles.get(CR_ID));
+        Assert.assertEquals(BlobEolStyle.BINARY, styles.get(BINARY_ID));
+        Assert.assertEquals(BlobEolStyle.HAS_CR, styles.get(LATE_CR_ID));
+        Assert.assertFalse(styles.containsKey(MISSING_ID));
+    }
+
+    @Test
+    public void testSampleMissesLateCr() throws Exception {
+        final byte[] content = text(LARGE_SIZE);
+        content[SAMPLE_SIZE * 2] = Constants.CR;
+        addBlob(LATE_CR_ID, content);
+        addBlob(CR_ID, content);
+        final BlobScanHandler handler = new BlobScanHandler(SAMPLE_SIZE);
+        final boolean[] canceled = new boolean[1];
+        handler.setWatchdog(new Watchdog() {
+            @Override
+            public void cancel() {
+                canceled[0] = true;
+            }
+
+            @Override
+            public void resetWatchdog() {
+            }
+        });
+        final Map<String, BlobEolStyle> styles = process(handler);
+        Assert.assertEquals(BlobEolStyle.LF_ONLY, styles.get(LATE_CR_ID));
+        Assert.assertFalse(styles.containsKey(CR_ID));
+        Assert.assertTrue(handler.isCanceled());
+        Assert.assertTrue(canceled[0]);
+    }
+
+    @Test
+    public void testSampleFindsCr() throws Exception {
+        final byte[] content = text(LARGE_SIZE);
+        content[SAMPLE_SIZE / 2] = Constants.CR;
+        addBlob(CR_ID, content);
+        Assert.assertEquals(BlobEolStyle.HAS_CR, process(new BlobScanHandler(SAMPLE_SIZE))
+                .get(CR_ID));
+    }
+
+    @Test
+    public void testSmallBlobIsNotCanceled() throws Exception {
+        addBlob(LF_ID, text(SAMPLE_SIZE));
+        final BlobScanHandler handler = new BlobScanHandler(SAMPLE_SIZE);
+        Assert.assertEquals(BlobEolStyle.LF_ONLY, process(handler).get(LF_ID));
+        Assert.assertFalse(handler.isCanceled());
+    }
+
+}
@@ -0,0 +1,178 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BlobStyleFile}. <br/>
+ * Test resides in the package of the file, as it is not public.
+ * @author Pavel Baranchikov
+ */
+public class BlobStyleFileTest {
+
+    private static final String NAME = "1";
+    private static final int MAX_RECORDS = 1024 * 1024;
+    private static final int COMPACTION_THRESHOLD = 16 * 1024;
+    private static final long HEADER_SIZE = 16;
+    private static final long RECORD_SIZE = 21;
+
+    private Path directory;
+    private BlobStyleFile file;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("blob-styles");
+    }
+
+    @After
+    public void removeDirectory() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+        for (String path : list()) {
+            Files.delete(directory.resolve(path));
+        }
+        Files.delete(directory);
+    }
+
+    private static String id(int number) {
+        return String.format("%040x", number);
+    }
+
+    private static BlobEolStyle style(int number) {
+        return number % 3 == 0 ? BlobEolStyle.HAS_CR : BlobEolStyle.LF_ONLY;
+    }
+
+    /**
+     * Returns styles of every <code>step</code> blob, starting from
+     * <code>first</code> one.
+     */
+    private static Map<String, BlobEolStyle> styles(int first, int count, int step) {
+        final Map<String, BlobEolStyle> styles = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            final int number = first + i * step;
+            styles.put(id(number), style(number));
+        }
+        return styles;
+    }
+
+    private void open(int maxRecords) throws IOException {
+        if (file != null) {
+            file.close();
+        }
+        file = BlobStyleFile.open(directory, NAME, maxRecords);
+    }
+
+    private Set<String> list() throws IOException {
+        final Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        return names;
+    }
+
+    private Path getPath(int generation, String suffix) {
+        return directory.resolve(NAME + "-" + generation + suffix);
+    }
+
+    private void assertStyles(Map<String, BlobEolStyle> styles) {
+        for (Entry<String, BlobEolStyle> entry : styles.entrySet()) {
+            Assert.assertEquals(entry.getKey(), entry.getValue(), file.get(entry.getKey()));
+        }
+    }
+
+    private void assertSize(int generation, int records) throws IOException {
+        Assert.assertEquals(HEADER_SIZE + records * RECORD_SIZE, Files.size(getPath(generation,
+                ".dat")));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        open(MAX_RECORDS);
+        file.append(styles(1, 2, 1));
+        assertStyles(styles(1, 2, 1));
+        Assert.assertNull(file.get(id(3)));
+        Assert.assertNull(file.get("not an ID"));
+        assertSize(1, 2);
+    }
+
+    @Test
+    public void testReopenedAfterAppend() throws IOException {
+        open(MAX_RECORDS);
+        file.append(styles(1, 2, 1));
+        open(MAX_RECORDS);
+        file.append(styles(3, 2, 1));
+        open(MAX_RECORDS);
+        assertStyles(styles(1, 4, 1));
+        assertSize(1, 4);
+    }
+
+    @Test
+    public void testTruncatedRecordDropped() throws IOException {
+        open(MAX_RECORDS);
+        file.append(styles(1, 2, 1));
+        file.close();
+        Files.write(getPath(1, ".dat"), new byte[(int) RECORD_SIZE - 1],
+                StandardOpenOption.APPEND);
+        open(MAX_RECORDS);
+        assertStyles(styles(1, 2, 1));
+        assertSize(1, 2);
+        file.append(styles(3, 1, 1));
+        open(MAX_RECORDS);
+        assertStyles(styles(1, 3, 1));
+    }
+
+    @Test
+    public void testLeftoversRemoved() throws IOException {
+        open(MAX_RECORDS);
+        file.append(styles(1, 2, 1));
+        file.close();
+        Files.write(getPath(0, ".dat"), new byte[(int) HEADER_SIZE]);
+        Files.write(getPath(2, ".tmp"), new byte[(int) RECORD_SIZE]);
+        open(MAX_RECORDS);
+        assertStyles(styles(1, 2, 1));
+        Assert.assertEquals(Collections.singleton(NAME + "-1.dat"), list());
+    }
+
+    @Test
+    public void testCompactionMergesRecords() throws IOException {
+        open(MAX_RECORDS);
+        file.append(styles(0, COMPACTION_THRESHOLD, 2));
+        assertSize(2, COMPACTION_THRESHOLD);
+        file.append(styles(1, COMPACTION_THRESHOLD, 2));
+        assertStyles(styles(0, COMPACTION_THRESHOLD * 2, 1));
+        Assert.assertEquals(Collections.singleton(NAME + "-3.dat"), list());
+        assertSize(3, COMPACTION_THRESHOLD * 2);
+        open(MAX_RECORDS);
+        assertStyles(styles(0, COMPACTION_THRESHOLD * 2, 1));
+    }
+
+    @Test
+    public void testCompactionKeepsLowestIds() throws IOException {
+        final int keptSorted = 10;
+        open(COMPACTION_THRESHOLD + keptSorted);
+        file.append(styles(0, COMPACTION_THRESHOLD, 2));
+        file.append(styles(1, COMPACTION_THRESHOLD, 2));
+        assertSize(3, COMPACTION_THRESHOLD + keptSorted);
+        assertStyles(styles(0, keptSorted, 2));
+        assertStyles(styles(1, COMPACTION_THRESHOLD, 2));
+        Assert.assertNull(file.get(id(keptSorted * 2)));
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link EolAttributesHandler}. Input is the output of
+ * <code>git check-attr -z text diff</code> for the attributes
+ * <code>*.bin binary</code>, <code>*.txt -text</code>,
+ * <code>*.bat eol=crlf</code>, <code>*.c text=auto diff=cpp</code> and
+ * <code>*.json -diff</code>. <br/>
+ * Test resides in the package of the handler, as it is not public.
+ * @author Pavel Baranchikov
+ */
+public class EolAttributesHandlerTest {
+
+    private static final String OUTPUT = "a.bin\0text\0unset\0a.bin\0diff\0unset\0"
+            + "docs/a.txt\0text\0unset\0docs/a.txt\0diff\0unspecified\0"
+            + "x.bat\0text\0unspecified\0x.bat\0diff\0unspecified\0"
+            + "f.c\0text\0auto\0f.c\0diff\0cpp\0"
+            + "package-lock.json\0text\0unspecified\0package-lock.json\0diff\0unset\0"
+            + "sp ace/\u0444.java\0text\0set\0sp ace/\u0444.java\0diff\0unspecified\0"
+            + "diff\0text\0unset\0diff\0diff\0unset\0";
+
+    private static EolAttributesHandler process(String output) throws Exception {
+        final EolAttributesHandler handler = new EolAttributesHandler();
+        handler.process(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+        return handler;
+    }
+
+    @Test
+    public void testExemptPaths() throws Exception {
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a.bin", "docs/a.txt",
+                "package-lock.json", "diff")), process(OUTPUT).getOutput());
+    }
+
+    @Test
+    public void testEmptyOutput() throws Exception {
+        Assert.assertTrue(process("").getOutput().isEmpty());
+    }
+
+    /**
+     * <code>eol=crlf</code> implies <code>text</code>: git stores such a
+     * file with LF, so CRLF in its blob is an error as in any other file.
+     */
+    @Test
+    public void testEolCrlfNotExempt() throws Exception {
+        Assert.assertFalse(process(OUTPUT).getOutput().contains("x.bat"));
+        Assert.assertTrue(process("x.bat\0text\0unspecified\0x.bat\0diff\0unspecified\0"
+                + "x.txt\0text\0set\0x.txt\0diff\0unspecified\0").getOutput().isEmpty());
+    }
+
+    /**
+     * Git reports <code>binary</code> macro as <code>text</code> unset (and
+     * <code>diff</code> unset as well). <code>text</code> unset alone is
+     * enough to exempt the file.
+     */
+    @Test
+    public void testBinaryReportedAsTextUnset() throws Exception {
+        Assert.assertEquals(Collections.singleton("a.bin"), process(
+                "a.bin\0text\0unset\0a.bin\0diff\0unspecified\0")
+                .getOutput());
+    }
+
+    @Test
+    public void testUnterminatedLastToken() throws Exception {
+        Assert.assertEquals(Collections.singleton("x.json"), process(
+                "x.json\0text\0unspecified\0x.json\0diff\0unset").getOutput());
+    }
+
+}
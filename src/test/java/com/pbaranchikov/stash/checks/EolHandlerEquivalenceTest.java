@@ -0,0 +1,130 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.content.DiffSegmentType;
+
+/**
+ * Unit test, checking that the state machine of {@link AbstractEolHandler}
+ * with all the newline scanners produces the same verdicts, as the plain
+ * byte-by-byte scanning does. <br/>
+ * Test resides in the package of the handlers, as they are not public.
+ * @author Pavel Baranchikov
+ */
+public class EolHandlerEquivalenceTest {
+
+    private static final byte[] ALPHABET = {'+', '-', ' ', 'a', 'd', '@', Constants.CR,
+            Constants.LF, Constants.LF, Constants.LF, (byte) 0x8a, (byte) 0x8d};
+    private static final int ITERATIONS = 20000;
+    private static final int MAX_LENGTH = 300;
+    private static final int SPARSE_NEWLINE_RATE = 40;
+    private static final long SEED = 20160117L;
+
+    /**
+     * Reference implementation: the plain byte-by-byte scanning.
+     */
+    private static boolean check(boolean allowInheritedEol, byte[] data) {
+        boolean newLine = true;
+        boolean result = true;
+        DiffSegmentType segmentType = DiffSegmentType.CONTEXT;
+        for (byte nextChar : data) {
+            final boolean nextCharIsNewline = nextChar == Constants.CR
+                    || nextChar == Constants.LF;
+            if (newLine && !nextCharIsNewline) {
+                if (nextChar == '+') {
+                    segmentType = DiffSegmentType.ADDED;
+                } else if (nextChar == '-') {
+                    segmentType = DiffSegmentType.REMOVED;
+                } else {
+                    segmentType = DiffSegmentType.CONTEXT;
+                }
+            }
+            if (nextChar == Constants.CR) {
+                if (segmentType == DiffSegmentType.ADDED) {
+                    result = false;
+                    if (!allowInheritedEol) {
+                        break;
+                    }
+                } else if (allowInheritedEol) {
+                    return true;
+                }
+            }
+            newLine = nextCharIsNewline;
+        }
+        return result;
+    }
+
+    private static boolean checkInChunks(AbstractEolHandler handler, byte[] data, Random random) {
+        int position = 0;
+        while (position < data.length) {
+            final int length = Math.min(data.length - position, 1 + random.nextInt(64));
+            handler.processData(data, position, length);
+            position += length;
+        }
+        return handler.getResult();
+    }
+
+    private static byte[] createDiff(Random random) {
+        final byte[] data = new byte[random.nextInt(MAX_LENGTH)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return data;
+    }
+
+    /**
+     * Creates data with long runs of the bytes without newline symbols.
+     */
+    private static byte[] createSparseData(Random random) {
+        final byte[] data = new byte[random.nextInt(MAX_LENGTH)];
+        random.nextBytes(data);
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == Constants.CR || data[i] == Constants.LF) {
+                data[i] = 'a';
+            }
+            if (random.nextInt(SPARSE_NEWLINE_RATE) == 0) {
+                data[i] = (byte) (random.nextBoolean() ? Constants.CR : Constants.LF);
+            }
+        }
+        return data;
+    }
+
+    private static void assertEquivalent(boolean allowInheritedEol,
+            Supplier<AbstractEolHandler> handlerCreator) {
+        final Random random = new Random(SEED);
+        for (int i = 0; i < ITERATIONS; i++) {
+            final byte[] data = createDiff(random);
+            Assert.assertEquals(new String(data), check(allowInheritedEol, data),
+                    checkInChunks(handlerCreator.get(), data, random));
+        }
+    }
+
+    @Test
+    public void testStrictHandler() {
+        assertEquivalent(false, StrictEolHandler::new);
+    }
+
+    @Test
+    public void testInheritedStyleHandler() {
+        assertEquivalent(true, AllowInheritedStyleEolHandler::new);
+    }
+
+    @Test
+    public void testAllScanners() {
+        final Random random = new Random(SEED);
+        for (int i = 0; i < ITERATIONS; i++) {
+            final byte[] data = createSparseData(random);
+            final int from = data.length == 0 ? 0 : random.nextInt(data.length);
+            final int expected = NewlineScanner.SCALAR.indexOfNewline(data, from, data.length);
+            for (NewlineScanner scanner : NewlineScanner.values()) {
+                Assert.assertEquals(scanner.name(), expected, scanner.indexOfNewline(data,
+                        from, data.length));
+            }
+        }
+    }
+
+}
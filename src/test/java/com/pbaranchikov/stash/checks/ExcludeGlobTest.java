@@ -0,0 +1,98 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test, checking that {@link ExcludeGlob} is translated into the
+ * regular expression, matching the same paths, as git glob pathspec does.
+ * <br/>
+ * Expected results are taken from <code>git diff-tree</code> with the
+ * <code>:(exclude,glob)</code> pathspecs. Test resides in the package of the
+ * glob, as it is not public.
+ * @author Pavel Baranchikov
+ */
+public class ExcludeGlobTest {
+
+    private static final String[] PATHS = {"docs/a.txt", "docs/sub/b.md", "vendor/x.js",
+            "vendor/lib/x.js", "a/d.bat", "a/b/c/d.bat", "x.bat", "doc", "src/docs.txt",
+            "lib/a]b.txt", "lib/A.txt", "lib/z.txt", "sp ace/f.txt", "a.b/c.txt"};
+
+    private static void assertExcluded(String glob, String... excluded) {
+        final Pattern pattern = Pattern.compile(ExcludeGlob.toRegex(glob));
+        for (String path : PATHS) {
+            boolean expected = false;
+            for (String excludedPath : excluded) {
+                expected |= excludedPath.equals(path);
+            }
+            Assert.assertEquals(glob + " on " + path, expected, pattern.matcher(path).matches());
+        }
+    }
+
+    private static void assertRejected(String glob) {
+        try {
+            ExcludeGlob.toRegex(glob);
+            Assert.fail("Glob should be rejected: " + glob);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testLiteralExcludesSubtree() {
+        assertExcluded("docs", "docs/a.txt", "docs/sub/b.md");
+        assertExcluded("docs/", "docs/a.txt", "docs/sub/b.md");
+        assertExcluded("doc", "doc");
+        assertExcluded("sp ace", "sp ace/f.txt");
+        assertExcluded("a.b/c.txt", "a.b/c.txt");
+    }
+
+    @Test
+    public void testWildcardsMatchWholePath() {
+        assertExcluded("doc*", "doc");
+        assertExcluded("docs/*", "docs/a.txt");
+        assertExcluded("*.bat", "x.bat");
+        assertExcluded("?/d.bat", "a/d.bat");
+        assertExcluded("a?b/*", "a.b/c.txt");
+    }
+
+    @Test
+    public void testDoubleStar() {
+        assertExcluded("**/*.bat", "a/d.bat", "a/b/c/d.bat", "x.bat");
+        assertExcluded("vendor/**", "vendor/x.js", "vendor/lib/x.js");
+        assertExcluded("a/**/d.bat", "a/d.bat", "a/b/c/d.bat");
+        assertExcluded("**/c");
+        assertExcluded("**", PATHS);
+    }
+
+    @Test
+    public void testClasses() {
+        assertExcluded("lib/[A-Z].txt", "lib/A.txt");
+        assertExcluded("lib/[!A-Z].txt", "lib/z.txt");
+        assertExcluded("lib/a[]]b.txt", "lib/a]b.txt");
+        assertExcluded("lib/a\\]b.txt", "lib/a]b.txt");
+    }
+
+    @Test
+    public void testUnsupported() {
+        assertRejected("");
+        assertRejected("/docs");
+        assertRejected("docs//a.txt");
+        assertRejected("docs**/*.txt");
+        assertRejected("docs/[a-z");
+        assertRejected("docs/[[:alpha:]]*");
+        assertRejected("docs/a[/]b");
+        assertRejected("docs/*\\");
+    }
+
+    @Test
+    public void testPathspec() {
+        Assert.assertEquals(":(exclude,glob)**/*.bat", ExcludeGlob.toPathspec("**/*.bat"));
+        Assert.assertTrue(ExcludeGlob.isGlob("glob:docs"));
+        Assert.assertFalse(ExcludeGlob.isGlob("docs/.*"));
+        Assert.assertEquals("docs", ExcludeGlob.getGlob("glob:docs"));
+    }
+
+}
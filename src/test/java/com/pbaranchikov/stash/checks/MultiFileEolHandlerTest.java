@@ -0,0 +1,229 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.atlassian.utils.process.Watchdog;
+
+/**
+ * Unit test for {@link MultiFileEolHandler}, fed with the output of
+ * <code>git diff</code>, covering multiple files. <br/>
+ * Test resides in the package of the handler, as it is not public.
+ * @author Pavel Baranchikov
+ */
+public class MultiFileEolHandlerTest {
+
+    private static final String BIG = "big.txt";
+    private static final String WRONG = "wrong.txt";
+    private static final String RIGHT = "right.txt";
+    private static final int BIG_LINES = 100000;
+    private static final long SKIP_LIMIT = 64 * 1024;
+    private static final String INDEX = "index 1111111..2222222 100644\n";
+    private static final String HUNK = "@@ -1 +1 @@\n";
+    private static final String SPACE = "dir/with space.txt";
+    private static final String RENAMED = "new name.txt";
+    private static final String NON_ASCII = "\u0434.txt";
+    private static final String TAB = "tab\there.txt";
+    private static final String DELETED = "gone.txt";
+    /**
+     * Sections of the multi-file diff, with some unusual paths.
+     */
+    private static final Map<String, String> SECTIONS = new LinkedHashMap<>();
+
+    static {
+        SECTIONS.put(WRONG, "diff --git a/wrong.txt b/wrong.txt\n" + INDEX
+                + "--- a/wrong.txt\n+++ b/wrong.txt\n" + HUNK
+                + "-diff --git a/x b/x\n+diff --git a/x b/x\r\n");
+        SECTIONS.put(SPACE, "diff --git a/dir/with space.txt b/dir/with space.txt\n" + INDEX
+                + "--- a/dir/with space.txt\n+++ b/dir/with space.txt\n" + HUNK
+                + "-right\r\n+right\n");
+        SECTIONS.put(RENAMED, "diff --git a/old name.txt b/new name.txt\n"
+                + "similarity index 50%\nrename from old name.txt\nrename to new name.txt\n"
+                + INDEX + "--- a/old name.txt\n+++ b/new name.txt\n" + HUNK
+                + "-line\n+wrong\r\n");
+        SECTIONS.put(NON_ASCII, "diff --git \"a/\\320\\264.txt\" \"b/\\320\\264.txt\"\n"
+                + "new file mode 100644\nindex 0000000..2222222\n--- /dev/null\n"
+                + "+++ \"b/\\320\\264.txt\"\n@@ -0,0 +1 @@\n+wrong\r\n");
+        SECTIONS.put(TAB, "diff --git \"a/tab\\there.txt\" \"b/tab\\there.txt\"\n" + INDEX
+                + "--- \"a/tab\\there.txt\"\n+++ \"b/tab\\there.txt\"\n" + HUNK
+                + " context\r\n+wrong\r\n");
+        SECTIONS.put(DELETED, "diff --git a/gone.txt b/gone.txt\ndeleted file mode 100644\n"
+                + "index 1111111..0000000\n--- a/gone.txt\n+++ /dev/null\n"
+                + "@@ -1 +0,0 @@\n-deleted\r\n");
+    }
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private boolean watchdogCanceled;
+    private long readBytes;
+
+    private void addFile(String path, String... lines) {
+        write("diff --git a/" + path + " b/" + path + "\n");
+        write("index 1111111..2222222 100644\n");
+        write("--- a/" + path + "\n");
+        write("+++ b/" + path + "\n");
+        write("@@ -0,0 +1," + lines.length + " @@\n");
+        for (String line : lines) {
+            write(line);
+        }
+    }
+
+    private void write(String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.write(bytes, 0, bytes.length);
+    }
+
+    private static String[] bigFile() {
+        final String[] lines = new String[BIG_LINES];
+        Arrays.fill(lines, "+line\n");
+        lines[0] = "+wrong\r\n";
+        return lines;
+    }
+
+    private static Set<String> paths(String... paths) {
+        return new HashSet<>(Arrays.asList(paths));
+    }
+
+    /**
+     * Processes the diff, which first read returns <code>split</code> bytes
+     * at most, so the diff is split by the read buffers at that offset.
+     */
+    private static Collection<String> process(Set<String> paths, String diff, int split)
+            throws Exception {
+        final MultiFileEolHandler handler = new MultiFileEolHandler(StrictEolHandler::new,
+                paths);
+        final byte[] bytes = diff.getBytes(StandardCharsets.UTF_8);
+        handler.process(new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, pos < split ? Math.min(length, split - pos)
+                        : length);
+            }
+        });
+        handler.complete();
+        return handler.getOutput();
+    }
+
+    private MultiFileEolHandler process(Set<String> paths, long skipLimit) throws Exception {
+        final MultiFileEolHandler handler = new MultiFileEolHandler(StrictEolHandler::new,
+                paths, skipLimit);
+        handler.setWatchdog(new Watchdog() {
+            @Override
+            public void cancel() {
+                watchdogCanceled = true;
+            }
+
+            @Override
+            public void resetWatchdog() {
+            }
+        });
+        final InputStream input = new ByteArrayInputStream(output.toByteArray()) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                final int count = super.read(buffer, offset, length);
+                readBytes += Math.max(0, count);
+                return count;
+            }
+        };
+        handler.process(input);
+        handler.complete();
+        return handler;
+    }
+
+    @Test
+    public void testHugeFinishedSectionCanceled() throws Exception {
+        addFile(BIG, bigFile());
+        addFile(RIGHT, "+right\n");
+        addFile(WRONG, "+wrong\r\n");
+        final MultiFileEolHandler handler = process(paths(BIG, RIGHT, WRONG), SKIP_LIMIT);
+        Assert.assertTrue(handler.isCanceled());
+        Assert.assertTrue(watchdogCanceled);
+        Assert.assertTrue(readBytes < output.size() / 2);
+        Assert.assertEquals(Collections.singleton(BIG), handler.getOutput());
+        Assert.assertEquals(paths(RIGHT, WRONG), handler.getRemainingPaths());
+    }
+
+    @Test
+    public void testRestartedForRemainingPaths() throws Exception {
+        addFile(RIGHT, "+right\n");
+        addFile(WRONG, "+wrong\r\n", "+line\n");
+        final MultiFileEolHandler handler = process(paths(RIGHT, WRONG), SKIP_LIMIT);
+        Assert.assertEquals(Collections.singleton(WRONG), handler.getOutput());
+        Assert.assertTrue(handler.getRemainingPaths().isEmpty());
+    }
+
+    @Test
+    public void testSmallFinishedSectionSkipped() throws Exception {
+        addFile(WRONG, "+wrong\r\n", "+line\n");
+        addFile(BIG, bigFile());
+        addFile(RIGHT, "+right\n");
+        final MultiFileEolHandler handler = process(paths(BIG, RIGHT, WRONG), SKIP_LIMIT);
+        Assert.assertTrue(handler.isCanceled());
+        Assert.assertEquals(paths(BIG, WRONG), handler.getOutput());
+        Assert.assertEquals(Collections.singleton(RIGHT), handler.getRemainingPaths());
+    }
+
+    @Test
+    public void testLastFinishedSectionCanceled() throws Exception {
+        addFile(RIGHT, "+right\n");
+        addFile(BIG, bigFile());
+        final MultiFileEolHandler handler = process(paths(BIG, RIGHT), Long.MAX_VALUE);
+        Assert.assertTrue(handler.isCanceled());
+        Assert.assertTrue(readBytes < output.size() / 2);
+        Assert.assertEquals(Collections.singleton(BIG), handler.getOutput());
+        Assert.assertTrue(handler.getRemainingPaths().isEmpty());
+    }
+
+    @Test
+    public void testNotCanceledWithoutFinalVerdicts() throws Exception {
+        addFile(BIG, "+line\n");
+        addFile(RIGHT, "+right\n");
+        final MultiFileEolHandler handler = process(paths(BIG, RIGHT), 0);
+        Assert.assertFalse(handler.isCanceled());
+        Assert.assertFalse(watchdogCanceled);
+        Assert.assertEquals(output.size(), readBytes);
+        Assert.assertTrue(handler.getOutput().isEmpty());
+    }
+
+    @Test
+    public void testUnusualPathsParsed() throws Exception {
+        final String diff = String.join("", SECTIONS.values());
+        Assert.assertEquals(paths(WRONG, RENAMED, NON_ASCII, TAB), process(SECTIONS.keySet(),
+                diff, diff.length()));
+    }
+
+    @Test
+    public void testOldPathOfRenameIgnored() throws Exception {
+        Assert.assertTrue(process(paths("old name.txt"), SECTIONS.get(RENAMED), Integer.MAX_VALUE)
+                .isEmpty());
+    }
+
+    @Test
+    public void testSplitAtEveryOffset() throws Exception {
+        final Set<String> expected = new HashSet<>();
+        for (Entry<String, String> section : SECTIONS.entrySet()) {
+            expected.addAll(process(Collections.singleton(section.getKey()), section.getValue(),
+                    Integer.MAX_VALUE));
+        }
+        Assert.assertEquals(paths(WRONG, RENAMED, NON_ASCII, TAB), expected);
+        final String diff = String.join("", SECTIONS.values());
+        final int length = diff.getBytes(StandardCharsets.UTF_8).length;
+        for (int split = 0; split <= length; split++) {
+            Assert.assertEquals("Split at " + split, expected, process(SECTIONS.keySet(), diff,
+                    split));
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test, checking that {@link PatternAutomaton} matches exactly the
+ * same strings, as {@link Pattern#matches(String, CharSequence)} does. <br/>
+ * Test resides in the package of the automaton, as it is not public.
+ * @author Pavel Baranchikov
+ */
+public class PatternAutomatonTest {
+
+    private static final String[] PATHS = {"", "a", "src/Main.java", "src/main/java/A.java",
+            "docs/readme.txt", "docs/", "build.bat", "tools/run.cmd", "win/x.BAT", "a.b.c",
+            "dir with spaces/file", "line\nbreak", "cr\rfile", "tab\tfile", "x\u0085y",
+            "\u0444\u0430\u0439\u043b.txt", "emoji\uD83D\uDE00.txt", "lone\uD83Dsurrogate",
+            "123", "a1b2", "_under", "-dash", "[brackets]", "{braces}", "a+b", "a|b", "$dollar",
+            "^caret", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaac", "vendor/lib/x.min.js"};
+
+    private static final String[] SUPPORTED = {"", "a", ".*", ".*\\.bat", ".*\\.(bat|cmd)",
+            "docs/.*", "^docs/.*$", "(?:src|docs)/.*", "[a-z]+", "[^/]*", "[-a]+", "[a-]+",
+            "[\\w.]+", "\\d+", "\\D*", "\\s*|\\S*", "\\W.*", "a{2,3}", "a{0}", "a{2,}", "a{3}",
+            ".{0,5}", "a*?", "a+?c", "a??", "(a|)+c", "()*", "(a*)*c", "(a+)+b", "x.y",
+            "emoji..txt", "emoji.\\.txt", "[\uD83D\uDE00]", ".*[\u0430-\u044f]+\\.txt",
+            "\\t|\\n|\\r|\\f|\\a|\\e", "\\$dollar", "\\^caret", "a\\+b", "a\\|b", "]", "}",
+            "\\[brackets\\]", "[\\[\\]]+", "\\{braces\\}", "(.*/)?x\\.min\\.js",
+            "[ -~]*", "[^\\n]*", "line.break", "cr.file", "x.y", "[\\t ]+file", "[0-9&]+"};
+
+    private static final String[] UNSUPPORTED = {"(a)\\1", "(?=a).*", "(?!a).*", "a*+",
+            "(?i)a.*", "\\p{L}+", "\\bword", "[a-z&&[^b]]+", "\\Qa.b\\E", "a$|b", "(^a)",
+            "\\x41", "\\u0041.*", "[a[b]]", "\\Ga"};
+
+    private static final char[] REGEX_ALPHABET = {'a', 'b', '/', '.', '*', '+', '?', '|',
+            '(', ')', '[', ']', '^', '-', '\\', 'd', 'w', 's', '{', '}', '1', '2', ',', '$'};
+    private static final String[] STRING_ALPHABET = {"a", "b", "/", ".", "-", "1", " ", "\n",
+            "\r", "\u0444", "\uD83D\uDE00", "\u2028", "_", "d", "w"};
+    private static final int ITERATIONS = 3000;
+    private static final int STRINGS_PER_REGEX = 20;
+    private static final int MAX_REGEX_LENGTH = 12;
+    private static final int MAX_STRING_LENGTH = 10;
+    private static final int MAX_PATTERNS = 4;
+    private static final int LONG_PATH_LENGTH = 100000;
+    private static final int TINY_DFA = 64;
+    private static final int THREADS = 8;
+    private static final long SEED = 20161029L;
+
+    private static void assertSameMatches(Collection<Pattern> patterns, String path) {
+        boolean expected = false;
+        for (Pattern pattern : patterns) {
+            expected |= pattern.matcher(path).matches();
+        }
+        Assert.assertEquals("Patterns " + patterns + " on \"" + path + "\"", expected,
+                PatternAutomaton.compile(patterns).matches(path));
+    }
+
+    private static List<Pattern> compile(String... regexes) {
+        final List<Pattern> patterns = new ArrayList<>();
+        for (String regex : regexes) {
+            patterns.add(Pattern.compile(regex));
+        }
+        return patterns;
+    }
+
+    @Test
+    public void testSingleSupportedPatterns() {
+        for (String regex : SUPPORTED) {
+            final List<Pattern> patterns = compile(regex);
+            for (String path : PATHS) {
+                assertSameMatches(patterns, path);
+            }
+        }
+    }
+
+    @Test
+    public void testSingleUnsupportedPatterns() {
+        for (String regex : UNSUPPORTED) {
+            final List<Pattern> patterns = compile(regex);
+            Assert.assertFalse(regex, PatternAutomaton.compile(patterns).isFullyCompiled());
+            for (String path : PATHS) {
+                assertSameMatches(patterns, path);
+            }
+        }
+    }
+
+    @Test
+    public void testAllPatternsCombined() {
+        final List<Pattern> patterns = compile(SUPPORTED);
+        final PatternAutomaton automaton = PatternAutomaton.compile(patterns);
+        Assert.assertTrue(automaton.isFullyCompiled());
+        final List<Pattern> mixed = new ArrayList<>(patterns);
+        mixed.addAll(compile(UNSUPPORTED));
+        for (String path : PATHS) {
+            assertSameMatches(patterns, path);
+            assertSameMatches(mixed, path);
+        }
+    }
+
+    @Test
+    public void testFlagsAreFallback() {
+        final List<Pattern> patterns = Collections.singletonList(Pattern.compile(".*\\.BAT",
+                Pattern.CASE_INSENSITIVE));
+        Assert.assertFalse(PatternAutomaton.compile(patterns).isFullyCompiled());
+        assertSameMatches(patterns, "build.bat");
+        assertSameMatches(patterns, "tools/run.cmd");
+    }
+
+    @Test
+    public void testNoPatterns() {
+        final PatternAutomaton automaton = PatternAutomaton.compile(Collections
+                .<Pattern> emptyList());
+        Assert.assertFalse(automaton.matches(""));
+        Assert.assertFalse(automaton.matches("a"));
+    }
+
+    @Test(timeout = 10000)
+    public void testNoCatastrophicBacktracking() {
+        final PatternAutomaton automaton = PatternAutomaton.compile(compile("(a+)+b",
+                "(a|aa)*c", "(.*a){20}"));
+        Assert.assertTrue(automaton.isFullyCompiled());
+        final char[] path = new char[LONG_PATH_LENGTH];
+        Arrays.fill(path, 'a');
+        path[path.length - 1] = 'x';
+        Assert.assertFalse(automaton.matches(new String(path)));
+        path[path.length - 1] = 'b';
+        Assert.assertTrue(automaton.matches(new String(path)));
+    }
+
+    @Test
+    public void testDfaOverflow() {
+        final List<Pattern> patterns = compile(SUPPORTED);
+        final PatternAutomaton automaton = PatternAutomaton.compile(patterns, TINY_DFA);
+        for (int i = 0; i < 2; i++) {
+            for (String path : PATHS) {
+                boolean expected = false;
+                for (Pattern pattern : patterns) {
+                    expected |= pattern.matcher(path).matches();
+                }
+                Assert.assertEquals(path, expected, automaton.matches(path));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentMatching() throws Exception {
+        final PatternAutomaton automaton = PatternAutomaton.compile(compile(SUPPORTED));
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> countMatches(automaton)));
+            }
+            final int expected = countMatches(PatternAutomaton.compile(compile(SUPPORTED)));
+            for (Future<Integer> future : futures) {
+                Assert.assertEquals(expected, future.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int countMatches(PatternAutomaton automaton) {
+        final Random random = new Random(SEED);
+        int count = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (automaton.matches(randomString(random))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testRandomPatterns() {
+        final Random random = new Random(SEED);
+        int compiled = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final List<Pattern> patterns = new ArrayList<>();
+            final int count = 1 + random.nextInt(MAX_PATTERNS);
+            for (int j = 0; j < count; j++) {
+                final Pattern pattern = randomPattern(random);
+                if (pattern != null) {
+                    patterns.add(pattern);
+                }
+            }
+            if (PatternAutomaton.compile(patterns).isFullyCompiled()) {
+                compiled++;
+            }
+            for (int j = 0; j < STRINGS_PER_REGEX; j++) {
+                assertSameMatches(patterns, randomString(random));
+            }
+        }
+        Assert.assertTrue("Too few patterns compiled: " + compiled, compiled > ITERATIONS / 2);
+    }
+
+    private static Pattern randomPattern(Random random) {
+        final StringBuilder regex = new StringBuilder();
+        final int length = random.nextInt(MAX_REGEX_LENGTH);
+        for (int i = 0; i < length; i++) {
+            regex.append(REGEX_ALPHABET[random.nextInt(REGEX_ALPHABET.length)]);
+        }
+        try {
+            return Pattern.compile(regex.toString());
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+    }
+
+    private static String randomString(Random random) {
+        final StringBuilder result = new StringBuilder();
+        final int length = random.nextInt(MAX_STRING_LENGTH);
+        for (int i = 0; i < length; i++) {
+            result.append(STRING_ALPHABET[random.nextInt(STRING_ALPHABET.length)]);
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.pbaranchikov.stash.checks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link RawLogHandler}, fed with the output of
+ * <code>git log --raw -c -z --no-renames --no-abbrev --root --format=%H</code>
+ * of the history: root commit, adding <code>lf.txt</code> and
+ * <code>crlf.txt</code>, commit with no changes, commits of two branches and
+ * the merge commit, changing <code>lf.txt</code> against both parents. <br/>
+ * Test resides in the package of the handler, as it is not public.
+ * @author Pavel Baranchikov
+ */
+public class RawLogHandlerTest {
+
+    private static final String MERGE = "0adc00c19cdfec0d22a46b3955b158fca21c6948";
+    private static final String MAIN = "ed24b186c24396f28fad2bca5b335941c40d4fbf";
+    private static final String SIDE = "e832c1823b4aa0145facd0af0cb4046d3685ae9e";
+    private static final String EMPTY = "dec90bd562e76a50d464b7c86db54da2c2e943c6";
+    private static final String ROOT = "208cbf0b5be11170d16e10d1ef9ea6e6681e0186";
+    private static final String LF_ROOT = "78981922613b2afb6025042ff6bd878ac1994e85";
+    private static final String LF_SIDE = "ef034634125f775ced1c97b7104ce07955d04822";
+    private static final String LF_MERGE = "ed8d5462042dd62c9d659141ff7a061800e78f72";
+    private static final String SPACE = "f2ad6c76f0115a6ba5b00456a849810e7ec0af20";
+    private static final String CRLF = "485540d7ad7473f697234cebe0b55016c5dc1b40";
+    private static final String LF_PATH = "lf.txt";
+    private static final String SPACE_PATH = "sp ace.txt";
+
+    private static final String OUTPUT = MERGE + "\0\0::100644 100644 100644 " + LF_ROOT + " "
+            + LF_SIDE + " " + LF_MERGE + " MM\0lf.txt\0"
+            + MAIN + "\0\n:000000 100644 " + Constants.NON_ID + " " + SPACE + " A\0sp ace.txt\0"
+            + SIDE + "\0\n:100644 100644 " + LF_ROOT + " " + LF_SIDE + " M\0lf.txt\0"
+            + EMPTY + "\0"
+            + ROOT + "\0\n:000000 100644 " + Constants.NON_ID + " " + CRLF + " A\0crlf.txt\0"
+            + ":000000 100644 " + Constants.NON_ID + " " + LF_ROOT + " A\0lf.txt\0";
+
+    private final List<Map<String, List<ChangedFile>>> batches = new ArrayList<>();
+
+    private RawLogHandler process(String output, int batchSize) throws Exception {
+        final RawLogHandler handler = new RawLogHandler(batches::add, batchSize);
+        handler.process(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+        return handler;
+    }
+
+    private static void assertChanges(List<ChangedFile> changes, String... expected) {
+        final List<String> actual = new ArrayList<>();
+        for (ChangedFile change : changes) {
+            actual.add(change.toString());
+        }
+        Assert.assertEquals(Arrays.asList(expected), actual);
+    }
+
+    @Test
+    public void testHistory() throws Exception {
+        Assert.assertEquals(5L, (long) process(OUTPUT, Integer.MAX_VALUE).getOutput());
+        Assert.assertEquals(1, batches.size());
+        final Map<String, List<ChangedFile>> batch = batches.get(0);
+        Assert.assertEquals(Arrays.asList(MERGE + "^1", MERGE + "^2", MAIN, SIDE, ROOT),
+                new ArrayList<>(batch.keySet()));
+        assertChanges(batch.get(MERGE + "^1"), LF_PATH + " " + LF_ROOT + ".." + LF_MERGE);
+        assertChanges(batch.get(MERGE + "^2"), LF_PATH + " " + LF_SIDE + ".." + LF_MERGE);
+        assertChanges(batch.get(MAIN), SPACE_PATH + " " + Constants.NON_ID + ".." + SPACE);
+        assertChanges(batch.get(SIDE), LF_PATH + " " + LF_ROOT + ".." + LF_SIDE);
+        assertChanges(batch.get(ROOT), "crlf.txt " + Constants.NON_ID + ".." + CRLF,
+                LF_PATH + " " + Constants.NON_ID + ".." + LF_ROOT);
+    }
+
+    @Test
+    public void testMergeParentsInSameBatch() throws Exception {
+        process(OUTPUT, 1);
+        Assert.assertEquals(Arrays.asList(MERGE + "^1", MERGE + "^2"), new ArrayList<>(
+                batches.get(0).keySet()));
+        Assert.assertEquals(5, batches.size());
+    }
+
+    @Test
+    public void testEmptyOutput() throws Exception {
+        Assert.assertEquals(0L, (long) process("", 1).getOutput());
+        Assert.assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    public void testRevisions() {
+        Assert.assertEquals(MAIN, RawLogHandler.getCommit(MAIN));
+        Assert.assertEquals(MAIN + "^", RawLogHandler.getParent(MAIN));
+        Assert.assertEquals(MERGE, RawLogHandler.getCommit(MERGE + "^2"));
+        Assert.assertEquals(MERGE + "^2", RawLogHandler.getParent(MERGE + "^2"));
+    }
+
+    @Test
+    public void testMergeWrongAgainstAllParents() throws Exception {
+        process(OUTPUT, Integer.MAX_VALUE);
+        final Map<String, Collection<String>> wrongPaths = new HashMap<>();
+        wrongPaths.put(MERGE + "^1", new HashSet<>(Arrays.asList(LF_PATH)));
+        wrongPaths.put(MERGE + "^2", new HashSet<>(Arrays.asList(LF_PATH)));
+        wrongPaths.put(ROOT, new HashSet<>(Arrays.asList("crlf.txt")));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(LF_PATH, "crlf.txt")),
+                EolCheckHook.combineParents(batches.get(0).keySet(), wrongPaths));
+    }
+
+    @Test
+    public void testMergeWrongAgainstOneParent() throws Exception {
+        process(OUTPUT, Integer.MAX_VALUE);
+        // Lines, brought by the second parent, are added against the first one
+        final Map<String, Collection<String>> wrongPaths = new LinkedHashMap<>();
+        wrongPaths.put(MERGE + "^1", new HashSet<>(Arrays.asList(LF_PATH)));
+        wrongPaths.put(SIDE, new HashSet<>(Arrays.asList(LF_PATH)));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(LF_PATH)), EolCheckHook.combineParents(
+                batches.get(0).keySet(), wrongPaths));
+        wrongPaths.remove(SIDE);
+        Assert.assertTrue(EolCheckHook.combineParents(batches.get(0).keySet(), wrongPaths)
+                .isEmpty());
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link SingleFlight}.
+ * @author Pavel Baranchikov
+ */
+public class SingleFlightTest {
+
+    private static final String KEY = "key";
+    private static final long TIMEOUT_MINUTES = 1;
+
+    private SingleFlight<String, String> flights;
+    private ExecutorService executor;
+    private CountDownLatch started;
+    private CountDownLatch release;
+    private AtomicInteger computations;
+    private Map<String, String> cache;
+
+    @Before
+    public void createFlights() {
+        flights = new SingleFlight<>();
+        executor = Executors.newSingleThreadExecutor();
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        computations = new AtomicInteger();
+        cache = new ConcurrentHashMap<>();
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts the blocked computation of the key in another thread. Computed
+     * value is cached.
+     */
+    private Future<String> startBlocked(String key, boolean fail) throws InterruptedException {
+        final Future<String> result = executor.submit(() -> flights.execute(key,
+                () -> cache.get(key), () -> {
+                    computations.incrementAndGet();
+                    started.countDown();
+                    await(release);
+                    if (fail) {
+                        throw new IllegalStateException();
+                    }
+                    cache.put(key, "leader");
+                    return "leader";
+                }));
+        Assert.assertTrue(started.await(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+        return result;
+    }
+
+    /**
+     * Releases the blocked computation as soon as the caller joins it.
+     */
+    private void releaseOnJoin() {
+        final Thread releaser = new Thread(() -> {
+            while (flights.getJoinCount() == 0) {
+                Thread.yield();
+            }
+            release.countDown();
+        });
+        releaser.start();
+    }
+
+    /**
+     * Computes the key without caching the value.
+     */
+    private String follow(String key) {
+        return flights.execute(key, () -> cache.get(key), () -> {
+            computations.incrementAndGet();
+            return "follower";
+        });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            Assert.assertTrue(latch.await(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testConcurrentCallersJoin() throws Exception {
+        final Future<String> leader = startBlocked(KEY, false);
+        releaseOnJoin();
+        Assert.assertEquals("leader", follow(KEY));
+        Assert.assertEquals("leader", leader.get(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+        Assert.assertEquals(1, computations.get());
+        Assert.assertEquals(1, flights.getJoinCount());
+        Assert.assertEquals(0, flights.getRunningCount());
+    }
+
+    @Test
+    public void testOtherKeyNotJoined() throws Exception {
+        final Future<String> leader = startBlocked(KEY, false);
+        Assert.assertEquals("follower", follow("other"));
+        release.countDown();
+        Assert.assertEquals("leader", leader.get(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+        Assert.assertEquals(2, computations.get());
+        Assert.assertEquals(0, flights.getJoinCount());
+    }
+
+    @Test
+    public void testFailedComputationRecomputed() throws Exception {
+        final Future<String> leader = startBlocked(KEY, true);
+        releaseOnJoin();
+        Assert.assertEquals("follower", follow(KEY));
+        try {
+            leader.get(TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            Assert.fail("Exception expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(2, computations.get());
+    }
+
+    @Test
+    public void testSequentialCallsComputed() {
+        Assert.assertEquals("follower", follow(KEY));
+        Assert.assertEquals("follower", follow(KEY));
+        Assert.assertEquals(2, computations.get());
+        Assert.assertEquals(0, flights.getRunningCount());
+    }
+
+    @Test
+    public void testFinishedComputationNotRepeated() throws Exception {
+        final Future<String> leader = startBlocked(KEY, false);
+        // Caller misses the cache, while the computation is still running...
+        Assert.assertNull(cache.get(KEY));
+        // ...and starts its own one just after the running one finishes
+        release.countDown();
+        Assert.assertEquals("leader", leader.get(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+        Assert.assertEquals(0, flights.getRunningCount());
+        Assert.assertEquals("leader", follow(KEY));
+        Assert.assertEquals(1, computations.get());
+        Assert.assertEquals(0, flights.getJoinCount());
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.pbaranchikov.stash.checks;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link SizeBalancer}. <br/>
+ * Test resides in the package of the balancer, as it is not public.
+ * @author Pavel Baranchikov
+ */
+public class SizeBalancerTest {
+
+    private static Map<String, Long> sizes(long... sizes) {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (long size : sizes) {
+            result.put("f" + size, size);
+        }
+        return result;
+    }
+
+    /**
+     * Items are added the largest first: 10, 6, 5 (to 6), 4 (to 10) and 2
+     * (to 11).
+     */
+    @Test
+    public void testLargestFirst() {
+        final List<Collection<String>> bins = SizeBalancer.balance(sizes(2, 5, 10, 4, 6), 2);
+        Assert.assertEquals(Arrays.asList(Arrays.asList("f10", "f4"), Arrays.asList("f6",
+                "f5", "f2")), bins);
+    }
+
+    @Test
+    public void testMostLoadedFirst() {
+        final List<Collection<String>> bins = SizeBalancer.balance(sizes(1, 3, 2), 8);
+        Assert.assertEquals(Arrays.asList(Collections.singletonList("f3"), Collections
+                .singletonList("f2"), Collections.singletonList("f1")), bins);
+    }
+
+    @Test
+    public void testSingleBin() {
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("f3", "f2", "f1")),
+                SizeBalancer.balance(sizes(1, 3, 2), 1));
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("f3", "f2", "f1")),
+                SizeBalancer.balance(sizes(1, 3, 2), 0));
+    }
+
+    @Test
+    public void testEmptyBinsDropped() {
+        Assert.assertEquals(Collections.emptyList(), SizeBalancer.balance(
+                Collections.<String, Long>emptyMap(), 4));
+    }
+
+}
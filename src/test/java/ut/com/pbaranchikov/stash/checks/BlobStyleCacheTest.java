@@ -0,0 +1,81 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pbaranchikov.stash.checks.BlobEolStyle;
+import com.pbaranchikov.stash.checks.BlobStyleCache;
+
+/**
+ * Unit test for blob EOL-style cache {@link BlobStyleCache}.
+ * @author Pavel Baranchikov
+ */
+public class BlobStyleCacheTest {
+
+    private static final String BLOB_ID = "8ba3a16384aacc37d01564b28401755ce8053f51";
+    private static final int CACHE_SIZE = 64;
+
+    private BlobStyleCache cache;
+
+    @Before
+    public void createCache() {
+        cache = new BlobStyleCache(CACHE_SIZE);
+    }
+
+    private static String getBlobId(int number) {
+        return String.format("%040x", number);
+    }
+
+    @Test
+    public void testMissAndHit() {
+        Assert.assertNull(cache.get(BLOB_ID));
+        cache.put(BLOB_ID, BlobEolStyle.HAS_CR);
+        Assert.assertEquals(BlobEolStyle.HAS_CR, cache.get(BLOB_ID));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testUpdate() {
+        cache.put(BLOB_ID, BlobEolStyle.HAS_CR);
+        cache.put(BLOB_ID, BlobEolStyle.BINARY);
+        Assert.assertEquals(BlobEolStyle.BINARY, cache.get(BLOB_ID));
+        Assert.assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testMalformedId() {
+        cache.put("HEAD", BlobEolStyle.LF_ONLY);
+        Assert.assertNull(cache.get("HEAD"));
+        Assert.assertNull(cache.get(BLOB_ID.toUpperCase().replace('A', 'X')));
+    }
+
+    @Test
+    public void testBounded() {
+        final int count = cache.getCapacity() * 4;
+        for (int i = 0; i < count; i++) {
+            cache.put(getBlobId(i), BlobEolStyle.LF_ONLY);
+        }
+        int cached = 0;
+        for (int i = 0; i < count; i++) {
+            if (cache.get(getBlobId(i)) != null) {
+                cached++;
+            }
+        }
+        Assert.assertTrue(cached <= cache.getCapacity());
+        Assert.assertEquals(count - cached, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testReferencedSurvive() {
+        final String hot = getBlobId(0);
+        cache.put(hot, BlobEolStyle.HAS_CR);
+        for (int i = 1; i < cache.getCapacity() * 4; i++) {
+            cache.get(hot);
+            cache.put(getBlobId(i), BlobEolStyle.LF_ONLY);
+        }
+        Assert.assertEquals(BlobEolStyle.HAS_CR, cache.get(hot));
+    }
+
+}
@@ -0,0 +1,84 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pbaranchikov.stash.checks.CheckExecutor;
+
+/**
+ * Unit tests for {@link CheckExecutor}.
+ * @author Pavel Baranchikov
+ */
+public class CheckExecutorTest {
+
+    private CheckExecutor executor;
+
+    @Before
+    public void createExecutor() {
+        executor = new CheckExecutor();
+    }
+
+    @After
+    public void destroyExecutor() {
+        executor.destroy();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            Assert.assertTrue(latch.await(1, TimeUnit.MINUTES));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The first task finishes last, but its result still goes first.
+     */
+    @Test
+    public void testResultsInTaskOrder() {
+        final CountDownLatch finished = new CountDownLatch(2);
+        final List<Supplier<String>> tasks = Arrays.asList(() -> {
+            await(finished);
+            return "first";
+        }, () -> {
+            finished.countDown();
+            return "second";
+        }, () -> {
+            finished.countDown();
+            return "third";
+        });
+        Assert.assertEquals(Arrays.asList("first", "second", "third"),
+                executor.invokeAll(tasks));
+    }
+
+    @Test
+    public void testEmptyTasks() {
+        Assert.assertEquals(Collections.emptyList(), executor.invokeAll(
+                Collections.<Supplier<String>>emptyList()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testExceptionOfFirstTaskRethrown() {
+        executor.invokeAll(Arrays.<Supplier<String>>asList(() -> {
+            throw new UnsupportedOperationException();
+        }, () -> "second"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testExceptionOfPooledTaskRethrown() {
+        executor.invokeAll(Arrays.<Supplier<String>>asList(() -> "first", () -> {
+            throw new UnsupportedOperationException();
+        }));
+    }
+
+}
@@ -0,0 +1,80 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.pbaranchikov.stash.checks.CommitLedger;
+import com.pbaranchikov.stash.checks.EolCheckPolicy;
+
+/**
+ * Unit tests for {@link CommitLedger}.
+ * @author Pavel Baranchikov
+ */
+public class CommitLedgerTest {
+
+    private static final String BASE = "1111111111111111111111111111111111111111";
+    private static final String FIRST = "2222222222222222222222222222222222222222";
+    private static final String SECOND = "3333333333333333333333333333333333333333";
+    private static final String OTHER = "4444444444444444444444444444444444444444";
+
+    private CommitLedger ledger;
+    private EolCheckPolicy policy;
+    private Repository repository;
+
+    @Before
+    public void createLedger() {
+        ledger = new CommitLedger(16);
+        policy = TestObjects.createPolicy(false);
+        repository = TestObjects.createRepository(1);
+    }
+
+    @Test
+    public void testChainOfPushesAccepted() {
+        ledger.addAccepted(repository, BASE, FIRST, policy);
+        ledger.addAccepted(repository, FIRST, SECOND, policy);
+        Assert.assertTrue(ledger.isAccepted(repository, BASE, SECOND, policy));
+        Assert.assertTrue(ledger.isAccepted(repository, FIRST, SECOND, policy));
+        Assert.assertEquals(2, ledger.getHitCount());
+    }
+
+    @Test
+    public void testBrokenChainNotAccepted() {
+        ledger.addAccepted(repository, FIRST, SECOND, policy);
+        Assert.assertFalse(ledger.isAccepted(repository, BASE, SECOND, policy));
+        Assert.assertFalse(ledger.isAccepted(repository, BASE, OTHER, policy));
+        Assert.assertEquals(2, ledger.getMissCount());
+    }
+
+    @Test
+    public void testNewHistoryAccepted() {
+        ledger.addAccepted(repository, null, FIRST, policy);
+        ledger.addAccepted(repository, FIRST, SECOND, policy);
+        Assert.assertTrue(ledger.isAccepted(repository, OTHER, SECOND, policy));
+    }
+
+    @Test
+    public void testOtherPolicyOrRepositoryNotAccepted() {
+        ledger.addAccepted(repository, BASE, FIRST, policy);
+        Assert.assertFalse(ledger.isAccepted(repository, BASE, FIRST,
+                TestObjects.createPolicy(true)));
+        Assert.assertFalse(ledger.isAccepted(TestObjects.createRepository(2), BASE, FIRST, policy));
+    }
+
+    @Test
+    public void testCycleTerminates() {
+        ledger.addAccepted(repository, FIRST, SECOND, policy);
+        ledger.addAccepted(repository, SECOND, FIRST, policy);
+        Assert.assertFalse(ledger.isAccepted(repository, BASE, SECOND, policy));
+    }
+
+    @Test
+    public void testDisabled() {
+        final CommitLedger disabled = new CommitLedger(0);
+        disabled.addAccepted(repository, BASE, FIRST, policy);
+        Assert.assertFalse(disabled.isAccepted(repository, BASE, FIRST, policy));
+        Assert.assertEquals(0, disabled.getSize());
+    }
+
+}
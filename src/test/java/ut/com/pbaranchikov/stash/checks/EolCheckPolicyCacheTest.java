@@ -0,0 +1,107 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.atlassian.bitbucket.event.hook.RepositoryHookSettingsChangedEvent;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.event.api.EventPublisher;
+import com.pbaranchikov.stash.checks.BlobSizePolicy;
+import com.pbaranchikov.stash.checks.BlobSizePolicy.Oversize;
+import com.pbaranchikov.stash.checks.EolCheckPolicy;
+import com.pbaranchikov.stash.checks.EolCheckPolicyCache;
+
+/**
+ * Unit tests for {@link EolCheckPolicyCache}.
+ * @author Pavel Baranchikov
+ */
+public class EolCheckPolicyCacheTest {
+
+    private static final String EXCLUDE_FILES = ".*\\.bat,docs/.*";
+    private static final String PLUGIN_KEY = "com.pbaranchikov.stash-eol-check";
+    private static final long MAX_SIZE = 1024;
+    private static final int SAMPLE_SIZE = 16;
+
+    private EolCheckPolicyCache cache;
+
+    @Before
+    public void createCache() {
+        cache = createCache(new BlobSizePolicy(MAX_SIZE, Oversize.SKIP, SAMPLE_SIZE));
+    }
+
+    private static EolCheckPolicyCache createCache(BlobSizePolicy sizePolicy) {
+        return new EolCheckPolicyCache(Mockito.mock(EventPublisher.class), sizePolicy);
+    }
+
+    private static RepositoryHookSettingsChangedEvent createEvent(String hookKey) {
+        final RepositoryHookSettingsChangedEvent event = Mockito
+                .mock(RepositoryHookSettingsChangedEvent.class);
+        Mockito.when(event.getRepositoryHookKey()).thenReturn(hookKey);
+        return event;
+    }
+
+    @Test
+    public void testEqualSettingsShared() {
+        final EolCheckPolicy policy = cache.getPolicy(TestObjects.createSettings(false,
+                EXCLUDE_FILES));
+        Assert.assertSame(policy, cache.getPolicy(TestObjects.createSettings(false,
+                EXCLUDE_FILES)));
+        Assert.assertTrue(policy.isExcluded("run.bat"));
+        Assert.assertTrue(policy.isExcluded("docs/readme.txt"));
+        Assert.assertFalse(policy.isExcluded("src/run.sh"));
+    }
+
+    @Test
+    public void testDifferentSettingsNotShared() {
+        final EolCheckPolicy policy = cache.getPolicy(TestObjects.createSettings(false,
+                EXCLUDE_FILES));
+        Assert.assertNotSame(policy, cache.getPolicy(TestObjects.createSettings(true,
+                EXCLUDE_FILES)));
+        Assert.assertNotSame(policy, cache.getPolicy(TestObjects.createSettings(false, null)));
+        Assert.assertFalse(cache.getPolicy(TestObjects.createSettings(false, null)).isExcluded(
+                "run.bat"));
+    }
+
+    @Test
+    public void testClearedOnSettingsChange() {
+        final EolCheckPolicy policy = cache.getPolicy(TestObjects.createSettings(false,
+                EXCLUDE_FILES));
+        cache.onSettingsChanged(createEvent(PLUGIN_KEY + ":stash-check-eol-hook"));
+        final EolCheckPolicy newPolicy = cache.getPolicy(TestObjects.createSettings(false,
+                EXCLUDE_FILES));
+        Assert.assertNotSame(policy, newPolicy);
+        Assert.assertEquals(policy, newPolicy);
+    }
+
+    @Test
+    public void testNotClearedOnForeignSettingsChange() {
+        final EolCheckPolicy policy = cache.getPolicy(TestObjects.createSettings(false,
+                EXCLUDE_FILES));
+        cache.onSettingsChanged(createEvent("com.example.plugin:some-hook"));
+        Assert.assertSame(policy, cache.getPolicy(TestObjects.createSettings(false,
+                EXCLUDE_FILES)));
+    }
+
+    @Test
+    public void testBlobSizePolicyFingerprinted() {
+        final Settings settings = TestObjects.createSettings(false, EXCLUDE_FILES);
+        final EolCheckPolicy policy = cache.getPolicy(settings);
+        Assert.assertEquals(policy.getFingerprint(), createCache(new BlobSizePolicy(MAX_SIZE,
+                Oversize.SKIP, SAMPLE_SIZE * 2)).getPolicy(settings).getFingerprint());
+        final EolCheckPolicy[] others = {
+            createCache(new BlobSizePolicy(MAX_SIZE * 2, Oversize.SKIP, SAMPLE_SIZE))
+                    .getPolicy(settings),
+            createCache(new BlobSizePolicy(MAX_SIZE, Oversize.SAMPLE, SAMPLE_SIZE))
+                    .getPolicy(settings),
+            createCache(new BlobSizePolicy(MAX_SIZE, Oversize.SCAN, SAMPLE_SIZE))
+                    .getPolicy(settings),
+        };
+        for (EolCheckPolicy other : others) {
+            Assert.assertNotEquals(policy, other);
+            Assert.assertNotEquals(policy.getFingerprint(), other.getFingerprint());
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.pbaranchikov.stash.checks.GitProcessGovernor;
+
+/**
+ * Unit test for git process governor {@link GitProcessGovernor}.
+ * @author Pavel Baranchikov
+ */
+public class GitProcessGovernorTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private GitProcessGovernor governor;
+    private Repository repo1;
+    private Repository repo2;
+    private List<String> executed;
+
+    @Before
+    public void createGovernor() {
+        governor = new GitProcessGovernor(1);
+        repo1 = TestObjects.createRepository(1);
+        repo2 = TestObjects.createRepository(2);
+        executed = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    private Thread enqueue(Repository repository, String name) throws InterruptedException {
+        final int queued = governor.getQueuedCount();
+        final Thread thread = new Thread(() -> governor.call(repository, () -> executed
+                .add(name)));
+        thread.start();
+        while (governor.getQueuedCount() == queued) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testRepositoriesServedInTurn() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> governor.call(repo1, () -> {
+            started.countDown();
+            return await(release);
+        }));
+        holder.start();
+        Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        final Collection<Thread> threads = Arrays.asList(enqueue(repo1, "1a"),
+                enqueue(repo1, "1b"), enqueue(repo1, "1c"), enqueue(repo2, "2a"));
+        Assert.assertEquals(1, governor.getInFlightCount());
+        release.countDown();
+        holder.join();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(Arrays.asList("1a", "2a", "1b", "1c"), executed);
+        Assert.assertEquals(0, governor.getInFlightCount());
+        Assert.assertEquals(4, governor.getWaitCount());
+        Assert.assertEquals(5, governor.getCommandCount());
+    }
+
+    @Test
+    public void testExceptionReleasesProcess() {
+        try {
+            governor.call(repo1, () -> {
+                throw new IllegalStateException();
+            });
+            Assert.fail("Exception expected");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(0, governor.getInFlightCount());
+        }
+        Assert.assertEquals(Boolean.TRUE, governor.call(repo2, () -> Boolean.TRUE));
+    }
+
+    @Test
+    public void testNestedCommandRunsAtOnce() {
+        Assert.assertEquals("nested", governor.call(repo1, () -> governor.call(repo2,
+                () -> "nested")));
+        Assert.assertEquals(0, governor.getInFlightCount());
+        Assert.assertEquals(1, governor.getCommandCount());
+    }
+
+}
@@ -97,4 +97,26 @@ public class HookSettingsValidatorTest {
         Mockito.verify(errors).addFieldError(Mockito.anyString(), Mockito.anyString());
     }
 
+    @Test
+    public void testGlobCorrect() {
+        setPattern("glob:docs,glob:**/*.bat,glob:vendor/[!a]*/**,file.*");
+        validator.validate(settings, errors, new RepositoryScope(repo));
+        Mockito.verify(errors, Mockito.never()).addFieldError(Mockito.anyString(),
+                Mockito.anyString());
+    }
+
+    @Test
+    public void testGlobInCorrect() {
+        setPattern("file.*,glob:docs/[a-z");
+        validator.validate(settings, errors, new RepositoryScope(repo));
+        Mockito.verify(errors).addFieldError(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void testGlobUnsupported() {
+        setPattern("glob:docs**/*.txt");
+        validator.validate(settings, errors, new RepositoryScope(repo));
+        Mockito.verify(errors).addFieldError(Mockito.anyString(), Mockito.anyString());
+    }
+
 }
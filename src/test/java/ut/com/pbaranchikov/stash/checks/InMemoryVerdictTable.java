@@ -0,0 +1,51 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+
+import com.pbaranchikov.stash.checks.VerdictTable;
+
+/**
+ * In-memory stand-in of the verdict table, shared between the nodes. Empty
+ * values are read as <code>null</code>, as Oracle stores them.
+ * @author Pavel Baranchikov
+ */
+public class InMemoryVerdictTable implements VerdictTable {
+
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+    private int readCount;
+
+    @Override
+    @Nonnull
+    public Map<String, String> getAll(@Nonnull Collection<String> keys) {
+        readCount++;
+        final Map<String, String> result = new HashMap<>();
+        for (String key : keys) {
+            final String value = values.get(key);
+            if (value != null) {
+                result.put(key, value.isEmpty() ? null : value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void putAll(@Nonnull Map<String, String> newValues) {
+        for (Map.Entry<String, String> entry : newValues.entrySet()) {
+            values.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public int getReadCount() {
+        return readCount;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+}
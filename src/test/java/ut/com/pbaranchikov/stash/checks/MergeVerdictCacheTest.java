@@ -0,0 +1,228 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pbaranchikov.stash.checks.EolCheckPolicy;
+import com.pbaranchikov.stash.checks.MergeVerdict;
+import com.pbaranchikov.stash.checks.MergeVerdictCache;
+
+/**
+ * Unit tests for {@link MergeVerdictCache}.
+ * @author Pavel Baranchikov
+ */
+public class MergeVerdictCacheTest {
+
+    private static final String SOURCE = "1111111111111111111111111111111111111111";
+    private static final String TARGET = "2222222222222222222222222222222222222222";
+    private static final String OTHER = "3333333333333333333333333333333333333333";
+    private static final String BASE = "4444444444444444444444444444444444444444";
+    private static final double DELTA = 1e-9;
+
+    private MergeVerdictCache cache;
+    private EolCheckPolicy policy;
+
+    @Before
+    public void createCache() {
+        cache = new MergeVerdictCache(2);
+        policy = TestObjects.createPolicy(false);
+    }
+
+    private static MergeVerdict verdict(String source, String target,
+            Collection<String> wrongPaths) {
+        return new MergeVerdict(source, target, BASE, wrongPaths);
+    }
+
+    @Test
+    public void testUnchangedPullRequestHits() {
+        Assert.assertNull(cache.get(TestObjects.createPullRequest(1, SOURCE, TARGET), policy));
+        cache.put(TestObjects.createPullRequest(1, SOURCE, TARGET), policy,
+                verdict(SOURCE, TARGET, Arrays.asList("a.txt", "b.txt")));
+        Assert.assertEquals(Arrays.asList("a.txt", "b.txt"), cache.get(
+                TestObjects.createPullRequest(1, SOURCE, TARGET), policy));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(0.5, cache.getHitRate(), DELTA);
+        Assert.assertTrue(cache.contains(TestObjects.createPullRequest(1, SOURCE, TARGET),
+                policy));
+        Assert.assertFalse(cache.contains(TestObjects.createPullRequest(1, OTHER, TARGET),
+                policy));
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testChangedPullRequestMisses() {
+        cache.put(TestObjects.createPullRequest(1, SOURCE, TARGET), policy,
+                verdict(SOURCE, TARGET, Collections.emptyList()));
+        Assert.assertNull(cache.get(TestObjects.createPullRequest(1, OTHER, TARGET), policy));
+        Assert.assertNull(cache.get(TestObjects.createPullRequest(1, SOURCE, OTHER), policy));
+        Assert.assertNull(cache.get(TestObjects.createPullRequest(2, SOURCE, TARGET), policy));
+        Assert.assertNull(cache.get(TestObjects.createPullRequest(1, SOURCE, TARGET),
+                TestObjects.createPolicy(true)));
+        Assert.assertEquals(Collections.emptyList(), cache.get(TestObjects.createPullRequest(1,
+                SOURCE, TARGET), policy));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        cache.put(TestObjects.createPullRequest(1, SOURCE, TARGET), policy,
+                verdict(SOURCE, TARGET, Collections.emptyList()));
+        cache.put(TestObjects.createPullRequest(2, SOURCE, TARGET), policy,
+                verdict(SOURCE, TARGET, Collections.emptyList()));
+        Assert.assertNotNull(cache.get(TestObjects.createPullRequest(1, SOURCE, TARGET), policy));
+        cache.put(TestObjects.createPullRequest(3, SOURCE, TARGET), policy,
+                verdict(SOURCE, TARGET, Collections.emptyList()));
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertNotNull(cache.get(TestObjects.createPullRequest(1, SOURCE, TARGET), policy));
+        Assert.assertNull(cache.get(TestObjects.createPullRequest(2, SOURCE, TARGET), policy));
+    }
+
+    @Test
+    public void testLatestVerdictKept() {
+        Assert.assertNull(cache.getLatest(TestObjects.createPullRequest(1, SOURCE, TARGET),
+                policy));
+        cache.put(TestObjects.createPullRequest(1, SOURCE, TARGET), policy,
+                verdict(SOURCE, TARGET, Arrays.asList("a.txt")));
+        cache.put(TestObjects.createPullRequest(1, OTHER, TARGET), policy,
+                verdict(OTHER, TARGET, Arrays.asList("b.txt")));
+        final MergeVerdict latest = cache.getLatest(TestObjects.createPullRequest(1, SOURCE,
+                OTHER), policy);
+        Assert.assertEquals(OTHER, latest.getFromCommit());
+        Assert.assertEquals(TARGET, latest.getToCommit());
+        Assert.assertEquals(Arrays.asList("b.txt"), latest.getWrongPaths());
+        Assert.assertEquals(BASE, latest.getMergeBase());
+        Assert.assertNull(cache.getLatest(TestObjects.createPullRequest(2, SOURCE, TARGET),
+                policy));
+        Assert.assertNull(cache.getLatest(TestObjects.createPullRequest(1, SOURCE, TARGET),
+                TestObjects.createPolicy(true)));
+    }
+
+    @Test
+    public void testComputedOnce() {
+        final Collection<String> computed = cache.get(TestObjects.createPullRequest(1, SOURCE,
+                TARGET), policy, () -> verdict(SOURCE, TARGET, Arrays.asList("a.txt")));
+        Assert.assertEquals(Arrays.asList("a.txt"), computed);
+        Assert.assertEquals(computed, cache.get(TestObjects.createPullRequest(1, SOURCE, TARGET),
+                policy, () -> {
+                    throw new AssertionError("Verdict must be cached");
+                }));
+    }
+
+    @Test
+    public void testConcurrentEvaluationJoins() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger computations = new AtomicInteger();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Collection<String>> first = executor.submit(() -> cache.get(
+                    TestObjects.createPullRequest(1, SOURCE, TARGET), policy, () -> {
+                        computations.incrementAndGet();
+                        started.countDown();
+                        await(release);
+                        return verdict(SOURCE, TARGET, Arrays.asList("a.txt"));
+                    }));
+            Assert.assertTrue(started.await(1, TimeUnit.MINUTES));
+            final Thread releaser = new Thread(() -> {
+                while (cache.getJoinCount() == 0) {
+                    Thread.yield();
+                }
+                release.countDown();
+            });
+            releaser.start();
+            Assert.assertEquals(Arrays.asList("a.txt"), cache.get(
+                    TestObjects.createPullRequest(1, SOURCE, TARGET), policy, () -> {
+                        computations.incrementAndGet();
+                        return verdict(SOURCE, TARGET, Collections.emptyList());
+                    }));
+            Assert.assertEquals(Arrays.asList("a.txt"), first.get(1, TimeUnit.MINUTES));
+            Assert.assertEquals(1, computations.get());
+            Assert.assertEquals(1, cache.getJoinCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedComputationNotCached() {
+        try {
+            cache.get(TestObjects.createPullRequest(1, SOURCE, TARGET), policy, () -> {
+                throw new IllegalStateException();
+            });
+            Assert.fail("Exception expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(Collections.emptyList(), cache.get(TestObjects.createPullRequest(1,
+                SOURCE, TARGET), policy, () -> verdict(SOURCE, TARGET, Collections.emptyList())));
+    }
+
+    @Test
+    public void testStartedVerdictJoined() throws Exception {
+        final MergeVerdictCache.PendingVerdict pending = cache.start(TestObjects
+                .createPullRequest(1, SOURCE, TARGET), policy);
+        Assert.assertNotNull(pending);
+        Assert.assertNull(cache.start(TestObjects.createPullRequest(1, SOURCE, TARGET), policy));
+        final AtomicInteger computations = new AtomicInteger();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Collection<String>> joined = executor.submit(() -> cache.get(
+                    TestObjects.createPullRequest(1, SOURCE, TARGET), policy, () -> {
+                        computations.incrementAndGet();
+                        return verdict(SOURCE, TARGET, Collections.emptyList());
+                    }));
+            while (cache.getJoinCount() == 0) {
+                Thread.yield();
+            }
+            pending.complete(verdict(SOURCE, TARGET, Arrays.asList("a.txt")));
+            Assert.assertEquals(Arrays.asList("a.txt"), joined.get(1, TimeUnit.MINUTES));
+            Assert.assertEquals(0, computations.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertNull(cache.start(TestObjects.createPullRequest(1, SOURCE, TARGET), policy));
+    }
+
+    @Test
+    public void testAbandonedVerdictComputed() {
+        final MergeVerdictCache.PendingVerdict pending = cache.start(TestObjects
+                .createPullRequest(1, SOURCE, TARGET), policy);
+        pending.abandon();
+        Assert.assertNull(cache.get(TestObjects.createPullRequest(1, SOURCE, TARGET), policy));
+        Assert.assertEquals(Arrays.asList("a.txt"), cache.get(TestObjects.createPullRequest(1,
+                SOURCE, TARGET), policy, () -> verdict(SOURCE, TARGET, Arrays.asList("a.txt"))));
+        pending.abandon();
+        Assert.assertEquals(Arrays.asList("a.txt"), cache.get(TestObjects.createPullRequest(1,
+                SOURCE, TARGET), policy));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            Assert.assertTrue(latch.await(1, TimeUnit.MINUTES));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        final MergeVerdictCache disabled = new MergeVerdictCache(0);
+        disabled.put(TestObjects.createPullRequest(1, SOURCE, TARGET), policy,
+                verdict(SOURCE, TARGET, Collections.emptyList()));
+        Assert.assertNull(disabled.get(TestObjects.createPullRequest(1, SOURCE, TARGET), policy));
+        Assert.assertEquals(0.0, disabled.getHitRate(), DELTA);
+    }
+
+}
@@ -0,0 +1,129 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.atlassian.bitbucket.pull.PullRequest;
+import com.atlassian.bitbucket.pull.PullRequestService;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.git.command.GitCommandBuilderFactory;
+import com.atlassian.event.api.EventPublisher;
+import com.pbaranchikov.stash.checks.BlobSizePolicy;
+import com.pbaranchikov.stash.checks.CheckExecutor;
+import com.pbaranchikov.stash.checks.CommitLedger;
+import com.pbaranchikov.stash.checks.EolCheckPolicy;
+import com.pbaranchikov.stash.checks.EolCheckPolicyCache;
+import com.pbaranchikov.stash.checks.GitProcessGovernor;
+import com.pbaranchikov.stash.checks.MergeVerdict;
+import com.pbaranchikov.stash.checks.MergeVerdictCache;
+import com.pbaranchikov.stash.checks.PullRequestChecker;
+import com.pbaranchikov.stash.checks.RealParentResolver;
+import com.pbaranchikov.stash.checks.SharedVerdictStore;
+
+/**
+ * Unit tests for the ledger shortcut of {@link PullRequestChecker}. Merge
+ * base is fixed and the files are never enumerated, so no git command is
+ * run.
+ * @author Pavel Baranchikov
+ */
+public class PullRequestCheckerTest {
+
+    private static final String SOURCE = "1111111111111111111111111111111111111111";
+    private static final String TARGET = "2222222222222222222222222222222222222222";
+    private static final String OTHER = "3333333333333333333333333333333333333333";
+    private static final String BASE = "4444444444444444444444444444444444444444";
+
+    private Repository repo;
+    private EolCheckPolicy policy;
+    private CheckExecutor checkExecutor;
+    private CommitLedger commitLedger;
+    private MergeVerdictCache verdictCache;
+    private PullRequestChecker checker;
+
+    @Before
+    public void createChecker() {
+        final GitCommandBuilderFactory builderFactory = Mockito
+                .mock(GitCommandBuilderFactory.class);
+        final GitProcessGovernor governor = new GitProcessGovernor();
+        final SharedVerdictStore sharedVerdictStore = new SharedVerdictStore(
+                new InMemoryVerdictTable());
+        final RealParentResolver parentResolver = new RealParentResolver(builderFactory,
+                governor) {
+            @Override
+            public String getMergeBase(Repository repository, String commit1, String commit2) {
+                return BASE;
+            }
+        };
+        checkExecutor = new CheckExecutor();
+        commitLedger = new CommitLedger();
+        verdictCache = new MergeVerdictCache();
+        checker = new PullRequestChecker(builderFactory, Mockito.mock(PullRequestService.class),
+                TestObjects.createBlobVerdictResolver(builderFactory, sharedVerdictStore,
+                        governor), sharedVerdictStore, checkExecutor, governor,
+                new EolCheckPolicyCache(Mockito.mock(EventPublisher.class),
+                        new BlobSizePolicy()), verdictCache, parentResolver, commitLedger);
+        repo = TestObjects.createRepository(1);
+        policy = TestObjects.createPolicy(false);
+    }
+
+    @After
+    public void destroyExecutor() {
+        checkExecutor.destroy();
+    }
+
+    @Test
+    public void testAcceptedRangeNotChecked() {
+        commitLedger.addAccepted(repo, BASE, OTHER, policy);
+        commitLedger.addAccepted(repo, OTHER, SOURCE, policy);
+        final PullRequest pullRequest = TestObjects.createPullRequest(1, SOURCE, TARGET);
+        Assert.assertEquals(Collections.emptyList(), checker.getWrongPaths(pullRequest,
+                policy));
+        Assert.assertEquals(1, commitLedger.getHitCount());
+        final MergeVerdict verdict = verdictCache.getLatest(pullRequest, policy);
+        Assert.assertEquals(BASE, verdict.getMergeBase());
+        Assert.assertEquals(SOURCE, verdict.getFromCommit());
+    }
+
+    @Test
+    public void testBatchVerdictsCached() {
+        commitLedger.addAccepted(repo, BASE, SOURCE, policy);
+        final PullRequest accepted = TestObjects.createPullRequest(1, SOURCE, TARGET);
+        final PullRequest cached = TestObjects.createPullRequest(1, OTHER, TARGET);
+        verdictCache.put(cached, policy, new MergeVerdict(OTHER, TARGET, BASE, Arrays
+                .asList("a.txt")));
+        final Map<PullRequest, Collection<String>> wrongPaths = checker.getWrongPaths(Arrays
+                .asList(accepted, cached), policy);
+        Assert.assertEquals(Collections.emptyList(), wrongPaths.get(accepted));
+        Assert.assertEquals(Arrays.asList("a.txt"), wrongPaths.get(cached));
+        Assert.assertTrue(verdictCache.contains(accepted, policy));
+    }
+
+    @Test
+    public void testPartlyAcceptedRangeChecked() {
+        commitLedger.addAccepted(repo, BASE, OTHER, policy);
+        // Previous verdict of the same source commit is reused by the check
+        verdictCache.put(TestObjects.createPullRequest(1, SOURCE, OTHER), policy,
+                new MergeVerdict(SOURCE, OTHER, BASE, Arrays.asList("a.txt")));
+        Assert.assertEquals(Arrays.asList("a.txt"), checker.getWrongPaths(TestObjects
+                .createPullRequest(1, SOURCE, TARGET), policy));
+        Assert.assertEquals(1, commitLedger.getMissCount());
+    }
+
+    @Test
+    public void testOtherPolicyNotShortcut() {
+        commitLedger.addAccepted(repo, BASE, SOURCE, TestObjects.createPolicy(true));
+        verdictCache.put(TestObjects.createPullRequest(1, SOURCE, OTHER), policy,
+                new MergeVerdict(SOURCE, OTHER, BASE, Arrays.asList("a.txt")));
+        Assert.assertEquals(Arrays.asList("a.txt"), checker.getWrongPaths(TestObjects
+                .createPullRequest(1, SOURCE, TARGET), policy));
+    }
+
+}
@@ -0,0 +1,112 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.atlassian.bitbucket.commit.CommitService;
+import com.atlassian.bitbucket.hook.repository.PreRepositoryHookContext;
+import com.atlassian.bitbucket.hook.repository.RepositoryHookRequest;
+import com.atlassian.bitbucket.hook.repository.RepositoryHookResult;
+import com.atlassian.bitbucket.repository.RefChange;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.git.command.GitCommandBuilderFactory;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.event.api.EventPublisher;
+import com.pbaranchikov.stash.checks.BlobSizePolicy;
+import com.pbaranchikov.stash.checks.CheckExecutor;
+import com.pbaranchikov.stash.checks.CommitLedger;
+import com.pbaranchikov.stash.checks.Constants;
+import com.pbaranchikov.stash.checks.EolCheckPolicy;
+import com.pbaranchikov.stash.checks.EolCheckPolicyCache;
+import com.pbaranchikov.stash.checks.GitProcessGovernor;
+import com.pbaranchikov.stash.checks.RealParentResolver;
+import com.pbaranchikov.stash.checks.RepositoryHook;
+import com.pbaranchikov.stash.checks.SharedVerdictStore;
+
+/**
+ * Unit tests for the ledger recording of {@link RepositoryHook}. Verdicts of
+ * the pushed ranges are put to the shared store beforehand, so no git
+ * command is run.
+ * @author Pavel Baranchikov
+ */
+public class RepositoryHookTest {
+
+    private static final String FROM = "1111111111111111111111111111111111111111";
+    private static final String TO = "2222222222222222222222222222222222222222";
+
+    private Repository repo;
+    private Settings settings;
+    private EolCheckPolicy policy;
+    private SharedVerdictStore sharedVerdictStore;
+    private CheckExecutor checkExecutor;
+    private CommitLedger commitLedger;
+    private RepositoryHook hook;
+
+    @Before
+    public void createHook() {
+        final GitCommandBuilderFactory builderFactory = Mockito
+                .mock(GitCommandBuilderFactory.class);
+        final GitProcessGovernor governor = new GitProcessGovernor();
+        final EolCheckPolicyCache policyCache = new EolCheckPolicyCache(
+                Mockito.mock(EventPublisher.class), new BlobSizePolicy());
+        sharedVerdictStore = new SharedVerdictStore(new InMemoryVerdictTable());
+        checkExecutor = new CheckExecutor();
+        commitLedger = new CommitLedger();
+        hook = new RepositoryHook(builderFactory, new RealParentResolver(builderFactory,
+                governor), Mockito.mock(CommitService.class),
+                TestObjects.createBlobVerdictResolver(builderFactory, sharedVerdictStore,
+                        governor), sharedVerdictStore, checkExecutor, governor, policyCache,
+                commitLedger);
+        repo = TestObjects.createRepository(1);
+        settings = TestObjects.createSettings(false, null);
+        policy = policyCache.getPolicy(settings);
+    }
+
+    @After
+    public void destroyExecutor() {
+        checkExecutor.destroy();
+    }
+
+    private RepositoryHookResult push(String from, String to) {
+        final RefChange refChange = Mockito.mock(RefChange.class);
+        Mockito.when(refChange.getFromHash()).thenReturn(from);
+        Mockito.when(refChange.getToHash()).thenReturn(to);
+        final Collection<RefChange> refChanges = Collections.singletonList(refChange);
+        final RepositoryHookRequest request = Mockito.mock(RepositoryHookRequest.class);
+        Mockito.when(request.getRepository()).thenReturn(repo);
+        Mockito.when(request.getRefChanges()).thenReturn(refChanges);
+        final PreRepositoryHookContext context = Mockito.mock(PreRepositoryHookContext.class);
+        Mockito.when(context.getSettings()).thenReturn(settings);
+        return hook.preUpdate(context, request);
+    }
+
+    @Test
+    public void testAcceptedPushRecorded() {
+        sharedVerdictStore.putWrongPaths(repo, FROM, TO, policy, Collections.emptyList());
+        Assert.assertTrue(push(FROM, TO).isAccepted());
+        Assert.assertTrue(commitLedger.isAccepted(repo, FROM, TO, policy));
+        Assert.assertFalse(commitLedger.isAccepted(repo, FROM, TO,
+                TestObjects.createPolicy(true)));
+    }
+
+    @Test
+    public void testRejectedPushNotRecorded() {
+        sharedVerdictStore.putWrongPaths(repo, FROM, TO, policy, Arrays.asList("a.txt"));
+        Assert.assertFalse(push(FROM, TO).isAccepted());
+        Assert.assertFalse(commitLedger.isAccepted(repo, FROM, TO, policy));
+    }
+
+    @Test
+    public void testDeletionNotRecorded() {
+        Assert.assertTrue(push(FROM, Constants.NON_ID).isAccepted());
+        Assert.assertEquals(0, commitLedger.getSize());
+    }
+
+}
@@ -0,0 +1,102 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.pbaranchikov.stash.checks.BlobEolStyle;
+import com.pbaranchikov.stash.checks.Constants;
+import com.pbaranchikov.stash.checks.EolCheckPolicy;
+import com.pbaranchikov.stash.checks.SharedVerdictStore;
+
+/**
+ * Unit test for the verdict store, shared between the nodes
+ * {@link SharedVerdictStore}.
+ * @author Pavel Baranchikov
+ */
+public class SharedVerdictStoreTest {
+
+    private static final String SINCE = "8ba3a16384aacc37d01564b28401755ce8053f51";
+    private static final String TO = "7f0d4c62b7cc1b61f8a2e2e8b7f4ab2b9ef5f6a1";
+
+    private InMemoryVerdictTable table;
+    private Repository repo;
+    private EolCheckPolicy policy;
+
+    @Before
+    public void createTable() {
+        table = new InMemoryVerdictTable();
+        repo = TestObjects.createRepository(1);
+        policy = TestObjects.createPolicy(false, null);
+    }
+
+    @Test
+    public void testBlobStylesShared() {
+        final Map<String, BlobEolStyle> styles = new HashMap<>();
+        styles.put(SINCE, BlobEolStyle.HAS_CR);
+        styles.put(TO, BlobEolStyle.BINARY);
+        new SharedVerdictStore(table).putBlobStyles(styles);
+        final Map<String, BlobEolStyle> found = new SharedVerdictStore(table)
+                .getBlobStyles(Arrays.asList(SINCE, TO, Constants.NON_ID));
+        Assert.assertEquals(styles, found);
+    }
+
+    @Test
+    public void testWrongPathsShared() {
+        final Collection<String> wrongPaths = Arrays.asList("a\\b", "new\nline", "", "c.txt");
+        new SharedVerdictStore(table).putWrongPaths(repo, SINCE, TO, policy, wrongPaths);
+        final Collection<String> found = new SharedVerdictStore(table).getWrongPaths(repo,
+                SINCE, TO, policy);
+        Assert.assertEquals(wrongPaths, found);
+    }
+
+    @Test
+    public void testEmptyWrongPaths() {
+        final SharedVerdictStore store = new SharedVerdictStore(table);
+        Assert.assertNull(store.getWrongPaths(repo, null, TO, policy));
+        store.putWrongPaths(repo, null, TO, policy, Collections.<String>emptyList());
+        Assert.assertEquals(Collections.emptyList(), new SharedVerdictStore(table)
+                .getWrongPaths(repo, null, TO, policy));
+    }
+
+    @Test
+    public void testPolicyIsPartOfKey() {
+        final SharedVerdictStore store = new SharedVerdictStore(table);
+        store.putWrongPaths(repo, SINCE, TO, policy, Collections.singleton("a.txt"));
+        Assert.assertNull(store.getWrongPaths(repo, SINCE, TO,
+                TestObjects.createPolicy(true, null)));
+        Assert.assertNull(store.getWrongPaths(repo, SINCE, TO,
+                TestObjects.createPolicy(false, ".*\\.bat")));
+        Assert.assertNotNull(store.getWrongPaths(repo, SINCE, TO,
+                TestObjects.createPolicy(false, "")));
+    }
+
+    @Test
+    public void testCheckedRangeStored() {
+        final SharedVerdictStore store = new SharedVerdictStore(table);
+        Assert.assertEquals(Collections.singletonList("a.txt"), store.getWrongPaths(repo, SINCE,
+                TO, policy, () -> Collections.singletonList("a.txt")));
+        Assert.assertEquals(Collections.singletonList("a.txt"), new SharedVerdictStore(table)
+                .getWrongPaths(repo, SINCE, TO, policy, () -> {
+                    throw new AssertionError("Range must not be checked again");
+                }));
+    }
+
+    @Test
+    public void testNearCache() {
+        final SharedVerdictStore store = new SharedVerdictStore(table);
+        store.putWrongPaths(repo, SINCE, TO, policy, Collections.singleton("a.txt"));
+        final int readCount = table.getReadCount();
+        Assert.assertEquals(Collections.singletonList("a.txt"),
+                store.getWrongPaths(repo, SINCE, TO, policy));
+        Assert.assertEquals(readCount, table.getReadCount());
+    }
+
+}
@@ -0,0 +1,116 @@
+package ut.com.pbaranchikov.stash.checks;
+
+import java.util.Optional;
+
+import org.mockito.Mockito;
+
+import com.atlassian.bitbucket.pull.PullRequest;
+import com.atlassian.bitbucket.pull.PullRequestRef;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.git.command.GitCommandBuilderFactory;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.sal.api.ApplicationProperties;
+import com.pbaranchikov.stash.checks.BlobSizePolicy;
+import com.pbaranchikov.stash.checks.BlobStyleCache;
+import com.pbaranchikov.stash.checks.BlobStyleStore;
+import com.pbaranchikov.stash.checks.BlobVerdictResolver;
+import com.pbaranchikov.stash.checks.Constants;
+import com.pbaranchikov.stash.checks.EolCheckPolicy;
+import com.pbaranchikov.stash.checks.GitProcessGovernor;
+import com.pbaranchikov.stash.checks.SharedVerdictStore;
+
+/**
+ * Factory of the mocks and the objects, shared by the unit tests.
+ * @author Pavel Baranchikov
+ */
+public final class TestObjects {
+
+    private TestObjects() {
+    }
+
+    /**
+     * Creates settings of the hook.
+     * @param allowInheritedEol whether inherited EOL-style is allowed
+     * @param excludeFiles excluded files patterns, may be <code>null</code>
+     * @return hook settings
+     */
+    public static Settings createSettings(boolean allowInheritedEol, String excludeFiles) {
+        final Settings settings = Mockito.mock(Settings.class);
+        Mockito.when(settings.getBoolean(Constants.SETTING_ALLOW_INHERITED_EOL)).thenReturn(
+                allowInheritedEol);
+        Mockito.when(settings.getString(Constants.SETTING_EXCLUDED_FILES)).thenReturn(
+                excludeFiles);
+        return settings;
+    }
+
+    /**
+     * Creates policy of the settings with the default blob size policy.
+     * @param allowInheritedEol whether inherited EOL-style is allowed
+     * @param excludeFiles excluded files patterns, may be <code>null</code>
+     * @return check policy
+     */
+    public static EolCheckPolicy createPolicy(boolean allowInheritedEol, String excludeFiles) {
+        return EolCheckPolicy.fromSettings(createSettings(allowInheritedEol, excludeFiles),
+                new BlobSizePolicy());
+    }
+
+    /**
+     * Creates policy of the settings without excluded files.
+     * @param allowInheritedEol whether inherited EOL-style is allowed
+     * @return check policy
+     */
+    public static EolCheckPolicy createPolicy(boolean allowInheritedEol) {
+        return createPolicy(allowInheritedEol, null);
+    }
+
+    /**
+     * Creates repository.
+     * @param id ID of the repository
+     * @return repository
+     */
+    public static Repository createRepository(int id) {
+        final Repository repository = Mockito.mock(Repository.class);
+        Mockito.when(repository.getId()).thenReturn(id);
+        return repository;
+    }
+
+    /**
+     * Creates pull request with the ID 1.
+     * @param repositoryId ID of the target repository
+     * @param source latest commit of the source branch
+     * @param target latest commit of the target branch
+     * @return pull request
+     */
+    public static PullRequest createPullRequest(int repositoryId, String source,
+            String target) {
+        final Repository repository = createRepository(repositoryId);
+        final PullRequestRef fromRef = Mockito.mock(PullRequestRef.class);
+        Mockito.when(fromRef.getLatestCommit()).thenReturn(source);
+        Mockito.when(fromRef.getRepository()).thenReturn(repository);
+        final PullRequestRef toRef = Mockito.mock(PullRequestRef.class);
+        Mockito.when(toRef.getLatestCommit()).thenReturn(target);
+        Mockito.when(toRef.getRepository()).thenReturn(repository);
+        final PullRequest pullRequest = Mockito.mock(PullRequest.class);
+        Mockito.when(pullRequest.getId()).thenReturn(1L);
+        Mockito.when(pullRequest.getFromRef()).thenReturn(fromRef);
+        Mockito.when(pullRequest.getToRef()).thenReturn(toRef);
+        return pullRequest;
+    }
+
+    /**
+     * Creates blob verdict resolver without the persistent blob store.
+     * @param builderFactory git command builder factory
+     * @param sharedVerdictStore shared verdict store
+     * @param governor git process governor
+     * @return blob verdict resolver
+     */
+    public static BlobVerdictResolver createBlobVerdictResolver(
+            GitCommandBuilderFactory builderFactory, SharedVerdictStore sharedVerdictStore,
+            GitProcessGovernor governor) {
+        final ApplicationProperties properties = Mockito.mock(ApplicationProperties.class);
+        Mockito.when(properties.getLocalHomeDirectory()).thenReturn(Optional.empty());
+        return new BlobVerdictResolver(builderFactory, new BlobStyleCache(), new BlobStyleStore(
+                properties), sharedVerdictStore, governor, new BlobSizePolicy());
+    }
+
+}